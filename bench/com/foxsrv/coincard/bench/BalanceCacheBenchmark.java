@@ -0,0 +1,131 @@
+package com.foxsrv.coincard.bench;
+
+import com.foxsrv.coincard.core.CardBalanceMap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * BalanceCacheBenchmark - memory per N cached cards and lookup cost of the balance cache's
+ * {@link CardBalanceMap} against the {@code ConcurrentHashMap<String, CachedBalance>} it
+ * replaced (entry class copied below).
+ * <p>
+ * Not part of the plugin jar. Build and run against the compiled plugin classes:
+ * <pre>
+ *   javac -d out -cp plugin-classes bench/com/foxsrv/coincard/bench/BalanceCacheBenchmark.java
+ *   java -cp out:plugin-classes com.foxsrv.coincard.bench.BalanceCacheBenchmark [cards] [lookups]
+ * </pre>
+ * Memory is the heap growth while the structure is being filled, measured after repeated
+ * System.gc() calls, so run it with a fixed heap (e.g. -Xms1g -Xmx1g) for stable numbers. The
+ * card code strings themselves are created up front and not counted for either structure:
+ * the plugin holds them in UserStore anyway. Lookups take the card code String, as the
+ * plugin's callers do, so packing the code is part of the measured cost.
+ */
+public final class BalanceCacheBenchmark {
+
+    /** The old BalanceCacheManager.CachedBalance. */
+    private static final class CachedBalance {
+        final double balance;
+        final long timestamp;
+
+        CachedBalance(double balance, long timestamp) {
+            this.balance = balance;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private static volatile Object sink;
+    private static volatile long longSink;
+
+    public static void main(String[] args) {
+        int cards = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+
+        String[] codes = new String[cards];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < cards; i++) {
+            codes[i] = String.format("%012x", random.nextLong(1L << 48));
+        }
+        long now = System.currentTimeMillis();
+
+        long before = usedHeap();
+        Map<String, CachedBalance> chm = new ConcurrentHashMap<>();
+        for (String code : codes) chm.put(code, new CachedBalance(random.nextDouble(1_000_000), now));
+        long chmBytes = usedHeap() - before;
+
+        before = usedHeap();
+        CardBalanceMap primitive = new CardBalanceMap();
+        for (String code : codes) primitive.put(CardBalanceMap.pack(code), random.nextLong(100_000_000_000_000L), now);
+        long primitiveBytes = usedHeap() - before;
+
+        System.out.printf("%d cards%n", cards);
+        System.out.printf("ConcurrentHashMap<String, CachedBalance>: %,10d bytes  %6.1f bytes/card%n",
+                chmBytes, (double) chmBytes / cards);
+        System.out.printf("CardBalanceMap                          : %,10d bytes  %6.1f bytes/card%n",
+                primitiveBytes, (double) primitiveBytes / cards);
+
+        int[] order = new int[1 << 16];
+        for (int i = 0; i < order.length; i++) order[i] = random.nextInt(cards);
+
+        for (int round = 0; round < 3; round++) {
+            boolean report = round == 2; // first rounds are JIT warmup
+            lookup("ConcurrentHashMap get  (Double)", lookups, report, () -> {
+                long acc = 0;
+                for (int i = 0; i < lookups; i++) {
+                    CachedBalance cached = chm.get(codes[order[i & (order.length - 1)]]);
+                    Double balance = cached != null ? cached.balance : null; // what getBalanceFast returned
+                    sink = balance;
+                    acc++;
+                }
+                return acc;
+            });
+            lookup("CardBalanceMap get     (long)  ", lookups, report, () -> {
+                long acc = 0;
+                for (int i = 0; i < lookups; i++) {
+                    longSink = primitive.get(CardBalanceMap.pack(codes[order[i & (order.length - 1)]]), 0L);
+                    acc++;
+                }
+                return acc;
+            });
+        }
+        sink = chm;
+        sink = primitive;
+    }
+
+    private interface Loop {
+        long run();
+    }
+
+    private static void lookup(String name, int lookups, boolean report, Loop loop) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        loop.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+        if (report) {
+            System.out.printf("%s: %6.1f ns/lookup  %5.1f bytes/lookup%n",
+                    name, (double) elapsed / lookups, (double) allocated / lookups);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // take the lowest of a few collections, in case one ran concurrently with allocation
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+        }
+        return used;
+    }
+}
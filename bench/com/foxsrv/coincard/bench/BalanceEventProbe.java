@@ -0,0 +1,154 @@
+package com.foxsrv.coincard.bench;
+
+import com.foxsrv.coincard.io.BalanceEventStream;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * BalanceEventProbe - checks the push channel end to end: a {@link BalanceEventStream}
+ * subscribed to a {@link StubBank}'s api/card/events, while random transfers between the
+ * subscribed cards go through api/card/pay.
+ * <p>
+ * Every transfer must come back as an event for both cards, and once the transfers are done the
+ * last pushed balance of every card must equal the bank's. Reports delivery latency (from
+ * sending the pay request to the receiving card's event; transfers run one at a time) and,
+ * with {@code --resubscribe}, adds a card half way through to exercise the watchdog's
+ * reconnect. Exits 1 if any balance is off.
+ * <pre>
+ *   java -cp out:plugin-classes com.foxsrv.coincard.bench.BalanceEventProbe [--cards 50]
+ *        [--transfers 2000] [--latency 0] [--resubscribe true]
+ * </pre>
+ */
+public final class BalanceEventProbe {
+
+    public static void main(String[] args) throws Exception {
+        StubBank.Args a = new StubBank.Args(args);
+        int cardCount = a.getInt("cards", 50);
+        int transfers = a.getInt("transfers", 2000);
+        boolean resubscribe = Boolean.parseBoolean(a.getString("resubscribe", "true"));
+
+        StubBank bank = new StubBank()
+                .latency(a.getLong("latency", 0), 0)
+                .initialBalance(1_000_000)
+                .start(0);
+        try {
+            List<String> cards = new ArrayList<>();
+            for (int i = 0; i < cardCount; i++) cards.add(bank.createCard());
+            Set<String> tracked = ConcurrentHashMap.newKeySet();
+            tracked.addAll(cards.subList(0, resubscribe ? cardCount - 1 : cardCount));
+
+            Map<String, Double> pushed = new ConcurrentHashMap<>();
+            AtomicReference<String> awaited = new AtomicReference<>();
+            AtomicLong sentAt = new AtomicLong();
+            long[] latencyNanos = new long[transfers];
+            int[] latencies = {0};
+            CountDownLatch connected = new CountDownLatch(1);
+            BalanceEventStream stream = new BalanceEventStream(bank.getBaseUrl() + "api/card/events",
+                    () -> new HashSet<>(tracked), new BalanceEventStream.Listener() {
+                        @Override
+                        public void onBalance(String card, double coins) {
+                            pushed.put(card, coins);
+                            String waitingFor = awaited.get();
+                            if (card.equals(waitingFor) && awaited.compareAndSet(waitingFor, null)) {
+                                synchronized (latencyNanos) {
+                                    latencyNanos[latencies[0]++] = System.nanoTime() - sentAt.get();
+                                }
+                            }
+                        }
+
+                        @Override
+                        public void onSubscribed(Set<String> subscribed) {
+                            if (subscribed.containsAll(tracked)) connected.countDown();
+                        }
+
+                        @Override
+                        public void onDisconnected() {
+                        }
+                    }, Logger.getLogger("BalanceEventProbe"), 5000);
+            stream.start();
+            if (!connected.await(10, TimeUnit.SECONDS)) throw new IllegalStateException("stream did not connect");
+
+            HttpClient client = HttpClient.newHttpClient();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < transfers; i++) {
+                if (resubscribe && i == transfers / 2) {
+                    // new card tracked: the watchdog notices within 5 s and resubscribes
+                    tracked.add(cards.get(cardCount - 1));
+                    long deadline = System.currentTimeMillis() + 15_000;
+                    while (stream.getSubscribedCount() != tracked.size() && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(50);
+                    }
+                }
+                Set<String> live = new HashSet<>(tracked);
+                List<String> pool = new ArrayList<>(live);
+                String from = pool.get(random.nextInt(pool.size()));
+                String to = pool.get(random.nextInt(pool.size()));
+                if (from.equals(to)) continue;
+                String body = "{\"fromCard\":\"" + from + "\",\"toCard\":\"" + to + "\",\"amount\":"
+                        + (1 + random.nextInt(1000)) / 100.0 + "}";
+                sentAt.set(System.nanoTime());
+                awaited.set(to);
+                HttpResponse<String> reply = client.send(HttpRequest.newBuilder(URI.create(bank.getBaseUrl() + "api/card/pay"))
+                        .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8)).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                if (!reply.body().startsWith("{\"success\":true")) awaited.set(null);
+            }
+
+            // let the last events arrive, then compare with the bank
+            long deadline = System.currentTimeMillis() + 10_000;
+            int mismatched;
+            do {
+                mismatched = 0;
+                for (String card : tracked) {
+                    BigDecimal balance = bank.getBalance(card);
+                    Double last = pushed.get(card);
+                    // a card nobody paid into gets no event
+                    if (last == null ? balance.compareTo(BigDecimal.valueOf(1_000_000)) != 0
+                            : last != balance.doubleValue()) {
+                        mismatched++;
+                    }
+                }
+                if (mismatched > 0) Thread.sleep(50);
+            } while (mismatched > 0 && System.currentTimeMillis() < deadline);
+            stream.stop();
+
+            long[] sorted;
+            synchronized (latencyNanos) {
+                sorted = Arrays.copyOf(latencyNanos, latencies[0]);
+            }
+            Arrays.sort(sorted);
+            System.out.printf("cards=%d transfers=%d events=%d connects=%d mismatched=%d%n", tracked.size(), transfers,
+                    stream.getEventsReceived(), stream.getConnects(), mismatched);
+            if (sorted.length > 0) {
+                System.out.printf("delivery latency ms: p50=%.2f p99=%.2f max=%.2f (n=%d)%n",
+                        sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6,
+                        sorted[sorted.length - 1] / 1e6, sorted.length);
+            }
+            System.out.println("StubBank " + bank.describe());
+            if (mismatched > 0 || (resubscribe && stream.getConnects() < 2)) System.exit(1);
+        } finally {
+            bank.stop();
+        }
+    }
+
+    private BalanceEventProbe() {
+    }
+}
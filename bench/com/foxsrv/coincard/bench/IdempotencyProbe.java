@@ -0,0 +1,143 @@
+package com.foxsrv.coincard.bench;
+
+import com.foxsrv.coincard.CoinCardPlugin.ApiClient;
+import com.foxsrv.coincard.CoinCardPlugin.ConfigManager;
+import com.foxsrv.coincard.CoinCardPlugin.IdempotencyStore;
+import com.foxsrv.coincard.io.HttpTransport;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * IdempotencyProbe - checks that a pay whose reply is lost is applied once when it is sent
+ * again: transfers go through the plugin's {@link ApiClient} (Idempotency-Key and local
+ * IdempotencyStore included) to a {@link StubBank} that applies {@code --drop-rate} of them and
+ * then closes the connection without answering.
+ * <p>
+ * A transfer that got no answer is sent again with the same key until it succeeds, as the
+ * pending-transaction recovery does. Afterwards every card's balance must match the transfers
+ * counted once each, the bank must have applied exactly {@code --transfers} of them and
+ * answered every lost reply from its Idempotency-Key store on a later attempt. Sending the
+ * confirmed keys once more must not reach the bank at all. Exits 1 if any of that is off.
+ * <pre>
+ *   java -cp out:plugin-classes:paper-api.jar com.foxsrv.coincard.bench.IdempotencyProbe
+ *        [--cards 20] [--transfers 500] [--drop-rate 0.25] [--latency 0] [--timeout 2000]
+ * </pre>
+ */
+public final class IdempotencyProbe {
+
+    private static final int MAX_ATTEMPTS = 50;
+
+    public static void main(String[] args) throws Exception {
+        StubBank.Args a = new StubBank.Args(args);
+        int cardCount = a.getInt("cards", 20);
+        int transfers = a.getInt("transfers", 500);
+
+        Logger log = Logger.getLogger("IdempotencyProbe");
+        if (!"true".equals(a.getString("verbose", "false"))) log.setLevel(Level.SEVERE);
+
+        StubBank bank = new StubBank()
+                .latency(a.getLong("latency", 0), 0)
+                .dropReplyRate(a.getDouble("drop-rate", 0.25))
+                .initialBalance(1_000_000)
+                .start(0);
+        File dataDir = Files.createTempDirectory("coincard-idempotency").toFile();
+        IdempotencyStore idempotency = new IdempotencyStore(dataDir, log);
+        idempotency.load();
+        try {
+            List<String> cards = new ArrayList<>();
+            Map<String, BigDecimal> expected = new HashMap<>();
+            for (int i = 0; i < cardCount; i++) {
+                String card = bank.createCard();
+                cards.add(card);
+                expected.put(card, bank.getBalance(card));
+            }
+
+            String[] defaults = {"--timeout", "2000"};
+            ConfigManager config = LoadDriver.benchConfig(new StubBank.Args(merge(defaults, args)));
+            HttpTransport transport = new HttpTransport(config.getTimeoutMs(), config.getMaxConnections());
+            ApiClient api = new ApiClient(bank.getBaseUrl(), transport, new ApiClient.RateLimiter(config),
+                    new ApiClient.CircuitBreakers(config), new ApiClient.Metrics(), idempotency, log, null);
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            List<String> keys = new ArrayList<>(transfers);
+            int retried = 0;
+            int unconfirmed = 0;
+            for (int i = 0; i < transfers; i++) {
+                String from = cards.get(random.nextInt(cardCount));
+                String to = cards.get(random.nextInt(cardCount));
+                while (to.equals(from)) to = cards.get(random.nextInt(cardCount));
+                BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(1000), 2);
+                String key = UUID.randomUUID().toString();
+
+                int attempts = 0;
+                ApiClient.CardTransferResult result;
+                do {
+                    if (attempts > 0) {
+                        // an open breaker answers at once; give it the chance to half-open
+                        TimeUnit.MILLISECONDS.sleep(attempts > 5 ? 200 : 10);
+                    }
+                    result = api.transferByCard(from, to, amount.doubleValue(), key);
+                    attempts++;
+                } while (!result.success && attempts < MAX_ATTEMPTS);
+                if (attempts > 1) retried++;
+                if (!result.success) {
+                    unconfirmed++;
+                    continue;
+                }
+                keys.add(key);
+                expected.merge(from, amount.negate(), BigDecimal::add);
+                expected.merge(to, amount, BigDecimal::add);
+            }
+
+            int mismatched = 0;
+            for (String card : cards) {
+                if (bank.getBalance(card).compareTo(expected.get(card)) != 0) mismatched++;
+            }
+
+            // confirmed keys are answered by the local store and never reach the bank again
+            long requestsBefore = bank.getRequests();
+            int resendFailed = 0;
+            for (String key : keys) {
+                if (!api.transferByCard(cards.get(0), cards.get(1), 1, key).success) resendFailed++;
+            }
+            long resendRequests = bank.getRequests() - requestsBefore;
+
+            System.out.printf("cards=%d transfers=%d confirmed=%d retried=%d unconfirmed=%d mismatched=%d%n",
+                    cardCount, transfers, keys.size(), retried, unconfirmed, mismatched);
+            System.out.printf("applied=%d dropped=%d replayed=%d resent=%d resendRequests=%d resendFailed=%d%n",
+                    bank.getTransfers(), bank.getDroppedReplies(), bank.getIdempotentReplays(), keys.size(),
+                    resendRequests, resendFailed);
+            System.out.println("StubBank " + bank.describe());
+            boolean ok = mismatched == 0 && unconfirmed == 0
+                    && bank.getTransfers() == transfers
+                    && bank.getIdempotentReplays() == bank.getDroppedReplies()
+                    && (bank.getDroppedReplies() > 0 || a.getDouble("drop-rate", 0.25) == 0)
+                    && resendRequests == 0 && resendFailed == 0;
+            if (!ok) System.exit(1);
+        } finally {
+            idempotency.shutdown();
+            bank.stop();
+        }
+    }
+
+    private static String[] merge(String[] defaults, String[] args) {
+        String[] all = new String[defaults.length + args.length];
+        System.arraycopy(defaults, 0, all, 0, defaults.length);
+        System.arraycopy(args, 0, all, defaults.length, args.length);
+        return all;
+    }
+
+    private IdempotencyProbe() {
+    }
+}
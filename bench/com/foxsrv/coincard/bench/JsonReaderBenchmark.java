@@ -0,0 +1,158 @@
+package com.foxsrv.coincard.bench;
+
+import com.foxsrv.coincard.io.JsonReader;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * JsonReaderBenchmark - compares {@link JsonReader} with the indexOf/substring helpers it
+ * replaced (copied below unchanged) on typical api/card/pay and api/card/info responses.
+ * <p>
+ * Not part of the plugin jar. Build and run against the compiled plugin classes:
+ * <pre>
+ *   javac -d out -cp plugin-classes bench/com/foxsrv/coincard/bench/JsonReaderBenchmark.java
+ *   java -cp out:plugin-classes com.foxsrv.coincard.bench.JsonReaderBenchmark [iterations]
+ * </pre>
+ * The old helpers start from a decoded String (what the plugin used to get from the
+ * connection); the reader starts from the raw response bytes, as it does in the plugin now.
+ */
+public final class JsonReaderBenchmark {
+
+    private static final String INFO_RESPONSE =
+            "{\"success\":true,\"cardCode\":\"a1b2c3d4e5f6\",\"owner\":{\"id\":\"123456789\",\"name\":\"Fox\","
+                    + "\"coins\":999},\"coins\":1234.56789012,\"cooldownRemainingMs\":0,"
+                    + "\"history\":[{\"txId\":\"x\",\"amount\":1},{\"txId\":\"y\",\"amount\":2}]}";
+    private static final String PAY_RESPONSE =
+            "{\"success\":true,\"txId\":\"7f0c1e2a-5b7d-4c1e-9a3b-2d6f8e9a0b1c\",\"fromCard\":\"a1b2c3d4e5f6\","
+                    + "\"toCard\":\"0f1e2d3c4b5a\",\"amount\":12.5,\"date\":\"2026-10-18T12:00:00Z\"}";
+
+    private static final JsonReader INFO_FIELDS = new JsonReader("success", "error", "coins", "sats");
+    private static final JsonReader PAY_FIELDS = new JsonReader("success", "txId", "tx");
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        byte[] infoBytes = INFO_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        byte[] payBytes = PAY_RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+        checkSameResults(infoBytes, payBytes);
+
+        for (int round = 0; round < 3; round++) {
+            boolean report = round == 2; // first rounds are JIT warmup
+            run("old helpers  info", iterations, report, () -> oldInfo(new String(infoBytes, StandardCharsets.UTF_8)));
+            run("JsonReader   info", iterations, report, () -> newInfo(infoBytes));
+            run("old helpers  pay ", iterations, report, () -> oldPay(new String(payBytes, StandardCharsets.UTF_8)));
+            run("JsonReader   pay ", iterations, report, () -> newPay(payBytes));
+        }
+    }
+
+    private static void checkSameResults(byte[] infoBytes, byte[] payBytes) {
+        // the old helpers pick the nested "owner.coins" up first; the reader only sees top-level keys
+        Double oldCoins = oldParseDouble(INFO_RESPONSE, "coins");
+        Double newCoins = (Double) newInfo(infoBytes);
+        System.out.println("info coins: old=" + oldCoins + " new=" + newCoins + " (expected 1234.56789012)");
+        if (!"7f0c1e2a-5b7d-4c1e-9a3b-2d6f8e9a0b1c".equals(newPay(payBytes))
+                || !newPay(payBytes).equals(oldPay(PAY_RESPONSE))) {
+            throw new IllegalStateException("txId mismatch");
+        }
+        if (newCoins == null || newCoins != 1234.56789012) {
+            throw new IllegalStateException("coins mismatch: " + newCoins);
+        }
+    }
+
+    private static void run(String name, int iterations, boolean report, Supplier<Object> op) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = op.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+        if (report) {
+            System.out.printf("%s: %7.1f ns/op  %6.1f bytes/op%n",
+                    name, (double) elapsed / iterations, (double) allocated / iterations);
+        }
+    }
+
+    // ==================== NEW ====================
+
+    private static Object newInfo(byte[] body) {
+        JsonReader.Fields json = INFO_FIELDS.read(body);
+        if (!json.getBoolean("success")) return json.getString("error");
+        Double coins = json.getDouble("coins");
+        if (coins == null) coins = json.getDouble("sats");
+        return coins;
+    }
+
+    private static String newPay(byte[] body) {
+        JsonReader.Fields json = PAY_FIELDS.read(body);
+        if (!json.getBoolean("success")) return null;
+        String tx = json.getString("txId");
+        return tx != null ? tx : json.getString("tx");
+    }
+
+    // ==================== OLD (as previously copied into each class) ====================
+
+    private static Object oldInfo(String resp) {
+        if (!oldParseBoolean(resp, "success")) return oldParseString(resp, "error");
+        Double coins = oldParseDouble(resp, "coins");
+        if (coins == null) coins = oldParseDouble(resp, "sats");
+        return coins;
+    }
+
+    private static String oldPay(String resp) {
+        if (!oldParseBoolean(resp, "success")) return null;
+        String tx = oldParseString(resp, "txId");
+        return tx != null ? tx : oldParseString(resp, "tx");
+    }
+
+    private static boolean oldParseBoolean(String json, String key) {
+        String k = "\"" + key + "\"";
+        int i = json.indexOf(k);
+        if (i < 0) return false;
+        int c = json.indexOf(':', i);
+        if (c < 0) return false;
+        String tail = json.substring(c + 1).trim();
+        return tail.startsWith("true");
+    }
+
+    private static String oldParseString(String json, String key) {
+        String k = "\"" + key + "\"";
+        int i = json.indexOf(k);
+        if (i < 0) return null;
+        int c = json.indexOf(':', i);
+        if (c < 0) return null;
+        int q1 = json.indexOf('"', c + 1);
+        if (q1 < 0) return null;
+        int q2 = json.indexOf('"', q1 + 1);
+        if (q2 < 0) return null;
+        return json.substring(q1 + 1, q2);
+    }
+
+    private static Double oldParseDouble(String json, String key) {
+        String k = "\"" + key + "\"";
+        int i = json.indexOf(k);
+        if (i < 0) return null;
+        int c = json.indexOf(':', i);
+        if (c < 0) return null;
+
+        String tail = json.substring(c + 1).trim();
+        StringBuilder num = new StringBuilder();
+        for (int j = 0; j < tail.length(); j++) {
+            char ch = tail.charAt(j);
+            if (ch == ',' || ch == '}' || ch == ']') break;
+            if (Character.isDigit(ch) || ch == '.' || ch == '-') num.append(ch);
+        }
+        try {
+            return Double.parseDouble(num.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.foxsrv.coincard.bench;
+
+import com.foxsrv.coincard.CoinCardPlugin.ApiClient;
+import com.foxsrv.coincard.CoinCardPlugin.ConfigManager;
+import com.foxsrv.coincard.CoinCardPlugin.IdempotencyStore;
+import com.foxsrv.coincard.core.CircuitBreaker;
+import com.foxsrv.coincard.core.EndpointMetrics;
+import com.foxsrv.coincard.core.LatencyHistogram;
+import com.foxsrv.coincard.io.HttpTransport;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * LoadDriver - simulates N players using the plugin's bank client against a {@link StubBank}
+ * (embedded by default) and reports throughput and latency percentiles per operation.
+ * <p>
+ * Each player is a closed loop: it picks an operation from the mix, waits for it to finish,
+ * thinks for a moment and goes again. The operations are the bank calls behind the plugin's
+ * commands, issued through the real {@link ApiClient} (rate limiters, circuit breakers,
+ * Idempotency-Key and all):
+ * <ul>
+ *   <li>pay - player card to another player's card (/coin pay)</li>
+ *   <li>buy - player card to the server card (/coin buy)</li>
+ *   <li>sell - server card to the player card (/coin sell)</li>
+ *   <li>balance - api/card/info for the player's card (/coin balance)</li>
+ * </ul>
+ * Latencies are end to end as a player would see them, so they include any wait for a
+ * rate-limiter token. Rate limits are off unless {@code --rate} is given, since the plugin
+ * defaults would cap the run at a few requests per second. The first {@code --warmup}
+ * seconds are not counted.
+ * <p>
+ * Not part of the plugin jar. Build and run against the compiled plugin classes:
+ * <pre>
+ *   javac -d out -cp plugin-classes:paper-api.jar bench/com/foxsrv/coincard/bench/*.java
+ *   java -cp out:plugin-classes:paper-api.jar com.foxsrv.coincard.bench.LoadDriver
+ *        [--players 50] [--duration 30] [--warmup 5] [--think 20] [--mix 40,20,20,20]
+ *        [--latency 40] [--jitter 20] [--spike-rate 0] [--spike 1000] [--error-rate 0]
+ *        [--insufficient-rate 0] [--rate 0] [--timeout 5000] [--max-connections 16]
+ *        [--url http://host:port/]
+ * </pre>
+ * With {@code --url} no stub is started and the given bank is used instead (unknown card
+ * codes must then be accepted, as StubBank does by default).
+ */
+public final class LoadDriver {
+
+    private enum Op { PAY, BUY, SELL, BALANCE }
+
+    private static final int OK = 0;
+    private static final int REFUSED = 1; // the bank said no, e.g. INSUFFICIENT_FUNDS
+    private static final int FAILED = 2;  // HTTP error, timeout or open circuit
+
+    private static final class Stats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong ok = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        long count() {
+            return ok.get() + rejected.get() + failed.get();
+        }
+
+        void reset() {
+            latency.reset();
+            ok.set(0);
+            rejected.set(0);
+            failed.set(0);
+        }
+    }
+
+    private final ApiClient api;
+    private final List<String> playerCards;
+    private final String serverCard;
+    private final int[] mix;
+    private final long thinkMs;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Op, Stats> stats = new HashMap<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile boolean running = true;
+    private volatile boolean measuring;
+
+    private LoadDriver(ApiClient api, List<String> playerCards, String serverCard, int[] mix, long thinkMs,
+                       ScheduledExecutorService scheduler) {
+        this.api = api;
+        this.playerCards = playerCards;
+        this.serverCard = serverCard;
+        this.mix = mix;
+        this.thinkMs = thinkMs;
+        this.scheduler = scheduler;
+        for (Op op : Op.values()) stats.put(op, new Stats());
+    }
+
+    public static void main(String[] args) throws Exception {
+        StubBank.Args a = new StubBank.Args(args);
+        int players = a.getInt("players", 50);
+        int durationS = a.getInt("duration", 30);
+        int warmupS = a.getInt("warmup", 5);
+        int[] mix = parseMix(a.getString("mix", "40,20,20,20"));
+
+        Logger log = Logger.getLogger("LoadDriver");
+        if (!"true".equals(a.getString("verbose", "false"))) log.setLevel(Level.SEVERE);
+
+        StubBank bank = null;
+        String url = a.getString("url", null);
+        if (url == null) {
+            bank = new StubBank()
+                    .latency(a.getLong("latency", 40), a.getLong("jitter", 20))
+                    .latencySpikes(a.getDouble("spike-rate", 0), a.getLong("spike", 1000))
+                    .errorRate(a.getDouble("error-rate", 0))
+                    .insufficientFundsRate(a.getDouble("insufficient-rate", 0))
+                    .initialBalance(1000)
+                    .start(0);
+            url = bank.getBaseUrl();
+        }
+
+        List<String> playerCards = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            playerCards.add(bank != null ? bank.createCard() : String.format("%012x", ThreadLocalRandom.current().nextLong(1L << 48)));
+        }
+        String serverCard = bank != null ? bank.createCard() : String.format("%012x", ThreadLocalRandom.current().nextLong(1L << 48));
+        if (bank != null) bank.setBalance(serverCard, 1_000_000);
+        BigDecimal totalBefore = bank != null ? bank.getTotalBalance() : null;
+
+        ConfigManager config = benchConfig(a);
+        File dataDir = Files.createTempDirectory("coincard-load").toFile();
+        IdempotencyStore idempotency = new IdempotencyStore(dataDir, log);
+        idempotency.load();
+        HttpTransport transport = new HttpTransport(config.getTimeoutMs(), config.getMaxConnections());
+        ApiClient.CircuitBreakers breakers = new ApiClient.CircuitBreakers(config);
+        ApiClient.Metrics metrics = new ApiClient.Metrics();
+        ApiClient api = new ApiClient(url, transport, new ApiClient.RateLimiter(config), breakers,
+                metrics, idempotency, log, null);
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "LoadDriver-Scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        LoadDriver driver = new LoadDriver(api, playerCards, serverCard, mix, a.getLong("think", 20), scheduler);
+
+        System.out.printf("LoadDriver: %d players against %s (mix pay/buy/sell/balance %d/%d/%d/%d), "
+                        + "%ds warmup + %ds measured%n",
+                players, url, mix[0], mix[1], mix[2], mix[3], warmupS, durationS);
+        for (String card : playerCards) driver.next(card);
+
+        TimeUnit.SECONDS.sleep(warmupS);
+        for (Stats s : driver.stats.values()) s.reset();
+        driver.measuring = true;
+        long start = System.nanoTime();
+        long lastCount = 0;
+        long lastReport = start;
+        long end = start + TimeUnit.SECONDS.toNanos(durationS);
+        while (System.nanoTime() < end) {
+            TimeUnit.MILLISECONDS.sleep(Math.min(5_000, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) + 1));
+            long now = System.nanoTime();
+            long count = driver.totalCount();
+            System.out.printf("  %5.1fs  %8.1f ops/s  in flight %d%n", (now - start) / 1e9,
+                    (count - lastCount) * 1e9 / Math.max(1, now - lastReport), transport.getInFlight());
+            lastCount = count;
+            lastReport = now;
+        }
+        driver.measuring = false;
+        long elapsed = System.nanoTime() - start;
+        driver.running = false;
+
+        // let operations already sent finish so the balance check below sees a settled bank
+        long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getTimeoutMs() * 2L);
+        while (driver.outstanding.get() > 0 && System.nanoTime() < drainUntil) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        driver.report(elapsed);
+        for (CircuitBreaker breaker : breakers.all()) System.out.println("  " + breaker.describe());
+        for (EndpointMetrics endpoint : metrics.all()) {
+            if (endpoint.getTotalCount() > 0) System.out.println("  " + endpoint.describe());
+        }
+        if (bank != null) {
+            System.out.println("  StubBank " + bank.describe());
+            BigDecimal totalAfter = bank.getTotalBalance();
+            System.out.println("  Money conserved: " + (totalAfter.compareTo(totalBefore) == 0 ? "yes" : "NO")
+                    + " (before " + totalBefore.toPlainString() + ", after " + totalAfter.toPlainString() + ")");
+            bank.stop();
+        }
+        idempotency.shutdown();
+        scheduler.shutdownNow();
+        System.exit(0);
+    }
+
+    // ==================== PLAYERS ====================
+
+    private void next(String card) {
+        if (!running) return;
+        Op op = pick();
+        long started = System.nanoTime();
+        outstanding.incrementAndGet();
+        CompletableFuture<Integer> call;
+        try {
+            call = issue(op, card);
+        } catch (RuntimeException e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        call.whenComplete((outcome, error) -> {
+            outstanding.decrementAndGet();
+            if (measuring) {
+                Stats s = stats.get(op);
+                s.latency.record(System.nanoTime() - started);
+                if (error != null || outcome == FAILED) s.failed.incrementAndGet();
+                else if (outcome == OK) s.ok.incrementAndGet();
+                else s.rejected.incrementAndGet();
+            }
+            if (thinkMs > 0) scheduler.schedule(() -> next(card), thinkMs, TimeUnit.MILLISECONDS);
+            else scheduler.execute(() -> next(card));
+        });
+    }
+
+    private CompletableFuture<Integer> issue(Op op, String card) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double amount = Math.round(random.nextDouble(0.01, 1.0) * 1e8) / 1e8;
+        String txId = UUID.randomUUID().toString();
+        switch (op) {
+            case PAY: {
+                String target = playerCards.get(random.nextInt(playerCards.size()));
+                if (target.equals(card)) target = serverCard;
+                return api.transferByCardAsync(card, target, amount, txId).thenApply(LoadDriver::outcome);
+            }
+            case BUY:
+                return api.transferByCardAsync(card, serverCard, amount, txId).thenApply(LoadDriver::outcome);
+            case SELL:
+                return api.transferByCardAsync(serverCard, card, amount, txId).thenApply(LoadDriver::outcome);
+            default:
+                return api.getCardInfoAsync(card).thenApply(r -> r.success ? OK : FAILED);
+        }
+    }
+
+    private static int outcome(ApiClient.CardTransferResult r) {
+        if (r.success) return OK;
+        return r.raw != null && r.raw.contains("INSUFFICIENT_FUNDS") ? REFUSED : FAILED;
+    }
+
+    private Op pick() {
+        int total = mix[0] + mix[1] + mix[2] + mix[3];
+        int roll = ThreadLocalRandom.current().nextInt(total);
+        Op[] ops = Op.values();
+        for (int i = 0; i < ops.length; i++) {
+            roll -= mix[i];
+            if (roll < 0) return ops[i];
+        }
+        return Op.BALANCE;
+    }
+
+    // ==================== REPORT ====================
+
+    private long totalCount() {
+        long n = 0;
+        for (Stats s : stats.values()) n += s.count();
+        return n;
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("%-8s %9s %9s %9s %9s %9s %8s %8s %8s %8s %8s%n",
+                "op", "count", "ok", "refused", "failed", "ops/s", "mean", "p50", "p90", "p99", "max");
+        LatencyHistogram[] all = new LatencyHistogram[stats.size()];
+        long ok = 0, refused = 0, failed = 0, sum = 0;
+        int i = 0;
+        for (Op op : Op.values()) {
+            Stats s = stats.get(op);
+            printRow(op.name().toLowerCase(), s.ok.get(), s.rejected.get(), s.failed.get(), seconds,
+                    s.latency.getMeanMicros(), new LatencyHistogram[]{s.latency}, s.latency.getMaxMicros());
+            all[i++] = s.latency;
+            ok += s.ok.get();
+            refused += s.rejected.get();
+            failed += s.failed.get();
+            sum += (long) (s.latency.getMeanMicros() * s.latency.getCount());
+        }
+        long max = 0;
+        long n = 0;
+        for (LatencyHistogram h : all) {
+            max = Math.max(max, h.getMaxMicros());
+            n += h.getCount();
+        }
+        printRow("total", ok, refused, failed, seconds, n == 0 ? 0 : (double) sum / n, all, max);
+        System.out.println("(latencies in ms)");
+    }
+
+    private static void printRow(String name, long ok, long refused, long failed, double seconds,
+                                 double meanMicros, LatencyHistogram[] latency, long maxMicros) {
+        long count = ok + refused + failed;
+        System.out.printf("%-8s %9d %9d %9d %9d %9.1f %8.1f %8.1f %8.1f %8.1f %8.1f%n",
+                name, count, ok, refused, failed, count / seconds, meanMicros / 1000.0,
+                LatencyHistogram.percentileOf(latency, 0.50) / 1000.0,
+                LatencyHistogram.percentileOf(latency, 0.90) / 1000.0,
+                LatencyHistogram.percentileOf(latency, 0.99) / 1000.0,
+                maxMicros / 1000.0);
+    }
+
+    // ==================== SETUP ====================
+
+    private static int[] parseMix(String spec) {
+        String[] parts = spec.split(",");
+        if (parts.length != 4) throw new IllegalArgumentException("--mix needs pay,buy,sell,balance weights");
+        int[] mix = new int[4];
+        int total = 0;
+        for (int i = 0; i < 4; i++) {
+            mix[i] = Math.max(0, Integer.parseInt(parts[i].trim()));
+            total += mix[i];
+        }
+        if (total == 0) throw new IllegalArgumentException("--mix weights are all zero");
+        return mix;
+    }
+
+    /**
+     * The plugin's ConfigManager fed from command-line values instead of config.yml. Only
+     * {@code get(path, def)} is answered, which is all the typed getters ConfigManager uses
+     * need (and keeps MemorySection's setters, which want Guava, out of the picture).
+     */
+    static ConfigManager benchConfig(StubBank.Args a) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("TimeoutMs", a.getInt("timeout", 5000));
+        values.put("MaxConnections", a.getInt("max-connections", 16));
+        double rate = a.getDouble("rate", 0);
+        int burst = a.getInt("burst", 10);
+        for (String endpoint : new String[]{"Pay", "Info", "Claim"}) {
+            values.put("RateLimits." + endpoint + ".PerSecond", rate);
+            values.put("RateLimits." + endpoint + ".Burst", burst);
+        }
+        FileConfiguration file = new FileConfiguration() {
+            @Override
+            public Object get(String path, Object def) {
+                return values.getOrDefault(path, def);
+            }
+
+            @Override
+            public String saveToString() {
+                return "";
+            }
+
+            @Override
+            public void loadFromString(String contents) {
+            }
+
+            @Override
+            protected String buildHeader() {
+                return "";
+            }
+        };
+        return new ConfigManager(file);
+    }
+}
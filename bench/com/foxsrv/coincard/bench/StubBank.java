@@ -0,0 +1,604 @@
+package com.foxsrv.coincard.bench;
+
+import com.foxsrv.coincard.io.JsonReader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * StubBank - in-memory stand-in for the FoxSrv bank API, built on the JDK HttpServer.
+ * <p>
+ * Serves the endpoints the plugin talks to: api/register, api/card, api/card/info,
+ * api/card/claim and api/card/pay (honouring the Idempotency-Key header). Balances are kept
+ * exactly, in units of 1e-8 coins; transfers between two cards are atomic and overdrafts are
+ * refused with INSUFFICIENT_FUNDS like the real bank.
+ * <p>
+ * api/card/events is the push channel the plugin's BalanceEventStream subscribes to: a POST of
+ * {@code {"cards":[...]}} is answered with a {@code text/event-stream} that stays open and gets
+ * an {@code event: balance} for every change of one of those cards (transfers, claims,
+ * {@link #setBalance}), written while the card is still locked so events of a card arrive in
+ * order. A new stream starts with the current balance of each of its cards, and a ": ping"
+ * comment goes out every 15 seconds.
+ * <p>
+ * Every request first waits {@code latencyMs} plus a uniform random share of {@code jitterMs},
+ * and with probability {@code spikeRate} another {@code spikeMs} (a slow tail). After that,
+ * {@code errorRate} of requests get a 503 and {@code insufficientRate} of transfers are refused
+ * with INSUFFICIENT_FUNDS whatever the balance, so the plugin's retry, breaker and refund
+ * paths can be exercised on demand. {@code dropRate} of transfers are applied and then lose
+ * their reply (the connection is closed unanswered), the case an Idempotency-Key is for.
+ * <p>
+ * Not part of the plugin jar. Can be embedded (see {@link LoadDriver}) or run on its own and
+ * pointed at from config.yml ({@code API: "http://127.0.0.1:8085/"}):
+ * <pre>
+ *   java -cp out:plugin-classes com.foxsrv.coincard.bench.StubBank [--port 8085] [--latency 40]
+ *        [--jitter 20] [--spike-rate 0.01] [--spike 1500] [--error-rate 0.02]
+ *        [--insufficient-rate 0.01] [--drop-rate 0] [--initial-balance 1000]
+ * </pre>
+ */
+public final class StubBank {
+
+    private static final JsonReader REGISTER_FIELDS = new JsonReader("username", "password");
+    private static final JsonReader CARD_FIELDS = new JsonReader("cardCode");
+    private static final JsonReader PAY_FIELDS = new JsonReader("fromCard", "toCard", "amount");
+
+    private static final long UNITS_PER_COIN = 100_000_000L;
+    private static final Pattern CARD_CODE = Pattern.compile("\"([0-9a-fA-F]{12})\"");
+    private static final long HEARTBEAT_MS = 15_000;
+
+    private static final class Card {
+        final String code;
+        long units; // guarded by this
+        long lastClaimMillis; // guarded by this
+
+        Card(String code, long units) {
+            this.code = code;
+            this.units = units;
+        }
+    }
+
+    private final Map<String, Card> cards = new ConcurrentHashMap<>();
+    private final Map<String, String> sessions = new ConcurrentHashMap<>(); // sessionId -> username
+    private final Map<String, String> userPasswords = new ConcurrentHashMap<>();
+    private final Map<String, String> userCards = new ConcurrentHashMap<>();
+    private final Map<String, String> idempotentReplies = new ConcurrentHashMap<>();
+    private final Map<String, Object> keyLocks = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong injectedInsufficient = new AtomicLong();
+    private final AtomicLong droppedReplies = new AtomicLong();
+    private final AtomicLong transfers = new AtomicLong();
+    private final AtomicLong idempotentReplays = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicLong eventIds = new AtomicLong();
+    private final AtomicLong eventsSent = new AtomicLong();
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    private volatile long latencyMs;
+    private volatile long jitterMs;
+    private volatile double spikeRate;
+    private volatile long spikeMs;
+    private volatile double errorRate;
+    private volatile double insufficientRate;
+    private volatile double dropRate;
+    private volatile long initialUnits = 1000 * UNITS_PER_COIN;
+    private volatile boolean autoCreateCards = true;
+    private volatile long claimCooldownMs = 60_000;
+    private volatile long claimUnits = UNITS_PER_COIN;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private ScheduledExecutorService heartbeat;
+
+    // ==================== CONFIGURATION ====================
+
+    public StubBank latency(long baseMs, long jitterMs) {
+        this.latencyMs = Math.max(0, baseMs);
+        this.jitterMs = Math.max(0, jitterMs);
+        return this;
+    }
+
+    public StubBank latencySpikes(double rate, long spikeMs) {
+        this.spikeRate = rate;
+        this.spikeMs = Math.max(0, spikeMs);
+        return this;
+    }
+
+    /** Share (0..1) of requests answered with a 503 instead of being processed. */
+    public StubBank errorRate(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    /** Share (0..1) of transfers refused with INSUFFICIENT_FUNDS whatever the balance. */
+    public StubBank insufficientFundsRate(double rate) {
+        this.insufficientRate = rate;
+        return this;
+    }
+
+    /** Share (0..1) of transfers applied whose reply is then dropped, as if lost on the way back. */
+    public StubBank dropReplyRate(double rate) {
+        this.dropRate = rate;
+        return this;
+    }
+
+    /** Balance of cards created on first use (and by {@link #createCard()}). */
+    public StubBank initialBalance(double coins) {
+        this.initialUnits = toUnits(coins);
+        return this;
+    }
+
+    /** When off, unknown card codes are answered with CARD_NOT_FOUND. */
+    public StubBank autoCreateCards(boolean autoCreate) {
+        this.autoCreateCards = autoCreate;
+        return this;
+    }
+
+    public StubBank claim(double coins, long cooldownMs) {
+        this.claimUnits = toUnits(coins);
+        this.claimCooldownMs = Math.max(0, cooldownMs);
+        return this;
+    }
+
+    // ==================== LIFECYCLE ====================
+
+    /** Starts listening; port 0 picks a free port (see {@link #getBaseUrl()}). */
+    public synchronized StubBank start(int port) throws IOException {
+        if (server != null) return this;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        server.createContext("/api/register", exchange -> handle(exchange, this::register));
+        server.createContext("/api/card", exchange -> handle(exchange, this::card));
+        server.createContext("/api/card/info", exchange -> handle(exchange, this::info));
+        server.createContext("/api/card/claim", exchange -> handle(exchange, this::claim));
+        server.createContext("/api/card/pay", exchange -> handle(exchange, this::pay));
+        server.createContext("/api/card/events", this::events);
+        // injected latency is a sleep, so every request in flight holds a thread
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "StubBank-Worker");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "StubBank-Heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleAtFixedRate(() -> {
+            for (Subscriber subscriber : subscribers) subscriber.write(": ping\n\n");
+        }, HEARTBEAT_MS, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (server == null) return;
+        heartbeat.shutdownNow();
+        for (Subscriber subscriber : subscribers) subscriber.close();
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    // ==================== ACCOUNTS ====================
+
+    /** Creates a card holding the initial balance and returns its 12-hex code. */
+    public String createCard() {
+        while (true) {
+            String code = String.format("%012x", ThreadLocalRandom.current().nextLong(1L << 48));
+            if (cards.putIfAbsent(code, new Card(code, initialUnits)) == null) return code;
+        }
+    }
+
+    public void setBalance(String cardCode, double coins) {
+        Card card = cards.computeIfAbsent(cardCode, code -> new Card(code, 0));
+        synchronized (card) {
+            card.units = toUnits(coins);
+            publish(card);
+        }
+    }
+
+    /** Balance in coins, or null for an unknown card. */
+    public BigDecimal getBalance(String cardCode) {
+        Card card = cards.get(cardCode);
+        if (card == null) return null;
+        synchronized (card) {
+            return BigDecimal.valueOf(card.units, 8);
+        }
+    }
+
+    /** Sum of all balances; transfers never change it, claims add to it. */
+    public BigDecimal getTotalBalance() {
+        long total = 0;
+        for (Card card : cards.values()) {
+            synchronized (card) {
+                total += card.units;
+            }
+        }
+        return BigDecimal.valueOf(total, 8);
+    }
+
+    // ==================== STATS ====================
+
+    public long getRequests() { return requests.get(); }
+    public long getInjectedErrors() { return injectedErrors.get(); }
+    public long getInjectedInsufficient() { return injectedInsufficient.get(); }
+    public long getDroppedReplies() { return droppedReplies.get(); }
+    public long getTransfers() { return transfers.get(); }
+    public long getIdempotentReplays() { return idempotentReplays.get(); }
+    public int getMaxInFlight() { return maxInFlight.get(); }
+    public int getSubscriberCount() { return subscribers.size(); }
+    public long getEventsSent() { return eventsSent.get(); }
+
+    public String describe() {
+        return "requests=" + requests.get() + " transfers=" + transfers.get()
+                + " replays=" + idempotentReplays.get() + " injected503=" + injectedErrors.get()
+                + " injectedInsufficient=" + injectedInsufficient.get()
+                + (droppedReplies.get() > 0 ? " droppedReplies=" + droppedReplies.get() : "")
+                + " maxInFlight=" + maxInFlight.get()
+                + (eventsSent.get() > 0 ? " events=" + eventsSent.get() : "");
+    }
+
+    // ==================== HANDLERS ====================
+
+    private interface Endpoint {
+        /** @return the JSON reply body (sent with status 200), or null to close the connection unanswered */
+        String reply(HttpExchange exchange, byte[] body);
+    }
+
+    private void handle(HttpExchange exchange, Endpoint endpoint) throws IOException {
+        requests.incrementAndGet();
+        int now = inFlight.incrementAndGet();
+        int max;
+        while (now > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, now)) {
+            // retry
+        }
+        try {
+            byte[] body = readAll(exchange.getRequestBody());
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                send(exchange, 405, "{\"success\":false,\"error\":\"METHOD_NOT_ALLOWED\"}");
+                return;
+            }
+            simulateLatency();
+            if (roll(errorRate)) {
+                injectedErrors.incrementAndGet();
+                send(exchange, 503, "{\"success\":false,\"error\":\"SERVICE_UNAVAILABLE\"}");
+                return;
+            }
+            String reply = endpoint.reply(exchange, body);
+            if (reply != null) send(exchange, 200, reply);
+        } catch (RuntimeException e) {
+            send(exchange, 500, "{\"success\":false,\"error\":\"INTERNAL_ERROR\"}");
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private String register(HttpExchange exchange, byte[] body) {
+        JsonReader.Fields json = REGISTER_FIELDS.read(body);
+        String username = json.getString("username");
+        String password = json.getString("password");
+        if (username == null || username.isEmpty() || password == null) return error("INVALID_INPUT");
+        String known = userPasswords.putIfAbsent(username, password);
+        if (known != null && !known.equals(password)) return error("USERNAME_TAKEN");
+        String sessionId = UUID.randomUUID().toString();
+        sessions.put(sessionId, username);
+        return "{\"success\":true,\"sessionId\":\"" + sessionId + "\"}";
+    }
+
+    private String card(HttpExchange exchange, byte[] body) {
+        String auth = exchange.getRequestHeaders().getFirst("Authorization");
+        String username = auth != null && auth.startsWith("Bearer ") ? sessions.get(auth.substring(7)) : null;
+        if (username == null) return error("UNAUTHORIZED");
+        String code = userCards.computeIfAbsent(username, u -> createCard());
+        return "{\"success\":true,\"cardCode\":\"" + code + "\"}";
+    }
+
+    private String info(HttpExchange exchange, byte[] body) {
+        Card card = lookup(CARD_FIELDS.read(body).getString("cardCode"));
+        if (card == null) return error("CARD_NOT_FOUND");
+        long units;
+        long cooldown;
+        synchronized (card) {
+            units = card.units;
+            cooldown = cooldownRemaining(card, System.currentTimeMillis());
+        }
+        return "{\"success\":true,\"cardCode\":\"" + card.code + "\",\"coins\":" + format(units)
+                + ",\"cooldownRemainingMs\":" + cooldown + "}";
+    }
+
+    private String claim(HttpExchange exchange, byte[] body) {
+        Card card = lookup(CARD_FIELDS.read(body).getString("cardCode"));
+        if (card == null) return error("CARD_NOT_FOUND");
+        long now = System.currentTimeMillis();
+        synchronized (card) {
+            long cooldown = cooldownRemaining(card, now);
+            if (cooldown > 0) {
+                return "{\"success\":false,\"error\":\"COOLDOWN\",\"cooldownRemainingMs\":" + cooldown + "}";
+            }
+            card.units += claimUnits;
+            card.lastClaimMillis = now;
+            publish(card);
+        }
+        return "{\"success\":true,\"claimed\":" + format(claimUnits) + ",\"cooldownRemainingMs\":" + claimCooldownMs + "}";
+    }
+
+    private String pay(HttpExchange exchange, byte[] body) {
+        String key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+        if (key != null) {
+            String previous = idempotentReplies.get(key);
+            if (previous != null) {
+                idempotentReplays.incrementAndGet();
+                return previous;
+            }
+            // the same key arriving twice at once is applied once; the loser replays the winner's reply
+            synchronized (keyLocks.computeIfAbsent(key, k -> new Object())) {
+                previous = idempotentReplies.get(key);
+                if (previous != null) {
+                    idempotentReplays.incrementAndGet();
+                    return previous;
+                }
+                String reply = transfer(body);
+                if (reply.startsWith("{\"success\":true")) idempotentReplies.put(key, reply);
+                return dropped(reply);
+            }
+        }
+        return dropped(transfer(body));
+    }
+
+    /** The reply, or null (nothing sent) for the dropRate share of applied transfers. */
+    private String dropped(String reply) {
+        if (!reply.startsWith("{\"success\":true") || !roll(dropRate)) return reply;
+        droppedReplies.incrementAndGet();
+        return null;
+    }
+
+    private String transfer(byte[] body) {
+        JsonReader.Fields json = PAY_FIELDS.read(body);
+        Double amount = json.getDouble("amount");
+        if (amount == null || amount <= 0) return error("INVALID_AMOUNT");
+        long units = toUnits(amount);
+        if (units <= 0) return error("INVALID_AMOUNT");
+        Card from = lookup(json.getString("fromCard"));
+        Card to = lookup(json.getString("toCard"));
+        if (from == null || to == null) return error("CARD_NOT_FOUND");
+        if (from == to) return error("SAME_CARD");
+        if (roll(insufficientRate)) {
+            injectedInsufficient.incrementAndGet();
+            return error("INSUFFICIENT_FUNDS");
+        }
+
+        // fixed lock order so two opposite transfers can't deadlock
+        Card first = from.code.compareTo(to.code) < 0 ? from : to;
+        Card second = first == from ? to : from;
+        synchronized (first) {
+            synchronized (second) {
+                if (from.units < units) return error("INSUFFICIENT_FUNDS");
+                from.units -= units;
+                to.units += units;
+                publish(from);
+                publish(to);
+            }
+        }
+        transfers.incrementAndGet();
+        return "{\"success\":true,\"txId\":\"" + UUID.randomUUID() + "\",\"fromCard\":\"" + from.code
+                + "\",\"toCard\":\"" + to.code + "\",\"amount\":" + format(units) + "}";
+    }
+
+    // ==================== EVENTS ====================
+
+    /** One open api/card/events stream. */
+    private final class Subscriber {
+        final Set<String> cards;
+        final OutputStream out;
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        Subscriber(Set<String> cards, OutputStream out) {
+            this.cards = cards;
+            this.out = out;
+        }
+
+        synchronized void write(String frame) {
+            if (closed.getCount() == 0) return;
+            try {
+                out.write(frame.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                close(); // the client went away
+            }
+        }
+
+        void close() {
+            subscribers.remove(this);
+            closed.countDown();
+        }
+    }
+
+    private void events(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        byte[] body = readAll(exchange.getRequestBody());
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            send(exchange, 405, "{\"success\":false,\"error\":\"METHOD_NOT_ALLOWED\"}");
+            exchange.close();
+            return;
+        }
+        Set<String> subscribed = new HashSet<>();
+        Matcher m = CARD_CODE.matcher(new String(body, StandardCharsets.UTF_8));
+        while (m.find()) subscribed.add(m.group(1));
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0); // chunked, open until either side closes
+        Subscriber subscriber = new Subscriber(subscribed, exchange.getResponseBody());
+        subscribers.add(subscriber);
+        subscriber.write(": subscribed " + subscribed.size() + "\n\n");
+        for (String code : subscribed) {
+            Card card = cards.get(code);
+            if (card == null) continue;
+            synchronized (card) {
+                subscriber.write(balanceFrame(card)); // the snapshot covers whatever the client missed
+            }
+        }
+        try {
+            subscriber.closed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscriber.close();
+            exchange.close();
+        }
+    }
+
+    /** Sends the card's balance to its subscribers; called with the card locked. */
+    private void publish(Card card) {
+        if (subscribers.isEmpty()) return;
+        String frame = null;
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.cards.contains(card.code)) continue;
+            if (frame == null) frame = balanceFrame(card);
+            subscriber.write(frame);
+            eventsSent.incrementAndGet();
+        }
+    }
+
+    private String balanceFrame(Card card) {
+        return "event: balance\nid: " + eventIds.incrementAndGet() + "\ndata: {\"cardCode\":\""
+                + card.code + "\",\"coins\":" + format(card.units) + "}\n\n";
+    }
+
+    // ==================== HELPERS ====================
+
+    private Card lookup(String code) {
+        if (code == null || code.isEmpty()) return null;
+        Card card = cards.get(code);
+        if (card != null || !autoCreateCards) return card;
+        return cards.computeIfAbsent(code, c -> new Card(c, initialUnits));
+    }
+
+    private long cooldownRemaining(Card card, long now) {
+        if (card.lastClaimMillis == 0) return 0;
+        return Math.max(0, card.lastClaimMillis + claimCooldownMs - now);
+    }
+
+    private void simulateLatency() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMs + (jitterMs > 0 ? random.nextLong(jitterMs + 1) : 0);
+        if (roll(spikeRate)) delay += spikeMs;
+        if (delay <= 0) return;
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean roll(double rate) {
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private static long toUnits(double coins) {
+        return BigDecimal.valueOf(coins).movePointRight(8).longValue();
+    }
+
+    private static String format(long units) {
+        return BigDecimal.valueOf(units, 8).stripTrailingZeros().toPlainString();
+    }
+
+    private static String error(String code) {
+        return "{\"success\":false,\"error\":\"" + code + "\"}";
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream body = in) {
+            return body.readAllBytes();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // ==================== STANDALONE ====================
+
+    public static void main(String[] args) throws Exception {
+        Args a = new Args(args);
+        StubBank bank = new StubBank()
+                .latency(a.getLong("latency", 40), a.getLong("jitter", 20))
+                .latencySpikes(a.getDouble("spike-rate", 0), a.getLong("spike", 1000))
+                .errorRate(a.getDouble("error-rate", 0))
+                .insufficientFundsRate(a.getDouble("insufficient-rate", 0))
+                .dropReplyRate(a.getDouble("drop-rate", 0))
+                .initialBalance(a.getDouble("initial-balance", 1000))
+                .claim(a.getDouble("claim", 1), a.getLong("claim-cooldown", 60_000))
+                .start(a.getInt("port", 8085));
+        System.out.println("StubBank listening on " + bank.getBaseUrl() + " (Ctrl+C to stop)");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("StubBank " + bank.describe())));
+        Thread.currentThread().join();
+    }
+
+    /** Minimal "--name value" parser shared by the bench tools. */
+    static final class Args {
+        private final Map<String, String> values = new ConcurrentHashMap<>();
+
+        Args(String[] args) {
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+                String name = args[i].substring(2);
+                if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for --" + name);
+                values.put(name, args[++i]);
+            }
+        }
+
+        String getString(String name, String def) {
+            return values.getOrDefault(name, def);
+        }
+
+        int getInt(String name, int def) {
+            String v = values.get(name);
+            return v == null ? def : Integer.parseInt(v);
+        }
+
+        long getLong(String name, long def) {
+            String v = values.get(name);
+            return v == null ? def : Long.parseLong(v);
+        }
+
+        double getDouble(String name, double def) {
+            String v = values.get(name);
+            return v == null ? def : Double.parseDouble(v);
+        }
+    }
+}
@@ -1,23 +1,19 @@
 package com.foxsrv.coincard;
 
 import com.foxsrv.coincard.CoinCardPlugin.ApiClient;
+import com.foxsrv.coincard.CoinCardPlugin.BalanceCacheManager;
 import com.foxsrv.coincard.CoinCardPlugin.UserStore;
 import com.foxsrv.coincard.CoinCardPlugin.ConfigManager;
 import com.foxsrv.coincard.CoinCardPlugin.DecimalUtil;
+import com.foxsrv.coincard.core.Money;
+import com.foxsrv.coincard.io.HttpTransport;
+import com.foxsrv.coincard.io.JsonReader;
 import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -30,7 +26,8 @@ import java.util.logging.Level;
  * After a successful claim, a configurable tax (ClaimTax) is transferred to the server card.
  * Players are notified in chat when their auto-claim occurs.
  * <p>
- * Fully asynchronous, respects per-user cooldown, and uses the plugin's existing ApiClient.
+ * Fully asynchronous, respects per-user cooldown, and goes through the plugin's ApiClient
+ * (pooled connections, per-endpoint rate limits and circuit breakers).
  */
 public final class AutoClaim implements Runnable {
 
@@ -49,8 +46,12 @@ public final class AutoClaim implements Runnable {
     private boolean running = false;
 
     // Internal API endpoints (relative to baseUrl)
-    private static final String CARD_INFO_ENDPOINT = "api/card/info";
-    private static final String CARD_CLAIM_ENDPOINT = "api/card/claim";
+    private static final String CARD_INFO_ENDPOINT = ApiClient.ENDPOINT_INFO;
+    private static final String CARD_CLAIM_ENDPOINT = ApiClient.ENDPOINT_CLAIM;
+    private static final JsonReader INFO_FIELDS =
+            new JsonReader("success", "error", "cooldownRemainingMs", "coins", "sats");
+    private static final JsonReader CLAIM_FIELDS =
+            new JsonReader("success", "error", "claimed", "amount", "coins");
 
     /**
      * Constructor.
@@ -67,15 +68,6 @@ public final class AutoClaim implements Runnable {
         this.serverCard = config != null ? config.getServerCard() : null;
     }
 
-    /**
-     * Returns the base URL with a trailing slash.
-     */
-    private String getBaseUrl() {
-        String base = config.getApiBase();
-        if (base == null || base.isEmpty()) return "";
-        return base.endsWith("/") ? base : base + "/";
-    }
-
     /**
      * Starts the auto-claim scheduler.
      * Should be called from CoinCardPlugin.onEnable().
@@ -185,24 +177,36 @@ public final class AutoClaim implements Runnable {
                     }
 
                     // Apply tax
-                    double taxAmount = claimedAmount * claimTax;
-                    double playerAmount = claimedAmount - taxAmount;
+                    long claimedUnits = Money.toUnits(claimedAmount);
+                    long taxUnits = Money.scale(claimedUnits, claimTax);
+                    long playerUnits = claimedUnits - taxUnits;
+                    double taxAmount = Money.toCoins(taxUnits);
+                    double playerAmount = Money.toCoins(playerUnits);
 
                     // If tax is positive, transfer to server card
-                    if (taxAmount > 0.00000001) { // tiny threshold
+                    long creditedUnits = claimedUnits;
+                    if (taxUnits > 0) {
                         ApiClient.CardTransferResult transferResult =
                                 apiClient.transferByCard(card, serverCard, taxAmount);
-                        if (!transferResult.success) {
+                        if (transferResult.success) {
+                            creditedUnits = playerUnits;
+                        } else {
                             plugin.getLogger().warning("AutoClaim: Failed to transfer tax (" + taxAmount +
                                     ") from " + card + " to server card: " + transferResult.raw);
                             // Continue, but log error
                         }
                     }
 
-                    // Update local balance cache
-                    double newBalance = status.currentBalance - claimedAmount + playerAmount;
-                    if (newBalance < 0) newBalance = 0;
-                    plugin.getBalanceCache().setBalance(card, newBalance);
+                    // Update local balance cache: apply the change on top of whatever it holds now,
+                    // so a Vault transaction on the same card meanwhile is not overwritten
+                    BalanceCacheManager cache = plugin.getBalanceCache();
+                    long[] current = new long[2];
+                    long newUnits;
+                    do {
+                        long base = cache.readVersioned(card, current)
+                                ? current[0] : Money.toUnits(status.currentBalance);
+                        newUnits = Math.max(0L, base + creditedUnits);
+                    } while (!cache.compareAndSetUnits(card, current[1], newUnits));
 
                     // Notify player
                     notifyPlayer(uuid, playerAmount);
@@ -259,27 +263,26 @@ public final class AutoClaim implements Runnable {
      * @return ClaimStatus or null on error
      */
     private ClaimStatus getClaimStatus(String cardCode) {
-        String endpoint = getBaseUrl() + CARD_INFO_ENDPOINT;
         String body = "{\"cardCode\":\"" + escapeJson(cardCode) + "\"}";
 
         try {
-            String response = postJson(endpoint, body);
-            if (response == null || response.isEmpty()) {
+            byte[] response = postJson(CARD_INFO_ENDPOINT, body);
+            if (response.length == 0) {
                 return null;
             }
 
-            boolean success = parseBoolean(response, "success");
-            if (!success) {
-                String error = parseString(response, "error");
+            JsonReader.Fields json = INFO_FIELDS.read(response);
+            if (!json.getBoolean("success")) {
+                String error = json.getString("error");
                 plugin.getLogger().fine("AutoClaim: card/info failed for " + cardCode + ": " + error);
                 return new ClaimStatus(false, 0, 0, error);
             }
 
-            long cooldownRemaining = parseLong(response, "cooldownRemainingMs");
+            long cooldownRemaining = json.getLong("cooldownRemainingMs", 0);
             if (cooldownRemaining < 0) cooldownRemaining = 0;
 
-            Double coins = parseDouble(response, "coins");
-            if (coins == null) coins = parseDouble(response, "sats");
+            Double coins = json.getDouble("coins");
+            if (coins == null) coins = json.getDouble("sats");
             if (coins == null) coins = 0.0;
 
             return new ClaimStatus(true, cooldownRemaining, DecimalUtil.truncate(coins, 8), null);
@@ -297,28 +300,27 @@ public final class AutoClaim implements Runnable {
      * @return the amount claimed (internal coins), or -1 if failed
      */
     private double performClaim(String cardCode) {
-        String endpoint = getBaseUrl() + CARD_CLAIM_ENDPOINT;
         String body = "{\"cardCode\":\"" + escapeJson(cardCode) + "\"}";
 
         try {
-            String response = postJson(endpoint, body);
-            if (response == null || response.isEmpty()) {
+            byte[] response = postJson(CARD_CLAIM_ENDPOINT, body);
+            if (response.length == 0) {
                 return -1;
             }
 
-            boolean success = parseBoolean(response, "success");
-            if (!success) {
-                String error = parseString(response, "error");
+            JsonReader.Fields json = CLAIM_FIELDS.read(response);
+            if (!json.getBoolean("success")) {
+                String error = json.getString("error");
                 plugin.getLogger().fine("AutoClaim: claim failed for " + cardCode + ": " + error);
                 return -1;
             }
 
             // Parse claimed amount
-            Double claimed = parseDouble(response, "claimed");
+            Double claimed = json.getDouble("claimed");
             if (claimed == null) {
                 // Some APIs might return "amount" or "coins"
-                claimed = parseDouble(response, "amount");
-                if (claimed == null) claimed = parseDouble(response, "coins");
+                claimed = json.getDouble("amount");
+                if (claimed == null) claimed = json.getDouble("coins");
                 if (claimed == null) {
                     plugin.getLogger().warning("AutoClaim: Claim response missing claimed amount for " + cardCode);
                     return -1;
@@ -352,88 +354,14 @@ public final class AutoClaim implements Runnable {
                 ChatColor.GRAY + " coins.");
     }
 
-    // ==================== HTTP UTILITIES (copied from ApiClient for independence) ====================
-
-    private String postJson(String urlStr, String json) throws IOException {
-        URL url = URI.create(urlStr).toURL();
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
-        con.setRequestMethod("POST");
-        con.setDoOutput(true);
-        con.setConnectTimeout(config.getTimeoutMs());
-        con.setReadTimeout(config.getTimeoutMs());
-        con.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-
-        try (OutputStream os = con.getOutputStream()) {
-            os.write(json.getBytes(StandardCharsets.UTF_8));
-        }
-
-        int code = con.getResponseCode();
-        InputStream is = (code >= 200 && code < 300) ? con.getInputStream() : con.getErrorStream();
-        String resp = readAll(is);
-        if (code >= 400) {
-            plugin.getLogger().fine("AutoClaim: POST " + urlStr + " returned " + code + ": " + resp);
-        }
-        return resp != null ? resp : "";
-    }
+    // ==================== HTTP UTILITIES (ApiClient rate limits/breakers, shared JSON reader) ====================
 
-    private String readAll(InputStream is) throws IOException {
-        if (is == null) return null;
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                sb.append(line);
-            }
-            return sb.toString();
+    private byte[] postJson(String path, String json) throws IOException {
+        HttpTransport.Response resp = apiClient.post(path, json);
+        if (resp.status >= 400) {
+            plugin.getLogger().fine("AutoClaim: POST " + path + " returned " + resp.status + ": " + resp.body());
         }
-    }
-
-    private boolean parseBoolean(String json, String key) {
-        String pattern = "\"" + key + "\"";
-        int idx = json.indexOf(pattern);
-        if (idx < 0) return false;
-        int colon = json.indexOf(':', idx);
-        if (colon < 0) return false;
-        String after = json.substring(colon + 1).trim();
-        return after.startsWith("true");
-    }
-
-    private String parseString(String json, String key) {
-        String pattern = "\"" + key + "\"";
-        int idx = json.indexOf(pattern);
-        if (idx < 0) return null;
-        int colon = json.indexOf(':', idx);
-        if (colon < 0) return null;
-        int startQuote = json.indexOf('"', colon + 1);
-        if (startQuote < 0) return null;
-        int endQuote = json.indexOf('"', startQuote + 1);
-        if (endQuote < 0) return null;
-        return json.substring(startQuote + 1, endQuote);
-    }
-
-    private Double parseDouble(String json, String key) {
-        String pattern = "\"" + key + "\"";
-        int idx = json.indexOf(pattern);
-        if (idx < 0) return null;
-        int colon = json.indexOf(':', idx);
-        if (colon < 0) return null;
-        String tail = json.substring(colon + 1).trim();
-        StringBuilder num = new StringBuilder();
-        for (int i = 0; i < tail.length(); i++) {
-            char c = tail.charAt(i);
-            if (c == ',' || c == '}' || c == ']') break;
-            if (Character.isDigit(c) || c == '.' || c == '-') num.append(c);
-        }
-        try {
-            return Double.parseDouble(num.toString());
-        } catch (NumberFormatException e) {
-            return null;
-        }
-    }
-
-    private long parseLong(String json, String key) {
-        Double d = parseDouble(json, key);
-        return d == null ? 0 : d.longValue();
+        return resp.bytes();
     }
 
     private String escapeJson(String s) {
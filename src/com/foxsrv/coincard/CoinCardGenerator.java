@@ -13,13 +13,12 @@ import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
 
+import com.foxsrv.coincard.CoinCardPlugin.ApiClient;
 import com.foxsrv.coincard.CoinCardPlugin.CoinCardAPI;
+import com.foxsrv.coincard.io.HttpTransport;
+import com.foxsrv.coincard.io.JsonReader;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
@@ -44,6 +43,9 @@ public final class CoinCardGenerator implements Listener, CommandExecutor, TabCo
     private int startSuffix;
     private int maxSuffixAttempts;
 
+    private static final JsonReader REGISTER_FIELDS = new JsonReader("success", "sessionId", "session_id", "error");
+    private static final JsonReader CARD_FIELDS = new JsonReader("cardCode", "card");
+
     // Track players currently being processed (prevent duplicate generation)
     private final Map<UUID, Boolean> processingPlayers = new ConcurrentHashMap<>();
 
@@ -308,17 +310,15 @@ public final class CoinCardGenerator implements Listener, CommandExecutor, TabCo
     }
 
     private ApiResult registerUser(String username, String password) {
-        String endpoint = apiBase + "api/register";
         String json = "{\"username\":\"" + escapeJson(username) + "\",\"password\":\"" + escapeJson(password) + "\"}";
         try {
-            String resp = postJson(endpoint, json);
-            boolean success = parseBoolean(resp, "success");
-            if (success) {
-                String sessionId = parseString(resp, "sessionId");
-                if (sessionId == null) sessionId = parseString(resp, "session_id");
+            JsonReader.Fields resp = REGISTER_FIELDS.read(postJson(ApiClient.ENDPOINT_REGISTER, json));
+            if (resp.getBoolean("success")) {
+                String sessionId = resp.getString("sessionId");
+                if (sessionId == null) sessionId = resp.getString("session_id");
                 return new ApiResult(true, sessionId, null);
             } else {
-                String errorMsg = parseString(resp, "error");
+                String errorMsg = resp.getString("error");
                 if (errorMsg == null) errorMsg = "Registration failed";
                 return new ApiResult(false, null, errorMsg);
             }
@@ -329,13 +329,13 @@ public final class CoinCardGenerator implements Listener, CommandExecutor, TabCo
     }
 
     private String getCardCode(String sessionId) {
-        String endpoint = apiBase + "api/card";
         String json = "{}";
         try {
-            String resp = postJsonWithAuth(endpoint, json, sessionId);
+            byte[] resp = postJsonWithAuth(ApiClient.ENDPOINT_CARD, json, sessionId);
             if (resp == null) return null;
-            String cardCode = parseString(resp, "cardCode");
-            if (cardCode == null) cardCode = parseString(resp, "card");
+            JsonReader.Fields fields = CARD_FIELDS.read(resp);
+            String cardCode = fields.getString("cardCode");
+            if (cardCode == null) cardCode = fields.getString("card");
             return cardCode;
         } catch (IOException e) {
             plugin.getLogger().warning("HTTP error getting card: " + e.getMessage());
@@ -343,81 +343,36 @@ public final class CoinCardGenerator implements Listener, CommandExecutor, TabCo
         }
     }
 
-    private String postJson(String urlStr, String json) throws IOException {
-        URL url = URI.create(urlStr).toURL();
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
-        con.setRequestMethod("POST");
-        con.setDoOutput(true);
-        con.setConnectTimeout(10000);
-        con.setReadTimeout(10000);
-        con.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-        try (OutputStream os = con.getOutputStream()) {
-            os.write(json.getBytes(StandardCharsets.UTF_8));
-        }
-        int code = con.getResponseCode();
-        InputStream is = (code >= 200 && code < 300) ? con.getInputStream() : con.getErrorStream();
-        String resp = readAll(is);
-        if (code >= 400) {
-            plugin.getLogger().warning("POST " + urlStr + " returned " + code + ": " + resp);
+    private byte[] postJson(String endpoint, String json) throws IOException {
+        HttpTransport.Response resp = post(endpoint, json, null);
+        if (resp.status >= 400) {
+            plugin.getLogger().warning("POST " + apiBase + endpoint + " returned " + resp.status + ": " + resp.body());
         }
-        return resp != null ? resp : "";
+        return resp.bytes();
     }
 
-    private String postJsonWithAuth(String urlStr, String json, String token) throws IOException {
-        URL url = URI.create(urlStr).toURL();
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
-        con.setRequestMethod("POST");
-        con.setDoOutput(true);
-        con.setConnectTimeout(10000);
-        con.setReadTimeout(10000);
-        con.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-        con.setRequestProperty("Authorization", "Bearer " + token);
-        try (OutputStream os = con.getOutputStream()) {
-            os.write(json.getBytes(StandardCharsets.UTF_8));
-        }
-        int code = con.getResponseCode();
-        InputStream is = (code >= 200 && code < 300) ? con.getInputStream() : con.getErrorStream();
-        String resp = readAll(is);
-        if (code >= 400) {
-            plugin.getLogger().warning("Auth POST " + urlStr + " returned " + code + ": " + resp);
+    private byte[] postJsonWithAuth(String endpoint, String json, String token) throws IOException {
+        HttpTransport.Response resp = post(endpoint, json, token);
+        if (resp.status >= 400) {
+            plugin.getLogger().warning("Auth POST " + apiBase + endpoint + " returned " + resp.status + ": " + resp.body());
             return null;
         }
-        return resp;
+        return resp.bytes();
     }
 
-    private String readAll(InputStream is) throws IOException {
-        if (is == null) return null;
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) sb.append(line);
-            return sb.toString();
+    /** Blocking POST to an endpoint under the API base, recorded in the plugin's bank metrics. */
+    private HttpTransport.Response post(String endpoint, String json, String token) throws IOException {
+        long start = System.nanoTime();
+        try {
+            HttpTransport.Response resp = plugin.getHttpTransport().postJson(apiBase + endpoint, json, token);
+            plugin.getApiMetrics().record(endpoint, System.nanoTime() - start, resp, null);
+            return resp;
+        } catch (IOException e) {
+            plugin.getApiMetrics().record(endpoint, System.nanoTime() - start, null, e);
+            throw e;
         }
     }
 
-    private boolean parseBoolean(String json, String key) {
-        String pattern = "\"" + key + "\"";
-        int idx = json.indexOf(pattern);
-        if (idx < 0) return false;
-        int colon = json.indexOf(':', idx);
-        if (colon < 0) return false;
-        String after = json.substring(colon + 1).trim();
-        return after.startsWith("true");
-    }
-
-    private String parseString(String json, String key) {
-        String pattern = "\"" + key + "\"";
-        int idx = json.indexOf(pattern);
-        if (idx < 0) return null;
-        int colon = json.indexOf(':', idx);
-        if (colon < 0) return null;
-        int startQuote = json.indexOf('"', colon + 1);
-        if (startQuote < 0) return null;
-        int endQuote = json.indexOf('"', startQuote + 1);
-        if (endQuote < 0) return null;
-        return json.substring(startQuote + 1, endQuote);
-    }
-
     private String escapeJson(String s) {
         if (s == null) return "";
         return s.replace("\\", "\\\\").replace("\"", "\\\"");
@@ -8,6 +8,11 @@ import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
@@ -18,6 +23,24 @@ import net.milkbowl.vault.economy.EconomyResponse;
 
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
 
+import com.foxsrv.coincard.core.BlockingIoExecutor;
+import com.foxsrv.coincard.core.CardMailboxes;
+import com.foxsrv.coincard.core.CardBalanceMap;
+import com.foxsrv.coincard.core.CircuitBreaker;
+import com.foxsrv.coincard.core.EndpointMetrics;
+import com.foxsrv.coincard.core.FrequencySketch;
+import com.foxsrv.coincard.core.LatencyHistogram;
+import com.foxsrv.coincard.core.Money;
+import com.foxsrv.coincard.core.PartitionedWorkerPool;
+import com.foxsrv.coincard.core.PartitionedWorkerPool.Lane;
+import com.foxsrv.coincard.core.TimerWheel;
+import com.foxsrv.coincard.core.TokenBucket;
+import com.foxsrv.coincard.io.BalanceEventStream;
+import com.foxsrv.coincard.io.HttpTransport;
+import com.foxsrv.coincard.io.MappedBalanceStore;
+import com.foxsrv.coincard.io.JsonReader;
+import com.foxsrv.coincard.io.WriteAheadLog;
+
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
@@ -25,21 +48,26 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.net.http.HttpTimeoutException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
 import java.security.spec.KeySpec;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
 
 import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
 
@@ -65,12 +93,20 @@ public class CoinCardPlugin extends JavaPlugin {
     private Economy economy; // the economy we use internally (ours or external)
     private ConfigManager config;
     private UserStore users;
+    private HttpTransport httpTransport;
+    private ApiClient.RateLimiter rateLimiter;
+    private ApiClient.CircuitBreakers circuitBreakers;
+    private ApiClient.Metrics apiMetrics;
+    private IdempotencyStore idempotencyStore;
     private ApiClient apiClient;
-    private AsyncQueueProcessor queueProcessor;
+    private PartitionedWorkerPool queueProcessor;
+    CardMailboxes mailboxes;
+    private TimerWheel retryWheel;
     private BalanceCacheManager balanceCache;
     private CoinPlaceholderExpansion placeholderExpansion;
     private BaltopUpdater baltopUpdater;
     private HistoryStore historyStore;
+    private BalanceEventStream balanceEvents;
 
     // Generator instance
     private CoinCardGenerator cardGenerator;
@@ -91,8 +127,10 @@ public class CoinCardPlugin extends JavaPlugin {
     // Folia scheduled tasks
     private ScheduledTask userStoreSaveTask;
     private ScheduledTask balanceCacheSaveTask;
+    private ScheduledTask hotRefreshTask;
     private ScheduledTask historyStoreSaveTask;
     private ScheduledTask placeholderUpdateTask;
+    private ScheduledTask metricsLogTask;
 
     // Encryption
     private static final String ENCRYPTION_SALT = "CoinCardSalt2024!";
@@ -104,20 +142,26 @@ public class CoinCardPlugin extends JavaPlugin {
 
     // Cooldown & Lock management
     private final Map<UUID, Long> cooldownMap = new ConcurrentHashMap<>();
-    private final Map<UUID, ReentrantLock> playerLocks = new ConcurrentHashMap<>();
 
     // ========== VAULT TRANSACTION QUEUE SYSTEM (for async mode) ==========
-    // Withdraw queue (per player) - cache is zeroed immediately
+    // Withdraw queue (per player) - cache is debited immediately
     final Map<UUID, Queue<VaultWithdrawTransaction>> pendingWithdraws = new ConcurrentHashMap<>();
     final Map<UUID, Integer> withdrawAttempts = new ConcurrentHashMap<>();
     private static final int MAX_RETRIES = 10;
+    /** Reply to new work while its queue lane is saturated. */
+    static final String QUEUE_FULL = "The bank queue is full, try again in a moment.";
 
     // Deposit queue (global) - cache is NOT zeroed
     final Queue<VaultDepositTransaction> pendingDeposits = new ConcurrentLinkedQueue<>();
     final Set<String> withdrawPendingCards = ConcurrentHashMap.newKeySet();
+    // card -> vault transactions in the cache that the bank has not confirmed yet
+    private final Map<String, Integer> unconfirmed = new ConcurrentHashMap<>();
+    // set while the follow-up steps of work already admitted run on this thread
+    private final ThreadLocal<Boolean> admitted = new ThreadLocal<>();
 
     // Persistent pending store
     PendingTransactionStore pendingStore;
+    NetSettlement netSettlement;
 
     // =======================================================
 
@@ -241,29 +285,52 @@ public class CoinCardPlugin extends JavaPlugin {
             getLogger().warning("PlaceholderAPI not found. Placeholders will not be available.");
         }
 
-        asyncExecutor = Executors.newCachedThreadPool();
+        BlockingIoExecutor executor = BlockingIoExecutor.create("CoinCard-Async",
+                config.isAsyncVirtualThreads(), config.getAsyncMaxConcurrent());
+        if (config.isAsyncVirtualThreads() && !executor.isVirtual()) {
+            getLogger().info("Virtual threads need Java 21+; background tasks use a pool of "
+                    + executor.getMaxConcurrent() + " threads.");
+        }
+        asyncExecutor = executor;
 
         users = new UserStore(this);
         users.loadAsync();
 
         balanceCache = new BalanceCacheManager(this);
+        balanceCache.configure(config);
         balanceCache.loadFromDiskAsync();
 
         historyStore = new HistoryStore(this);
         historyStore.loadAsync();
 
-        apiClient = new ApiClient(config.getApiBase(), config.getTimeoutMs(), getLogger(), balanceCache);
+        httpTransport = new HttpTransport(config.getTimeoutMs(), config.getMaxConnections());
+        rateLimiter = new ApiClient.RateLimiter(config);
+        circuitBreakers = new ApiClient.CircuitBreakers(config);
+        apiMetrics = new ApiClient.Metrics();
+        idempotencyStore = new IdempotencyStore(getDataFolder(), getLogger());
+        idempotencyStore.load();
+        apiClient = new ApiClient(config.getApiBase(), httpTransport, rateLimiter, circuitBreakers, apiMetrics,
+                idempotencyStore, getLogger(), balanceCache);
+
+        retryWheel = new TimerWheel("CoinCard-Retry", 100, 512, getLogger());
+        retryWheel.start();
+
+        // before the pending store: loading it re-queues the transactions it finds
+        queueProcessor = new PartitionedWorkerPool("CoinCard-Queue", config.getQueueWorkers(),
+                config.getQueueProcessDelayMs(), getLogger());
+        configureQueueLanes();
+        queueProcessor.start();
+        mailboxes = new CardMailboxes(queueProcessor, retryWheel, getLogger());
+        netSettlement = new NetSettlement(this);
+        netSettlement.configure(config);
 
         // Initialize pending store (used only by CoinEconomy, harmless for MainEconomy)
         pendingStore = new PendingTransactionStore(this);
         pendingStore.load();
 
-        long processDelayMs = config.getQueueProcessDelayMs();
-        queueProcessor = new AsyncQueueProcessor(processDelayMs);
-        queueProcessor.start();
-
         api = new CoinCardAPIImpl(this);
         getServer().getServicesManager().register(CoinCardAPI.class, api, this, ServicePriority.Normal);
+        startBalanceEvents();
 
         coinCommand = new CoinCommand(this, users, apiClient, queueProcessor, economy, config, balanceCache, historyStore);
         payCommand = new PayCommand(this, users, apiClient, queueProcessor, config, balanceCache);
@@ -303,8 +370,12 @@ public class CoinCardPlugin extends JavaPlugin {
                 task -> users.saveIfDirty(), 6000L, 6000L);
         balanceCacheSaveTask = getServer().getGlobalRegionScheduler().runAtFixedRate(this,
                 task -> balanceCache.saveIfDirty(), 6000L, 6000L);
+        hotRefreshTask = getServer().getGlobalRegionScheduler().runAtFixedRate(this,
+                task -> balanceCache.refreshHotAhead(), 20L, 20L);
+        getServer().getPluginManager().registerEvents(new PresenceListener(this), this);
         historyStoreSaveTask = getServer().getGlobalRegionScheduler().runAtFixedRate(this,
                 task -> historyStore.saveIfDirty(), 6000L, 6000L);
+        scheduleMetricsLog();
 
         warmupCache();
 
@@ -356,12 +427,79 @@ public class CoinCardPlugin extends JavaPlugin {
         }, 20L);
     }
 
+    /** (Re)starts the periodic bank metrics log line; Metrics.LogIntervalSeconds 0 turns it off. */
+    private void scheduleMetricsLog() {
+        if (metricsLogTask != null) metricsLogTask.cancel();
+        metricsLogTask = null;
+        long intervalTicks = config.getMetricsLogIntervalSeconds() * 20L;
+        if (intervalTicks <= 0) return;
+        metricsLogTask = getServer().getGlobalRegionScheduler().runAtFixedRate(this,
+                task -> logApiMetrics(), intervalTicks, intervalTicks);
+    }
+
+    private void logApiMetrics() {
+        for (EndpointMetrics endpoint : apiMetrics.all()) {
+            if (endpoint.getTotalCount() == 0 && endpoint.getShortCircuited() == 0) continue;
+            getLogger().info("Bank " + endpoint.describe());
+        }
+    }
+
+    /** (Re)starts the push subscription to balance changes; BalanceEvents.Enabled false leaves polling only. */
+    private void startBalanceEvents() {
+        if (balanceEvents != null) balanceEvents.stop();
+        balanceEvents = null;
+        if (balanceCache != null) balanceCache.setPushedCards(Collections.emptySet());
+        if (!config.isBalanceEventsEnabled()) return;
+        balanceEvents = new BalanceEventStream(config.getBalanceEventsUrl(), this::getTrackedCards,
+                new BalanceEventStream.Listener() {
+                    @Override
+                    public void onBalance(String card, double coins) {
+                        onBalancePushed(card, coins);
+                    }
+
+                    @Override
+                    public void onSubscribed(Set<String> cards) {
+                        balanceCache.setPushedCards(cards);
+                        getLogger().info("Balance event stream connected (" + cards.size() + " cards).");
+                    }
+
+                    @Override
+                    public void onDisconnected() {
+                        balanceCache.setPushedCards(Collections.emptySet());
+                    }
+                }, getLogger(), config.getBalanceEventsReconnectMaxMs());
+        balanceEvents.start();
+    }
+
+    private void onBalancePushed(String card, double coins) {
+        double truncated = DecimalUtil.truncate(coins, 8);
+        balanceCache.setBankBalance(card, truncated);
+        if (api instanceof CoinCardAPIImpl) ((CoinCardAPIImpl) api).onBalancePushed(card, truncated);
+    }
+
+    /**
+     * Cards whose balance changes we want pushed: online players' (the cache's hot tier, kept up
+     * to date from join and quit) and those API listeners watch. Called off the main thread.
+     */
+    Set<String> getTrackedCards() {
+        Set<String> cards = balanceCache.hotCards();
+        if (api instanceof CoinCardAPIImpl) cards.addAll(((CoinCardAPIImpl) api).getListenedCards());
+        return cards;
+    }
+
+    public BalanceEventStream getBalanceEvents() { return balanceEvents; }
+
     private void warmupCache() {
         getAsyncExecutor().submit(() -> {
             int count = 0;
             for (Player player : Bukkit.getOnlinePlayers()) {
                 String card = users.getCard(player.getUniqueId());
                 if (card != null && !card.isEmpty()) {
+                    balanceCache.promote(card, player.getUniqueId()); // players already online after a reload
+                    if (shouldShedBackgroundWork()) { // stale entries refresh on first read
+                        countShedWork(1);
+                        continue;
+                    }
                     apiClient.getCardInfo(card);
                     count++;
                 }
@@ -370,12 +508,43 @@ public class CoinCardPlugin extends JavaPlugin {
         });
     }
 
+    /** Moves a player's card into the hot tier of the balance cache on join, and out on quit. */
+    public static class PresenceListener implements Listener {
+        private final CoinCardPlugin plugin;
+
+        public PresenceListener(CoinCardPlugin plugin) {
+            this.plugin = plugin;
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onJoin(PlayerJoinEvent event) {
+            UUID uuid = event.getPlayer().getUniqueId();
+            String card = plugin.getUserStore().getCard(uuid);
+            if (card != null && !card.isEmpty()) plugin.getBalanceCache().promote(card, uuid);
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onQuit(PlayerQuitEvent event) {
+            UUID uuid = event.getPlayer().getUniqueId();
+            String card = plugin.getUserStore().getCard(uuid);
+            if (card != null && !card.isEmpty()) plugin.getBalanceCache().demote(card, uuid);
+        }
+
+        /** An online player switched cards: the new one is hot from now on, the old one only while others hold it. */
+        static void cardChanged(CoinCardPlugin plugin, UUID uuid, String previous, String card) {
+            BalanceCacheManager cache = plugin.getBalanceCache();
+            if (previous != null && !previous.isEmpty() && !previous.equals(card)) cache.demote(previous, uuid);
+            cache.promote(card, uuid);
+        }
+    }
+
     @Override
     public void onDisable() {
         if (cardGenerator != null) cardGenerator.shutdown();
 
         // ========== PARAR AUTO CLAIM ==========
         if (autoClaim != null) autoClaim.stop();
+        if (balanceEvents != null) balanceEvents.stop();
 
         if (asyncExecutor != null) {
             asyncExecutor.shutdown();
@@ -388,6 +557,7 @@ public class CoinCardPlugin extends JavaPlugin {
             }
         }
 
+        if (retryWheel != null) retryWheel.stop(); // parked retries stay in pending.wal
         if (queueProcessor != null) queueProcessor.shutdown();
         if (balanceCache != null) balanceCache.shutdown();
         if (users != null) users.shutdown();
@@ -395,12 +565,15 @@ public class CoinCardPlugin extends JavaPlugin {
         if (placeholderExpansion != null) placeholderExpansion.shutdown();
         if (baltopUpdater != null) baltopUpdater.shutdown();
         if (api instanceof CoinCardAPIImpl) ((CoinCardAPIImpl) api).shutdown();
-        if (pendingStore != null) pendingStore.save();
+        if (pendingStore != null) pendingStore.close();
+        if (idempotencyStore != null) idempotencyStore.shutdown();
 
         if (userStoreSaveTask != null) userStoreSaveTask.cancel();
         if (balanceCacheSaveTask != null) balanceCacheSaveTask.cancel();
+        if (hotRefreshTask != null) hotRefreshTask.cancel();
         if (historyStoreSaveTask != null) historyStoreSaveTask.cancel();
         if (placeholderUpdateTask != null) placeholderUpdateTask.cancel();
+        if (metricsLogTask != null) metricsLogTask.cancel();
 
         getLogger().info("CoinCard disabled.");
     }
@@ -466,9 +639,22 @@ public class CoinCardPlugin extends JavaPlugin {
         if (users == null) users = new UserStore(this);
         users.loadAsync();
 
-        this.apiClient = new ApiClient(config.getApiBase(), config.getTimeoutMs(), getLogger(), balanceCache);
+        this.httpTransport = new HttpTransport(config.getTimeoutMs(), config.getMaxConnections());
+        if (rateLimiter == null) rateLimiter = new ApiClient.RateLimiter(config);
+        else rateLimiter.configure(config);
+        if (circuitBreakers == null) circuitBreakers = new ApiClient.CircuitBreakers(config);
+        else circuitBreakers.configure(config);
+        if (apiMetrics == null) apiMetrics = new ApiClient.Metrics();
+        this.apiClient = new ApiClient(config.getApiBase(), httpTransport, rateLimiter, circuitBreakers, apiMetrics,
+                idempotencyStore, getLogger(), balanceCache);
+        if (metricsLogTask != null) scheduleMetricsLog();
+        if (balanceCache != null) balanceCache.configure(config);
+        if (netSettlement != null) netSettlement.configure(config);
 
-        if (queueProcessor != null) queueProcessor.setDelayMs(config.getQueueProcessDelayMs());
+        if (queueProcessor != null) {
+            queueProcessor.setDelayMs(config.getQueueProcessDelayMs());
+            configureQueueLanes();
+        }
 
         if (coinCommand != null) {
             coinCommand.setConfig(config);
@@ -504,6 +690,7 @@ public class CoinCardPlugin extends JavaPlugin {
         if (baltopUpdater != null) {
             baltopUpdater.updateComponents(users, apiClient);
         }
+        if (api != null) startBalanceEvents();
         DecimalUtil.setDisplayDecimals(config.getDecimals());
 
         // Reiniciar AutoClaim com nova config (caso applyRuntimeConfig seja chamado)
@@ -531,7 +718,18 @@ public class CoinCardPlugin extends JavaPlugin {
     public Economy getEconomy() { return economy; }
     public ConfigManager getCoinConfig() { return config; }
     public ApiClient getApiClient() { return apiClient; }
-    public AsyncQueueProcessor getQueueProcessor() { return queueProcessor; }
+    public HttpTransport getHttpTransport() { return httpTransport; }
+    public ApiClient.RateLimiter getRateLimiter() { return rateLimiter; }
+    public ApiClient.CircuitBreakers getCircuitBreakers() { return circuitBreakers; }
+    public ApiClient.Metrics getApiMetrics() { return apiMetrics; }
+    public IdempotencyStore getIdempotencyStore() { return idempotencyStore; }
+    public NetSettlement getNetSettlement() { return netSettlement; }
+
+    /** Whether new vault transactions are settled in per-card net batches (NetSettlement.Enabled). */
+    boolean isNetSettlement() {
+        return netSettlement != null && config.isNetSettlementEnabled();
+    }
+    public PartitionedWorkerPool getQueueProcessor() { return queueProcessor; }
     public UserStore getUserStore() { return users; }
     public BalanceCacheManager getBalanceCache() { return balanceCache; }
     public HistoryStore getHistoryStore() { return historyStore; }
@@ -550,10 +748,6 @@ public class CoinCardPlugin extends JavaPlugin {
 
     // ==================== COOLDOWN & LOCK MANAGEMENT ====================
 
-    ReentrantLock getPlayerLock(UUID uuid) {
-        return playerLocks.computeIfAbsent(uuid, k -> new ReentrantLock());
-    }
-
     boolean isOnCooldown(UUID uuid) {
         long last = cooldownMap.getOrDefault(uuid, 0L);
         long now = System.currentTimeMillis();
@@ -575,9 +769,22 @@ public class CoinCardPlugin extends JavaPlugin {
         final double originalBalanceInternal;
         final long enqueuedAt;
         final String txId;
+        /** Idempotency key of the net batch this was sent in, kept in pending.wal for the replay. */
+        volatile String batchId;
+        // consecutive failed sends, only used to grow the retry backoff
+        int retries;
+        // amount of the first forced transfer; its retries must send the same under the same key
+        double forcedAmount;
 
         VaultWithdrawTransaction(UUID playerUUID, String card, String serverCard,
                                  double internalAmount, double displayAmount, double originalBalanceInternal) {
+            this(playerUUID, card, serverCard, internalAmount, displayAmount, originalBalanceInternal,
+                    UUID.randomUUID().toString());
+        }
+
+        // txId doubles as the bank idempotency key, so a replay from pending.wal must keep it
+        VaultWithdrawTransaction(UUID playerUUID, String card, String serverCard, double internalAmount,
+                                 double displayAmount, double originalBalanceInternal, String txId) {
             this.playerUUID = playerUUID;
             this.card = card;
             this.serverCard = serverCard;
@@ -585,7 +792,7 @@ public class CoinCardPlugin extends JavaPlugin {
             this.displayAmount = displayAmount;
             this.originalBalanceInternal = originalBalanceInternal;
             this.enqueuedAt = System.currentTimeMillis();
-            this.txId = UUID.randomUUID().toString();
+            this.txId = txId;
         }
     }
 
@@ -598,9 +805,15 @@ public class CoinCardPlugin extends JavaPlugin {
         int retryCount;
         final long enqueuedAt;
         final String txId;
+        volatile String batchId;
 
         VaultDepositTransaction(UUID playerUUID, String card, String serverCard,
                                 double internalAmount, double displayAmount) {
+            this(playerUUID, card, serverCard, internalAmount, displayAmount, UUID.randomUUID().toString());
+        }
+
+        VaultDepositTransaction(UUID playerUUID, String card, String serverCard,
+                                double internalAmount, double displayAmount, String txId) {
             this.playerUUID = playerUUID;
             this.card = card;
             this.serverCard = serverCard;
@@ -608,10 +821,39 @@ public class CoinCardPlugin extends JavaPlugin {
             this.displayAmount = displayAmount;
             this.retryCount = 0;
             this.enqueuedAt = System.currentTimeMillis();
-            this.txId = UUID.randomUUID().toString();
+            this.txId = txId;
         }
     }
 
+    /** Adds a withdraw to its player's queue; until {@link #confirmed} its card counts as unconfirmed. */
+    void queueWithdraw(VaultWithdrawTransaction tx) {
+        pendingWithdraws.computeIfAbsent(tx.playerUUID, k -> new ConcurrentLinkedQueue<>()).offer(tx);
+        unconfirmed.merge(tx.card, 1, Integer::sum);
+    }
+
+    void queueDeposit(VaultDepositTransaction tx) {
+        pendingDeposits.offer(tx);
+        unconfirmed.merge(tx.card, 1, Integer::sum);
+    }
+
+    /** The bank settled the withdraw (or it was given up): it leaves the queue. */
+    void confirmed(VaultWithdrawTransaction tx) {
+        Queue<VaultWithdrawTransaction> queue = pendingWithdraws.get(tx.playerUUID);
+        if (queue != null && queue.remove(tx)) unconfirmed.computeIfPresent(tx.card, (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    void confirmed(VaultDepositTransaction tx) {
+        if (pendingDeposits.remove(tx)) unconfirmed.computeIfPresent(tx.card, (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    /**
+     * Whether the cache holds vault debits or credits of the card the bank has not confirmed.
+     * A balance read from the bank lacks them, so it must not be written over the cached one.
+     */
+    boolean hasUnconfirmedVault(String card) {
+        return card != null && unconfirmed.containsKey(card);
+    }
+
     // Helper para notificar o MainEconomy (se estiver ativo)
     private void notifyMainEconomy(String txId, CoinCardPlugin.ApiClient.CardTransferResult result) {
         if (economy instanceof MainEconomy) {
@@ -619,276 +861,814 @@ public class CoinCardPlugin extends JavaPlugin {
         }
     }
 
-    void processWithdrawQueue(UUID uuid) {
-        queueProcessor.enqueue(() -> {
-            ReentrantLock lock = getPlayerLock(uuid);
-            if (!lock.tryLock()) {
-                queueProcessor.enqueue(() -> processWithdrawQueue(uuid));
-                return;
+    /** Sends a withdraw already in its player's queue, in order with everything else on its card. */
+    void processWithdraw(VaultWithdrawTransaction tx) {
+        processWithdraw(tx, Lane.SETTLEMENT);
+    }
+
+    void processWithdraw(VaultWithdrawTransaction tx, Lane lane) {
+        mailboxes.post(tx.card, lane, () -> sendWithdraw(tx));
+    }
+
+    /** One attempt, run as the head of the card's mailbox; returns the retry delay or {@link CardMailboxes#DONE}. */
+    private long sendWithdraw(VaultWithdrawTransaction tx) {
+        UUID uuid = tx.playerUUID;
+
+        int attempts = withdrawAttempts.getOrDefault(uuid, 0);
+        if (attempts >= MAX_RETRIES) {
+            confirmed(tx);
+            withdrawAttempts.remove(uuid);
+            withdrawPendingCards.remove(tx.card);
+            restoreBalanceAfterFailedWithdraw(uuid, tx);
+            if (pendingStore != null) pendingStore.remove(tx.txId);
+            notifyMainEconomy(tx.txId, new ApiClient.CardTransferResult(false, null, "MAX_RETRIES_EXCEEDED"));
+            return CardMailboxes.DONE;
+        }
+
+        ApiClient.CardTransferResult result = apiClient.transferByCard(tx.card, tx.serverCard, tx.internalAmount, tx.txId);
+
+        if (result.success) {
+            confirmed(tx);
+            withdrawAttempts.remove(uuid);
+            // O saldo já foi subtraído no MainEconomy, NÃO subtraia novamente.
+            withdrawPendingCards.remove(tx.card);
+            long amountUnits = Money.toUnits(tx.internalAmount);
+            historyStore.addEntry(tx.playerUUID, "withdraw", amountUnits,
+                    "Vault withdraw (queue)", Money.toUnits(tx.originalBalanceInternal) - amountUnits);
+            if (pendingStore != null) pendingStore.remove(tx.txId);
+            notifyMainEconomy(tx.txId, result);
+            return CardMailboxes.DONE;
+        }
+
+        // Falha: verifica se é por saldo insuficiente
+        String errorMsg = result.raw != null ? result.raw : "";
+        boolean insufficient = errorMsg.contains("INSUFFICIENT_FUNDS") || errorMsg.contains("insufficient");
+
+        if (insufficient) {
+            // Tenta transferir TODO o saldo restante do cartão para o servidor
+            double remaining = tx.forcedAmount;
+            if (remaining <= 0) {
+                ApiClient.CardInfoResult info = apiClient.getCardInfo(tx.card);
+                remaining = info.success && info.coins != null ? info.coins : 0;
+                tx.forcedAmount = remaining;
             }
-            try {
-                Queue<VaultWithdrawTransaction> queue = pendingWithdraws.get(uuid);
-                if (queue == null || queue.isEmpty()) return;
-
-                VaultWithdrawTransaction tx = queue.peek();
-                if (tx == null) return;
-
-                int attempts = withdrawAttempts.getOrDefault(uuid, 0);
-                if (attempts >= MAX_RETRIES) {
-                    queue.poll();
-                    withdrawAttempts.remove(uuid);
-                    withdrawPendingCards.remove(tx.card);
-                    restoreBalanceAfterFailedWithdraw(uuid, tx);
-                    if (pendingStore != null) pendingStore.remove(tx.txId);
-                    notifyMainEconomy(tx.txId, new ApiClient.CardTransferResult(false, null, "MAX_RETRIES_EXCEEDED"));
-                    processWithdrawQueue(uuid);
-                    return;
+            if (remaining > 0) {
+                ApiClient.CardTransferResult forcedResult = apiClient.transferByCard(tx.card, tx.serverCard, remaining,
+                        tx.txId + ":forced");
+                if (forcedResult.success) {
+                    // settled: confirm first, or the guard on setBankBalance would keep the stale amount
+                    confirmed(tx);
+                    balanceCache.setBankBalance(tx.card, 0.0);
+
+                    historyStore.addEntry(tx.playerUUID, "forced_withdraw", Money.toUnits(remaining),
+                            "Forced transfer (remaining balance)", 0L);
+                    getLogger().info("Forced transfer of " + remaining + " for " + tx.playerUUID +
+                            " due to insufficient funds for original amount " + tx.displayAmount);
+                } else {
+                    getLogger().warning("Failed to force transfer remaining " + remaining +
+                            " for " + tx.playerUUID + ": " + forcedResult.raw);
+                    // Se falhar, mantém na fila e tenta novamente
+                    return withdrawRetryDelay(tx);
                 }
+            } else {
+                getLogger().warning("No remaining balance for " + tx.playerUUID +
+                        " after insufficient funds. Removing transaction.");
+            }
+            // Remove a transação original (já foi tratada)
+            confirmed(tx);
+            withdrawPendingCards.remove(tx.card);
+            if (pendingStore != null) pendingStore.remove(tx.txId);
+            notifyMainEconomy(tx.txId, result);
+            return CardMailboxes.DONE;
+        }
+
+        // Outros erros: mantém na fila e tenta novamente (retry infinito, com backoff)
+        long delayMs = withdrawRetryDelay(tx);
+        getLogger().warning("Withdraw failed for " + tx.playerUUID + " (" + tx.displayAmount +
+                "): " + errorMsg + " - retrying in " + delayMs + " ms...");
+        return delayMs;
+    }
 
-                ApiClient.CardTransferResult result = apiClient.transferByCard(tx.card, tx.serverCard, tx.internalAmount);
+    private void configureQueueLanes() {
+        queueProcessor.setWeight(Lane.INTERACTIVE, config.getQueueLaneWeight(Lane.INTERACTIVE));
+        queueProcessor.setWeight(Lane.SETTLEMENT, config.getQueueLaneWeight(Lane.SETTLEMENT));
+        queueProcessor.setWeight(Lane.BACKGROUND, config.getQueueLaneWeight(Lane.BACKGROUND));
+        for (Lane lane : Lane.values()) {
+            queueProcessor.setWatermarks(lane, config.getQueueHighWatermark(lane), config.getQueueLowWatermark(lane));
+        }
+    }
 
-                if (result.success) {
-                    queue.poll();
-                    withdrawAttempts.remove(uuid);
-                    // O saldo já foi subtraído no MainEconomy, NÃO subtraia novamente.
-                    withdrawPendingCards.remove(tx.card);
-                    historyStore.addEntry(tx.playerUUID, "withdraw", tx.internalAmount,
-                            "Vault withdraw (queue)", tx.originalBalanceInternal - tx.internalAmount);
-                    if (pendingStore != null) pendingStore.remove(tx.txId);
-                    notifyMainEconomy(tx.txId, result);
-                    processWithdrawQueue(uuid);
-                    return;
-                }
+    /**
+     * Whether the queue takes new work on this lane right now. Callers ask before promising
+     * anything to the player; work already promised is queued regardless.
+     */
+    boolean admitQueued(Lane lane) {
+        return queueProcessor == null || admitted.get() != null || queueProcessor.admit(lane);
+    }
 
-                // Falha: verifica se é por saldo insuficiente
-                String errorMsg = result.raw != null ? result.raw : "";
-                boolean insufficient = errorMsg.contains("INSUFFICIENT_FUNDS") || errorMsg.contains("insufficient");
-
-                if (insufficient) {
-                    // Tenta transferir TODO o saldo restante do cartão para o servidor
-                    ApiClient.CardInfoResult info = apiClient.getCardInfo(tx.card);
-                    if (info.success && info.coins != null && info.coins > 0) {
-                        double remaining = info.coins;
-                        ApiClient.CardTransferResult forcedResult = apiClient.transferByCard(tx.card, tx.serverCard, remaining);
-                        if (forcedResult.success) {
-                            balanceCache.setBalance(tx.card, 0.0);
-                            historyStore.addEntry(tx.playerUUID, "forced_withdraw", remaining,
-                                    "Forced transfer (remaining balance)", 0.0);
-                            getLogger().info("Forced transfer of " + remaining + " for " + tx.playerUUID +
-                                    " due to insufficient funds for original amount " + tx.displayAmount);
-                        } else {
-                            getLogger().warning("Failed to force transfer remaining " + remaining +
-                                    " for " + tx.playerUUID + ": " + forcedResult.raw);
-                            // Se falhar, mantém na fila e tenta novamente
-                            queueProcessor.enqueue(() -> processWithdrawQueue(uuid));
-                            return;
-                        }
-                    } else {
-                        getLogger().warning("No remaining balance for " + tx.playerUUID +
-                                " after insufficient funds. Removing transaction.");
-                    }
-                    // Remove a transação original (já foi tratada)
-                    queue.poll();
-                    withdrawPendingCards.remove(tx.card);
-                    if (pendingStore != null) pendingStore.remove(tx.txId);
-                    notifyMainEconomy(tx.txId, result);
-                    processWithdrawQueue(uuid);
-                    return;
-                }
+    /**
+     * Runs the rest of a job that was admitted earlier (the Vault side of a /coin buy or sell
+     * whose bank transfer went through); the vault transactions it starts skip admission, as
+     * refusing them now would drop half of a trade that already happened.
+     */
+    void runAdmitted(Runnable steps) {
+        admitted.set(Boolean.TRUE);
+        try {
+            steps.run();
+        } finally {
+            admitted.remove();
+        }
+    }
 
-                // Outros erros: mantém na fila e tenta novamente (retry infinito)
-                getLogger().warning("Withdraw failed for " + tx.playerUUID + " (" + tx.displayAmount +
-                        "): " + errorMsg + " - retrying...");
-                try { Thread.sleep(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-                queueProcessor.enqueue(() -> processWithdrawQueue(uuid));
+    /** Whether optional bank lookups (baltop refreshes, warmups, refresh-ahead) should be skipped for now. */
+    public boolean shouldShedBackgroundWork() {
+        return queueProcessor != null && queueProcessor.shedBackground();
+    }
 
-            } finally {
-                lock.unlock();
-            }
-        });
+    /** Reports optional lookups skipped after {@link #shouldShedBackgroundWork} said so (see /coin stats). */
+    void countShedWork(int jobs) {
+        if (queueProcessor != null) queueProcessor.countShed(jobs);
+    }
+
+    /**
+     * Backoff before the next send of a failed withdraw. The withdraw stays queued (and in
+     * pending.wal) and its card's mailbox is parked on the retry wheel meanwhile, so the
+     * transactions behind it on that card wait without spinning and other cards go on.
+     */
+    private long withdrawRetryDelay(VaultWithdrawTransaction tx) {
+        return TimerWheel.backoffMs(tx.retries++, config.getRetryBaseDelayMs(), config.getRetryMaxDelayMs());
     }
 
     private void restoreBalanceAfterFailedWithdraw(UUID uuid, VaultWithdrawTransaction tx) {
+        long version = balanceCache.getVersion(tx.card);
         ApiClient.CardInfoResult result = apiClient.getCardInfo(tx.card);
-        if (result.success && result.coins != null) {
-            balanceCache.setBalance(tx.card, result.coins);
-        } else {
-            balanceCache.setBalance(tx.card, tx.originalBalanceInternal);
+        if (!result.success || result.coins == null || !balanceCache.setBankBalance(tx.card, version, result.coins)) {
+            // give back what the withdraw took, keeping anything that changed the card since
+            balanceCache.addAndGetUnits(tx.card, Money.toUnits(tx.internalAmount));
         }
         getLogger().warning("Withdraw failed after " + MAX_RETRIES + " attempts for " + uuid +
                 " (" + tx.displayAmount + "). Balance restored.");
     }
 
-    void processDepositQueue() {
-        queueProcessor.enqueue(() -> {
-            VaultDepositTransaction tx = pendingDeposits.poll();
-            if (tx == null) return;
+    /**
+     * Sends a deposit already added to pendingDeposits, behind whatever its card has queued
+     * before it (a pending withdraw of the card goes first).
+     */
+    void processDeposit(VaultDepositTransaction tx) {
+        processDeposit(tx, Lane.SETTLEMENT);
+    }
+
+    void processDeposit(VaultDepositTransaction tx, Lane lane) {
+        mailboxes.post(tx.card, lane, () -> sendDeposit(tx));
+    }
+
+    private long sendDeposit(VaultDepositTransaction tx) {
+        ApiClient.CardTransferResult result = apiClient.transferByCard(tx.serverCard, tx.card, tx.internalAmount, tx.txId);
+
+        if (result.success) {
+            confirmed(tx);
+            // O saldo já foi somado no MainEconomy, NÃO modifique o cache aqui.
+            // Apenas registra histórico e notifica.
+            historyStore.addEntry(tx.playerUUID, "deposit", Money.toUnits(tx.internalAmount),
+                    "Vault deposit (queue)", balanceCache.getUnitsFast(tx.card, 0L));
+            if (pendingStore != null) pendingStore.remove(tx.txId);
+            notifyMainEconomy(tx.txId, result);
+            return CardMailboxes.DONE;
+        }
+        tx.retryCount++;
+        if (tx.retryCount < MAX_RETRIES) {
+            if (pendingStore != null) pendingStore.put(tx);
+            long delayMs = TimerWheel.backoffMs(tx.retryCount - 1,
+                    config.getRetryBaseDelayMs(), config.getRetryMaxDelayMs());
+            getLogger().warning("Deposit failed (attempt " + tx.retryCount + ") for " + tx.playerUUID +
+                    " (" + tx.displayAmount + "). Retrying in " + delayMs + " ms.");
+            return delayMs;
+        }
+        getLogger().severe("Deposit failed after " + MAX_RETRIES + " attempts for " + tx.playerUUID +
+                " (" + tx.displayAmount + "). Transaction lost. Manual intervention required.");
+        // Rollback: subtrai o valor do cache
+        long amountUnits = Money.toUnits(tx.internalAmount);
+        balanceCache.updateAndGetUnits(tx.card, units -> Math.max(0L, units - amountUnits));
+        confirmed(tx);
+        if (pendingStore != null) pendingStore.remove(tx.txId);
+        notifyMainEconomy(tx.txId, result);
+        return CardMailboxes.DONE;
+    }
+
+    // ==================== NET SETTLEMENT ====================
+
+    /**
+     * Nets the vault deposits and withdraws of a card that arrive within a short window into one
+     * bank transfer: server to card when the deposits weigh more, card to server when the
+     * withdraws do, none when they cancel out. A shop paying the same card fifty times a minute
+     * then costs a transfer per window instead of fifty.
+     * <p>
+     * When its window closes (or it reaches MaxBatch) a batch is frozen: it gets its own
+     * idempotency key, written to pending.wal next to each member before the bank hears of it, so
+     * a replay after a crash sends the same batch again instead of its members one by one. The
+     * batch then goes through the card's mailbox like a single transaction, and failed transfers
+     * retry the same batch with backoff. A card to server transfer the bank refuses for lack of
+     * funds is the one definite no: the members then go back to the card's mailbox one by one,
+     * which knows how to take what is left. History keeps one entry per member with its own txId.
+     */
+    public static class NetSettlement {
+        private final CoinCardPlugin plugin;
+        private final Map<String, Batch> open = new ConcurrentHashMap<>();
+        private final Map<String, Batch> recovered = new LinkedHashMap<>();
+        private final AtomicLong transactionsSettled = new AtomicLong();
+        private final AtomicLong transfersSent = new AtomicLong();
+        private volatile long windowMs;
+        private volatile int maxBatch;
+
+        private static final class Batch {
+            final String card;
+            final String serverCard;
+            final List<VaultDepositTransaction> deposits = new ArrayList<>();
+            final List<VaultWithdrawTransaction> withdraws = new ArrayList<>();
+            String id;
+            int attempts;
+            // its members were held on the SETTLEMENT lane while it collected them
+            volatile boolean collected;
+
+            Batch(String card, String serverCard) {
+                this.card = card;
+                this.serverCard = serverCard;
+            }
+
+            int size() {
+                return deposits.size() + withdraws.size();
+            }
+        }
+
+        NetSettlement(CoinCardPlugin plugin) {
+            this.plugin = plugin;
+        }
 
-            if (withdrawPendingCards.contains(tx.card)) {
-                pendingDeposits.offer(tx);
-                queueProcessor.enqueue(() -> processDepositQueue());
+        void configure(ConfigManager config) {
+            this.windowMs = config.getNetSettlementWindowMs();
+            this.maxBatch = config.getNetSettlementMaxBatch();
+        }
+
+        /** A deposit already in pendingDeposits and already added to the cache. */
+        void add(VaultDepositTransaction tx) {
+            join(tx.card, tx.serverCard, batch -> batch.deposits.add(tx));
+        }
+
+        /** A withdraw already in its player's queue and already taken from the cache. */
+        void add(VaultWithdrawTransaction tx) {
+            join(tx.card, tx.serverCard, batch -> batch.withdraws.add(tx));
+        }
+
+        public int getOpenCount() {
+            return open.size();
+        }
+
+        public long getTransactionsSettled() {
+            return transactionsSettled.get();
+        }
+
+        public long getTransfersSent() {
+            return transfersSent.get();
+        }
+
+        private void join(String card, String serverCard, Consumer<Batch> member) {
+            List<Batch> full = new ArrayList<>(2);
+            Batch[] created = new Batch[1];
+            open.compute(card, (k, batch) -> {
+                if (batch != null && !batch.serverCard.equals(serverCard)) {
+                    full.add(batch); // the server card changed: the old batch settles on its own
+                    batch = null;
+                }
+                if (batch == null) {
+                    batch = new Batch(card, serverCard);
+                    batch.collected = true;
+                    created[0] = batch;
+                }
+                member.accept(batch);
+                plugin.queueProcessor.hold(Lane.SETTLEMENT, 1); // counts for admission until posted
+                if (batch.size() < maxBatch) return batch;
+                full.add(batch);
+                return null;
+            });
+            for (Batch batch : full) send(batch, Lane.SETTLEMENT);
+            Batch fresh = created[0];
+            if (fresh != null) {
+                plugin.retryWheel.schedule(() -> {
+                    if (open.remove(card, fresh)) send(fresh, Lane.SETTLEMENT);
+                }, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /** Members of a batch that was being sent when the server stopped (called while loading pending.wal). */
+        void recover(VaultDepositTransaction tx) {
+            recovered(tx.batchId, tx.card, tx.serverCard).deposits.add(tx);
+        }
+
+        void recover(VaultWithdrawTransaction tx) {
+            recovered(tx.batchId, tx.card, tx.serverCard).withdraws.add(tx);
+        }
+
+        private Batch recovered(String id, String card, String serverCard) {
+            return recovered.computeIfAbsent(id, k -> {
+                Batch batch = new Batch(card, serverCard);
+                batch.id = id;
+                return batch;
+            });
+        }
+
+        void resumeRecovered() {
+            for (Batch batch : recovered.values()) send(batch, Lane.BACKGROUND);
+            recovered.clear();
+        }
+
+        private void send(Batch batch, Lane lane) {
+            if (batch.id != null) {
+                post(batch, lane); // recovered: its members were read back from pending.wal with this id
                 return;
             }
+            batch.id = "net-" + UUID.randomUUID();
+            for (VaultDepositTransaction tx : batch.deposits) tx.batchId = batch.id;
+            for (VaultWithdrawTransaction tx : batch.withdraws) tx.batchId = batch.id;
+            log(batch, lane);
+        }
+
+        /**
+         * Writes every member with the batch id to pending.wal; only once all of them are on disk
+         * may the bank hear of the batch. A failed write is retried with backoff, the batch
+         * staying off the card's mailbox meanwhile.
+         */
+        private void log(Batch batch, Lane lane) {
+            PendingTransactionStore store = plugin.pendingStore;
+            List<CompletableFuture<Void>> writes = new ArrayList<>(batch.size());
+            if (store != null) {
+                for (VaultDepositTransaction tx : batch.deposits) writes.add(store.put(tx));
+                for (VaultWithdrawTransaction tx : batch.withdraws) writes.add(store.put(tx));
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).whenComplete((ok, error) -> {
+                if (error == null) {
+                    post(batch, lane);
+                    return;
+                }
+                ConfigManager config = plugin.config;
+                long delayMs = TimerWheel.backoffMs(batch.attempts++, config.getRetryBaseDelayMs(), config.getRetryMaxDelayMs());
+                plugin.getLogger().warning("Could not write net batch " + batch.id + " for card " + batch.card
+                        + " to pending.wal (" + error.getMessage() + ") - retrying in " + delayMs + " ms...");
+                plugin.retryWheel.schedule(() -> log(batch, Lane.BACKGROUND), delayMs, TimeUnit.MILLISECONDS);
+            });
+        }
 
-            ApiClient.CardTransferResult result = apiClient.transferByCard(tx.serverCard, tx.card, tx.internalAmount);
+        private void post(Batch batch, Lane lane) {
+            plugin.mailboxes.post(batch.card, lane, () -> settle(batch));
+            if (batch.collected) plugin.queueProcessor.hold(Lane.SETTLEMENT, -batch.size());
+            batch.collected = false;
+        }
 
-            if (result.success) {
-                // O saldo já foi somado no MainEconomy, NÃO modifique o cache aqui.
-                // Apenas registra histórico e notifica.
-                historyStore.addEntry(tx.playerUUID, "deposit", tx.internalAmount,
-                        "Vault deposit (queue)", balanceCache.getBalanceFast(tx.card));
-                if (pendingStore != null) pendingStore.remove(tx.txId);
-                notifyMainEconomy(tx.txId, result);
+        private long settle(Batch batch) {
+            long net = 0;
+            for (VaultDepositTransaction tx : batch.deposits) net += Money.toUnits(tx.internalAmount);
+            for (VaultWithdrawTransaction tx : batch.withdraws) net -= Money.toUnits(tx.internalAmount);
+
+            ApiClient.CardTransferResult result;
+            if (net == 0) {
+                result = new ApiClient.CardTransferResult(true, null, null);
             } else {
-                tx.retryCount++;
-                if (tx.retryCount < MAX_RETRIES) {
-                    pendingDeposits.offer(tx);
-                    if (pendingStore != null) pendingStore.updateAttempts(tx.txId, tx.retryCount);
-                    getLogger().warning("Deposit failed (attempt " + tx.retryCount + ") for " + tx.playerUUID +
-                            " (" + tx.displayAmount + "). Re-queueing.");
-                    processDepositQueue();
-                } else {
-                    getLogger().severe("Deposit failed after " + MAX_RETRIES + " attempts for " + tx.playerUUID +
-                            " (" + tx.displayAmount + "). Transaction lost. Manual intervention required.");
-                    // Rollback: subtrai o valor do cache
-                    Double currentInternal = balanceCache.getLastBalance(tx.card);
-                    if (currentInternal == null) currentInternal = 0.0;
-                    double newInternal = Math.max(0.0, currentInternal - tx.internalAmount);
-                    balanceCache.setBalance(tx.card, newInternal);
-                    if (pendingStore != null) pendingStore.remove(tx.txId);
-                    notifyMainEconomy(tx.txId, result);
-                }
+                ApiClient api = plugin.apiClient;
+                result = net > 0
+                        ? api.transferByCard(batch.serverCard, batch.card, Money.toCoins(net), batch.id)
+                        : api.transferByCard(batch.card, batch.serverCard, Money.toCoins(-net), batch.id);
             }
-        });
+            if (result.success) {
+                if (net != 0) transfersSent.incrementAndGet();
+                complete(batch, result);
+                return CardMailboxes.DONE;
+            }
+
+            String error = result.raw != null ? result.raw : "";
+            if (net < 0 && (error.contains("INSUFFICIENT_FUNDS") || error.contains("insufficient"))) {
+                split(batch);
+                return CardMailboxes.DONE;
+            }
+            ConfigManager config = plugin.config;
+            long delayMs = TimerWheel.backoffMs(batch.attempts++, config.getRetryBaseDelayMs(), config.getRetryMaxDelayMs());
+            plugin.getLogger().warning("Net settlement of " + batch.size() + " vault transactions for card " + batch.card
+                    + " failed: " + error + " - retrying in " + delayMs + " ms...");
+            return delayMs;
+        }
+
+        private void complete(Batch batch, ApiClient.CardTransferResult result) {
+            List<String> txIds = new ArrayList<>(batch.size());
+            long balance = plugin.balanceCache.getUnitsFast(batch.card, 0L);
+            for (VaultDepositTransaction tx : batch.deposits) {
+                plugin.confirmed(tx);
+                plugin.historyStore.addEntry(tx.playerUUID, "deposit", Money.toUnits(tx.internalAmount),
+                        "Vault deposit (net) " + tx.txId, balance);
+                txIds.add(tx.txId);
+            }
+            for (VaultWithdrawTransaction tx : batch.withdraws) {
+                plugin.confirmed(tx);
+                long amountUnits = Money.toUnits(tx.internalAmount);
+                plugin.historyStore.addEntry(tx.playerUUID, "withdraw", amountUnits,
+                        "Vault withdraw (net) " + tx.txId, Money.toUnits(tx.originalBalanceInternal) - amountUnits);
+                txIds.add(tx.txId);
+            }
+            if (plugin.pendingStore != null) plugin.pendingStore.removeAll(txIds);
+            transactionsSettled.addAndGet(txIds.size());
+            if (plugin.economy instanceof MainEconomy) ((MainEconomy) plugin.economy).completeBatch(txIds, result);
+        }
+
+        /**
+         * The bank refused the net debit: settle the members one by one, deposits first, so the
+         * credits that offset part of the debit reach the card before a withdraw has to drain it.
+         * They are posted behind this batch, ahead of anything the card gets later.
+         */
+        private void split(Batch batch) {
+            plugin.getLogger().warning("Card " + batch.card + " cannot cover the net withdraw of its batch; settling its "
+                    + batch.size() + " vault transactions one by one.");
+            for (VaultWithdrawTransaction tx : batch.withdraws) {
+                tx.batchId = null;
+                plugin.withdrawPendingCards.add(tx.card);
+            }
+            for (VaultDepositTransaction tx : batch.deposits) tx.batchId = null;
+            PendingTransactionStore store = plugin.pendingStore;
+            if (store != null) {
+                for (VaultWithdrawTransaction tx : batch.withdraws) store.put(tx);
+                for (VaultDepositTransaction tx : batch.deposits) store.put(tx);
+            }
+            for (VaultDepositTransaction tx : batch.deposits) plugin.processDeposit(tx);
+            for (VaultWithdrawTransaction tx : batch.withdraws) plugin.processWithdraw(tx);
+        }
     }
 
     // ==================== PENDING TRANSACTION STORE ====================
 
+    /**
+     * Vault withdraws and deposits the bank has not confirmed yet, kept in pending.wal so a
+     * restart sends them again.
+     * <p>
+     * Every change is one small record appended to a {@link WriteAheadLog}: the transaction with
+     * its current attempts and net batch (an upsert by txId), or its removal. The log commits
+     * appends in groups on its own thread, so the Vault call path never serializes the whole set
+     * and a burst of transactions shares one fsync. The live records stay in memory for the log's
+     * compaction. A pending.yml left by older versions is read once and carried over.
+     */
     public static class PendingTransactionStore {
+        private static final byte WITHDRAW = 1;
+        private static final byte DEPOSIT = 2;
+        private static final byte REMOVED = 3;
+        private static final long COMPACT_MIN_BYTES = 256 * 1024;
+
         private final CoinCardPlugin plugin;
-        private final File file;
-        private YamlConfiguration config;
-        private final Set<String> pendingIds = ConcurrentHashMap.newKeySet();
+        private final File legacyFile;
+        private final WriteAheadLog log;
+        private final Map<String, byte[]> live = new LinkedHashMap<>(); // txId -> last record, guarded by this
 
         public PendingTransactionStore(CoinCardPlugin plugin) {
             this.plugin = plugin;
-            this.file = new File(plugin.getDataFolder(), "pending.yml");
+            this.legacyFile = new File(plugin.getDataFolder(), "pending.yml");
+            this.log = new WriteAheadLog(new File(plugin.getDataFolder(), "pending.wal"), this::snapshot,
+                    COMPACT_MIN_BYTES, plugin.getLogger());
         }
 
         public void load() {
-            if (!file.exists()) {
-                config = new YamlConfiguration();
-                plugin.getLogger().info("No pending.yml found, starting fresh.");
-                return;
+            boolean migrate = !log.exists() && legacyFile.exists();
+            Map<String, byte[]> replayed = new LinkedHashMap<>();
+            try {
+                log.replay(record -> {
+                    try {
+                        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+                        byte type = in.readByte();
+                        String txId = in.readUTF();
+                        if (type == REMOVED) replayed.remove(txId);
+                        else replayed.put(txId, record);
+                    } catch (IOException e) {
+                        plugin.getLogger().warning("Skipping unreadable record in pending.wal: " + e.getMessage());
+                    }
+                });
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to open pending.wal, pending transactions will not survive a restart: "
+                        + e.getMessage());
             }
-            config = YamlConfiguration.loadConfiguration(file);
+
             int loaded = 0;
-            for (String key : config.getKeys(false)) {
+            for (byte[] record : replayed.values()) {
                 try {
-                    String type = config.getString(key + ".type");
+                    if (restore(record)) loaded++;
+                } catch (Exception e) {
+                    plugin.getLogger().warning("Failed to load pending tx: " + e.getMessage());
+                }
+            }
+            if (migrate) loaded += migrateYaml();
+            plugin.getLogger().info("Loaded " + loaded + " pending transactions from "
+                    + (migrate ? "pending.yml" : "pending.wal") + ".");
+            // Re-process queues; members of a net batch go out again as that same batch
+            plugin.netSettlement.resumeRecovered();
+            for (Queue<VaultWithdrawTransaction> queue : plugin.pendingWithdraws.values()) {
+                for (VaultWithdrawTransaction tx : queue) {
+                    if (tx.batchId == null) plugin.processWithdraw(tx, Lane.BACKGROUND);
+                }
+            }
+            for (VaultDepositTransaction tx : plugin.pendingDeposits) {
+                if (tx.batchId == null) plugin.processDeposit(tx, Lane.BACKGROUND);
+            }
+        }
+
+        private boolean restore(byte[] record) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            byte type = in.readByte();
+            String txId = in.readUTF();
+            UUID uuid = new UUID(in.readLong(), in.readLong());
+            String card = in.readUTF();
+            String serverCard = in.readUTF();
+            double internalAmount = in.readDouble();
+            double displayAmount = in.readDouble();
+            if (type == WITHDRAW) {
+                double originalBalance = in.readDouble();
+                int attempts = in.readInt();
+                String batch = in.readBoolean() ? in.readUTF() : null;
+                VaultWithdrawTransaction tx = new VaultWithdrawTransaction(
+                        uuid, card, serverCard, internalAmount, displayAmount, originalBalance, txId);
+                tx.batchId = batch;
+                return restore(tx, attempts);
+            }
+            int retryCount = in.readInt();
+            String batch = in.readBoolean() ? in.readUTF() : null;
+            VaultDepositTransaction tx = new VaultDepositTransaction(uuid, card, serverCard, internalAmount, displayAmount, txId);
+            tx.retryCount = retryCount;
+            tx.batchId = batch;
+            return restore(tx);
+        }
+
+        private boolean restore(VaultWithdrawTransaction tx, int attempts) {
+            if (isAlreadyApplied(tx.txId, tx.batchId)) return false;
+            plugin.queueWithdraw(tx);
+            if (tx.batchId != null) plugin.netSettlement.recover(tx);
+            else plugin.withdrawPendingCards.add(tx.card);
+            plugin.withdrawAttempts.put(tx.playerUUID, attempts);
+            remember(tx.txId, encode(tx));
+            return true;
+        }
+
+        private boolean restore(VaultDepositTransaction tx) {
+            if (isAlreadyApplied(tx.txId, tx.batchId)) return false;
+            plugin.queueDeposit(tx);
+            if (tx.batchId != null) plugin.netSettlement.recover(tx);
+            remember(tx.txId, encode(tx));
+            return true;
+        }
+
+        /** Reads the pending.yml of older versions into the log, then renames it to pending.yml.migrated. */
+        private int migrateYaml() {
+            YamlConfiguration yaml = YamlConfiguration.loadConfiguration(legacyFile);
+            int loaded = 0;
+            for (String key : yaml.getKeys(false)) {
+                try {
+                    String type = yaml.getString(key + ".type");
+                    String uuidStr = yaml.getString(key + ".uuid");
+                    String card = yaml.getString(key + ".card");
+                    String serverCard = yaml.getString(key + ".serverCard");
+                    double internalAmount = yaml.getDouble(key + ".internalAmount");
+                    double displayAmount = yaml.getDouble(key + ".displayAmount");
+                    String batch = yaml.getString(key + ".batch");
+                    if (uuidStr == null || card == null || serverCard == null) continue;
+                    UUID uuid = UUID.fromString(uuidStr);
                     if ("withdraw".equals(type)) {
-                        String uuidStr = config.getString(key + ".uuid");
-                        String card = config.getString(key + ".card");
-                        String serverCard = config.getString(key + ".serverCard");
-                        double internalAmount = config.getDouble(key + ".internalAmount");
-                        double displayAmount = config.getDouble(key + ".displayAmount");
-                        double originalBalance = config.getDouble(key + ".originalBalance");
-                        int attempts = config.getInt(key + ".attempts", 0);
-                        if (uuidStr == null || card == null || serverCard == null) continue;
-                        UUID uuid = UUID.fromString(uuidStr);
-                        VaultWithdrawTransaction tx = new VaultWithdrawTransaction(
-                                uuid, card, serverCard, internalAmount, displayAmount, originalBalance);
-                        // Re-add to queue
-                        plugin.pendingWithdraws.computeIfAbsent(uuid, k -> new ConcurrentLinkedQueue<>()).offer(tx);
-                        plugin.withdrawPendingCards.add(card);
-                        plugin.withdrawAttempts.put(uuid, attempts);
-                        pendingIds.add(key);
-                        loaded++;
+                        VaultWithdrawTransaction tx = new VaultWithdrawTransaction(uuid, card, serverCard,
+                                internalAmount, displayAmount, yaml.getDouble(key + ".originalBalance"), key);
+                        tx.batchId = batch;
+                        if (restore(tx, yaml.getInt(key + ".attempts", 0))) loaded++;
                     } else if ("deposit".equals(type)) {
-                        String uuidStr = config.getString(key + ".uuid");
-                        String card = config.getString(key + ".card");
-                        String serverCard = config.getString(key + ".serverCard");
-                        double internalAmount = config.getDouble(key + ".internalAmount");
-                        double displayAmount = config.getDouble(key + ".displayAmount");
-                        int retryCount = config.getInt(key + ".retryCount", 0);
-                        if (uuidStr == null || card == null || serverCard == null) continue;
-                        UUID uuid = UUID.fromString(uuidStr);
-                        VaultDepositTransaction tx = new VaultDepositTransaction(
-                                uuid, card, serverCard, internalAmount, displayAmount);
-                        tx.retryCount = retryCount;
-                        plugin.pendingDeposits.offer(tx);
-                        pendingIds.add(key);
-                        loaded++;
+                        VaultDepositTransaction tx = new VaultDepositTransaction(uuid, card, serverCard,
+                                internalAmount, displayAmount, key);
+                        tx.retryCount = yaml.getInt(key + ".retryCount", 0);
+                        tx.batchId = batch;
+                        if (restore(tx)) loaded++;
                     }
                 } catch (Exception e) {
                     plugin.getLogger().warning("Failed to load pending tx: " + e.getMessage());
                 }
             }
-            plugin.getLogger().info("Loaded " + loaded + " pending transactions from pending.yml.");
-            // Re-process queues
-            for (UUID uuid : plugin.pendingWithdraws.keySet()) {
-                plugin.processWithdrawQueue(uuid);
+            try {
+                CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+                for (byte[] record : snapshot()) written = log.append(record);
+                written.get(10, TimeUnit.SECONDS); // the log must hold them before pending.yml goes
+                File done = new File(legacyFile.getParentFile(), "pending.yml.migrated");
+                Files.move(legacyFile.toPath(), done.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                plugin.getLogger().info("Moved " + loaded + " pending transactions from pending.yml to pending.wal.");
+            } catch (Exception e) {
+                plugin.getLogger().warning("Could not finish moving pending.yml to pending.wal: " + e.getMessage());
             }
-            if (!plugin.pendingDeposits.isEmpty()) {
-                plugin.processDepositQueue();
+            return loaded;
+        }
+
+        /**
+         * A pending entry whose transfer (or net batch) the bank already confirmed (the server
+         * stopped before its removal reached the log) is dropped instead of being sent again.
+         */
+        private boolean isAlreadyApplied(String txId, String batchId) {
+            IdempotencyStore idempotency = plugin.getIdempotencyStore();
+            if (idempotency == null) return false;
+            if (!idempotency.isCompleted(txId) && !idempotency.isCompleted(batchId)) return false;
+            log.append(encodeRemoved(txId));
+            plugin.getLogger().info("Pending tx " + txId + " was already applied by the bank, skipping replay.");
+            return true;
+        }
+
+        /** Logs the withdraw as it is now; the future completes once it is on disk. */
+        public CompletableFuture<Void> put(VaultWithdrawTransaction tx) {
+            return append(tx.txId, encode(tx));
+        }
+
+        public CompletableFuture<Void> put(VaultDepositTransaction tx) {
+            return append(tx.txId, encode(tx));
+        }
+
+        public void remove(String txId) {
+            removeAll(Collections.singletonList(txId));
+        }
+
+        public synchronized void removeAll(Collection<String> txIds) {
+            for (String txId : txIds) {
+                if (live.remove(txId) != null) log.append(encodeRemoved(txId));
             }
         }
 
-        public void save() {
-            if (config == null) config = new YamlConfiguration();
-            // Clear old entries not in pendingIds
-            for (String key : config.getKeys(false)) {
-                if (!pendingIds.contains(key)) {
-                    config.set(key, null);
-                }
+        public synchronized int size() {
+            return live.size();
+        }
+
+        public WriteAheadLog getLog() {
+            return log;
+        }
+
+        /** Writes what is still queued and closes the log. */
+        public void close() {
+            log.close();
+        }
+
+        // live map and log change together, so a removal can never be logged ahead of its upsert
+        private synchronized CompletableFuture<Void> append(String txId, byte[] record) {
+            live.put(txId, record);
+            return log.append(record);
+        }
+
+        private synchronized void remember(String txId, byte[] record) {
+            live.put(txId, record);
+        }
+
+        private synchronized Collection<byte[]> snapshot() {
+            return new ArrayList<>(live.values());
+        }
+
+        private byte[] encode(VaultWithdrawTransaction tx) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                writeCommon(out, WITHDRAW, tx.txId, tx.playerUUID, tx.card, tx.serverCard, tx.internalAmount, tx.displayAmount);
+                out.writeDouble(tx.originalBalanceInternal);
+                out.writeInt(plugin.withdrawAttempts.getOrDefault(tx.playerUUID, 0));
+                writeOptional(out, tx.batchId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // in-memory stream
             }
-            // Write current pending (withdraws)
-            for (Map.Entry<UUID, Queue<VaultWithdrawTransaction>> entry : plugin.pendingWithdraws.entrySet()) {
-                for (VaultWithdrawTransaction tx : entry.getValue()) {
-                    String key = tx.txId;
-                    config.set(key + ".type", "withdraw");
-                    config.set(key + ".uuid", tx.playerUUID.toString());
-                    config.set(key + ".card", tx.card);
-                    config.set(key + ".serverCard", tx.serverCard);
-                    config.set(key + ".internalAmount", tx.internalAmount);
-                    config.set(key + ".displayAmount", tx.displayAmount);
-                    config.set(key + ".originalBalance", tx.originalBalanceInternal);
-                    config.set(key + ".attempts", plugin.withdrawAttempts.getOrDefault(tx.playerUUID, 0));
-                    pendingIds.add(key);
-                }
+            return bytes.toByteArray();
+        }
+
+        private static byte[] encode(VaultDepositTransaction tx) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                writeCommon(out, DEPOSIT, tx.txId, tx.playerUUID, tx.card, tx.serverCard, tx.internalAmount, tx.displayAmount);
+                out.writeInt(tx.retryCount);
+                writeOptional(out, tx.batchId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-            // Write current pending (deposits)
-            for (VaultDepositTransaction tx : plugin.pendingDeposits) {
-                String key = tx.txId;
-                config.set(key + ".type", "deposit");
-                config.set(key + ".uuid", tx.playerUUID.toString());
-                config.set(key + ".card", tx.card);
-                config.set(key + ".serverCard", tx.serverCard);
-                config.set(key + ".internalAmount", tx.internalAmount);
-                config.set(key + ".displayAmount", tx.displayAmount);
-                config.set(key + ".retryCount", tx.retryCount);
-                pendingIds.add(key);
+            return bytes.toByteArray();
+        }
+
+        private static byte[] encodeRemoved(String txId) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeByte(REMOVED);
+                out.writeUTF(txId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static void writeCommon(DataOutputStream out, byte type, String txId, UUID uuid, String card,
+                                        String serverCard, double internalAmount, double displayAmount) throws IOException {
+            out.writeByte(type);
+            out.writeUTF(txId);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+            out.writeUTF(card);
+            out.writeUTF(serverCard);
+            out.writeDouble(internalAmount);
+            out.writeDouble(displayAmount);
+        }
+
+        private static void writeOptional(DataOutputStream out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) out.writeUTF(value);
+        }
+    }
+
+    // ==================== IDEMPOTENCY STORE ====================
+
+    /**
+     * Local dedupe table of transfers the bank already confirmed, keyed by the idempotency key
+     * (the local txId) that was sent with them. Lets a replay from pending.wal, or a retry of a
+     * transfer whose reply was lost, be recognised without charging the card again.
+     * <p>
+     * Kept as an append-only text log (key, bank txId, time) that is forced to disk before the
+     * transaction is dropped from pending.wal; entries older than the retention are compacted
+     * away on load.
+     */
+    public static class IdempotencyStore {
+        private static final long RETENTION_MS = TimeUnit.DAYS.toMillis(7);
+
+        private final File file;
+        private final Logger logger;
+        private final Map<String, String> completed = new ConcurrentHashMap<>();
+        private FileChannel channel;
+
+        public IdempotencyStore(File dataFolder, Logger logger) {
+            this.file = new File(dataFolder, "completed_tx.log");
+            this.logger = logger;
+        }
+
+        public synchronized void load() {
+            long cutoff = System.currentTimeMillis() - RETENTION_MS;
+            Map<String, Long> times = new LinkedHashMap<>();
+            int expired = 0;
+            if (file.exists()) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(file), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] parts = line.split("\t");
+                        if (parts.length < 3) continue; // torn last line after a crash
+                        long at;
+                        try { at = Long.parseLong(parts[2]); } catch (NumberFormatException e) { continue; }
+                        if (at < cutoff) { expired++; continue; }
+                        completed.put(parts[0], parts[1]);
+                        times.put(parts[0], at);
+                    }
+                } catch (IOException e) {
+                    logger.warning("Failed to read completed_tx.log: " + e.getMessage());
+                }
             }
             try {
-                config.save(file);
+                if (expired > 0) {
+                    File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+                    try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+                        for (Map.Entry<String, Long> e : times.entrySet()) {
+                            w.write(e.getKey() + "\t" + completed.get(e.getKey()) + "\t" + e.getValue() + "\n");
+                        }
+                    }
+                    Files.move(tmp.toPath(), file.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+                file.getParentFile().mkdirs();
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
             } catch (IOException e) {
-                plugin.getLogger().warning("Failed to save pending.yml: " + e.getMessage());
+                logger.warning("Failed to open completed_tx.log: " + e.getMessage());
             }
         }
 
-        public void remove(String txId) {
-            pendingIds.remove(txId);
-            if (config != null) {
-                config.set(txId, null);
+        public boolean isCompleted(String key) {
+            return key != null && completed.containsKey(key);
+        }
+
+        /** Bank txId recorded for a completed key ("-" when the bank returned none), or null. */
+        public String getBankTxId(String key) {
+            return key == null ? null : completed.get(key);
+        }
+
+        /** Records a confirmed transfer and forces it to disk. */
+        public synchronized void record(String key, String bankTxId) {
+            if (key == null || completed.containsKey(key)) return;
+            String tx = bankTxId == null || bankTxId.isEmpty() ? "-" : bankTxId.replace('\t', ' ').replace('\n', ' ');
+            completed.put(key, tx);
+            if (channel == null) return;
+            try {
+                byte[] line = (key + "\t" + tx + "\t" + System.currentTimeMillis() + "\n")
+                        .getBytes(StandardCharsets.UTF_8);
+                channel.write(ByteBuffer.wrap(line));
+                channel.force(false);
+            } catch (IOException e) {
+                logger.warning("Failed to append to completed_tx.log: " + e.getMessage());
             }
-            save();
         }
 
-        public void updateAttempts(String txId, int attempts) {
-            if (config != null) {
-                config.set(txId + ".attempts", attempts);
+        public synchronized void shutdown() {
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
             }
-            save();
+            channel = null;
         }
     }
 
@@ -933,7 +1713,7 @@ public class CoinCardPlugin extends JavaPlugin {
         private ApiClient api;
         private UserStore users;
         private ConfigManager config;
-        private AsyncQueueProcessor queue;
+        private PartitionedWorkerPool queue;
         private final Map<String, List<BalanceListener>> balanceListeners = new ConcurrentHashMap<>();
         private final Map<String, Double> lastKnownBalance = new ConcurrentHashMap<>();
 
@@ -945,7 +1725,7 @@ public class CoinCardPlugin extends JavaPlugin {
             this.queue = plugin.queueProcessor;
         }
 
-        public void updateComponents(ApiClient api, UserStore users, ConfigManager config, AsyncQueueProcessor queue) {
+        public void updateComponents(ApiClient api, UserStore users, ConfigManager config, PartitionedWorkerPool queue) {
             this.api = api;
             this.users = users;
             this.config = config;
@@ -971,7 +1751,9 @@ public class CoinCardPlugin extends JavaPlugin {
             if (player != null) {
                 users.setNick(uuid, player.getName());
             }
+            String previous = users.getCard(uuid);
             users.setCard(uuid, card);
+            if (player != null) PresenceListener.cardChanged(plugin, uuid, previous, card);
             return true;
         }
 
@@ -994,9 +1776,7 @@ public class CoinCardPlugin extends JavaPlugin {
 
             final double fAmount = DecimalUtil.truncate(amount, 8);
 
-            plugin.getAsyncExecutor().submit(() -> {
-                ApiClient.CardTransferResult result = api.transferByCard(fromCard, toCard, fAmount);
-
+            api.transferByCardAsync(fromCard, toCard, fAmount).thenAccept(result -> {
                 if (result.success) {
                     Double oldFrom = lastKnownBalance.get(fromCard);
                     Double oldTo = lastKnownBalance.get(toCard);
@@ -1030,20 +1810,18 @@ public class CoinCardPlugin extends JavaPlugin {
                 return;
             }
 
-            Double cached = plugin.balanceCache.getBalance(card);
+            Double cached = plugin.balanceCache.getBalanceRefreshing(card);
             if (cached != null) {
                 callback.onResult(cached, null);
                 return;
             }
 
-            plugin.getAsyncExecutor().submit(() -> {
-                ApiClient.CardInfoResult result = api.getCardInfo(card);
-
+            api.getCardInfoAsync(card).thenAccept(result -> {
                 plugin.getServer().getGlobalRegionScheduler().run(plugin, task -> {
                     if (result.success && result.coins != null) {
                         double oldBalance = lastKnownBalance.getOrDefault(card, 0.0);
                         lastKnownBalance.put(card, result.coins);
-                        plugin.balanceCache.setBalance(card, result.coins);
+                        plugin.balanceCache.setBankBalance(card, result.coins);
 
                         if (oldBalance != result.coins) {
                             notifyBalanceChange(card, oldBalance, result.coins);
@@ -1129,6 +1907,20 @@ public class CoinCardPlugin extends JavaPlugin {
             }
         }
 
+        /** Cards some plugin listens to; the balance event stream watches them too. */
+        public Set<String> getListenedCards() {
+            return balanceListeners.keySet();
+        }
+
+        /** A balance pushed by the bank: listeners hear of it like of one we fetched. */
+        public void onBalancePushed(String card, double newBalance) {
+            Double previous = lastKnownBalance.put(card, newBalance);
+            double oldBalance = previous != null ? previous : 0.0;
+            if (oldBalance == newBalance || !balanceListeners.containsKey(card)) return;
+            plugin.getServer().getGlobalRegionScheduler().run(plugin,
+                    task -> notifyBalanceChange(card, oldBalance, newBalance));
+        }
+
         public void shutdown() {
             balanceListeners.clear();
             lastKnownBalance.clear();
@@ -1137,50 +1929,365 @@ public class CoinCardPlugin extends JavaPlugin {
 
     // ==================== BALANCE CACHE MANAGER ====================
 
+    /**
+     * Last known balance per card. Regular card codes (12 lowercase hex digits) live in a
+     * {@link CardBalanceMap} keyed by the packed code; anything else falls back to a plain map.
+     */
     public static class BalanceCacheManager {
-        private final CoinCardPlugin plugin;
-        private final Map<String, CachedBalance> cache = new ConcurrentHashMap<>();
-        private final File cacheFile;
-        private final long CACHE_DURATION_MS = 10000;
-        private final Object saveLock = new Object();
-        private volatile boolean dirty = false;
+        /** "Not cached" for the unit accessors; no real balance comes near it. */
+        public static final long NO_BALANCE = Long.MIN_VALUE;
 
+        private final CoinCardPlugin plugin;
+        private final CardBalanceMap balances = new CardBalanceMap();
+        private final Map<String, CachedBalance> fallback = new ConcurrentHashMap<>();
+        private final File legacyCacheFile;
+        // Every balance is in balances.dat; memory holds the hot part. Cards changed in memory
+        // since the last save are listed here, and a save writes only their records.
+        private final MappedBalanceStore store;
+        private final Set<Long> dirtyKeys = ConcurrentHashMap.newKeySet();
+
+        // Younger than softTtlMs: fresh. Up to hardTtlMs: still served, refreshed in the background.
+        private volatile long softTtlMs = 10000;
+        private volatile long hardTtlMs = 60000;
+        private volatile int maxConcurrentRefreshes = 4;
+        // Cards the bank pushes changes for (see BalanceEventStream): their entries stay current
+        // without polling, so they are only re-polled after pushedTtlMs, as a fallback.
+        private volatile Set<String> pushedCards = Collections.emptySet();
+        private volatile long pushedTtlMs = 300000;
+        private final Set<String> refreshQueued = ConcurrentHashMap.newKeySet();
+        private final Queue<String> onlineRefreshes = new ConcurrentLinkedQueue<>();
+        private final Queue<String> offlineRefreshes = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger refreshesInFlight = new AtomicInteger();
+
+        // Size bound (W-TinyLFU): new cards wait in a small FIFO window; when the map is over
+        // maxEntries the card leaving the window is admitted only if the sketch says it is used
+        // more than a sampled victim from the rest. Losers stay only in balances.dat.
+        private static final int EVICTION_SAMPLES = 8;
+        private volatile int maxEntries = 10000;
+        private volatile FrequencySketch sketch = new FrequencySketch(10000);
+        private final Queue<Long> admissions = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean maintenanceScheduled = new AtomicBoolean(false);
+        private final Object policyLock = new Object();
+        private long[] window = new long[100]; // guarded by policyLock
+        private int windowHead;
+        private int windowSize;
+        private final AtomicLong evictions = new AtomicLong();
+        private final AtomicLong fallbackVersions = new AtomicLong();
+
+        // Hot tier: cards of the players online now, kept from join to quit (see PresenceListener).
+        // They are never evicted and are refreshed before they go stale, so the Vault, placeholder
+        // and /balance reads of online players always hit memory. Everyone else is cold: read
+        // from balances.dat on demand and kept in memory only while the size bound allows.
+        // A card stays hot while any online player holds it (sets only changed inside compute).
+        private final Map<Long, Set<UUID>> hotHolders = new ConcurrentHashMap<>();
+        // the same for irregular codes, which live in the fallback map and are never evicted
+        private final Map<String, Set<UUID>> hotFallback = new ConcurrentHashMap<>();
+
+        // also the format of the old balance_cache.dat, read once to migrate it
         private static class CachedBalance implements Serializable {
             private static final long serialVersionUID = 1L;
             final double balance;
             final long timestamp;
+            final long version; // 0 in entries read from balance_cache.dat, which has no such field
 
-            CachedBalance(double balance, long timestamp) {
+            CachedBalance(double balance, long timestamp, long version) {
                 this.balance = balance;
                 this.timestamp = timestamp;
+                this.version = version;
             }
 
-            boolean isValid(long currentTime) {
-                return (currentTime - timestamp) < 10000;
+            boolean isValid(long currentTime, long ttlMs) {
+                return (currentTime - timestamp) < ttlMs;
             }
         }
 
         public BalanceCacheManager(CoinCardPlugin plugin) {
             this.plugin = plugin;
-            this.cacheFile = new File(plugin.getDataFolder(), "balance_cache.dat");
+            this.legacyCacheFile = new File(plugin.getDataFolder(), "balance_cache.dat");
+            MappedBalanceStore opened = null;
+            try {
+                if (!plugin.getDataFolder().exists()) plugin.getDataFolder().mkdirs();
+                File file = new File(plugin.getDataFolder(), "balances.dat");
+                File oldCold = new File(plugin.getDataFolder(), "balance_cold.dat");
+                // same record layout; evicted balances written by the previous version carry over
+                if (!file.exists() && oldCold.exists() && !oldCold.renameTo(file)) {
+                    plugin.getLogger().warning("Could not rename balance_cold.dat to balances.dat.");
+                }
+                opened = new MappedBalanceStore(file);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not open balances.dat, balances will not be kept on disk: "
+                        + e.getMessage());
+            }
+            this.store = opened;
+        }
+
+        public void configure(ConfigManager config) {
+            this.softTtlMs = config.getCacheSoftTtlMs();
+            this.hardTtlMs = config.getCacheHardTtlMs();
+            this.maxConcurrentRefreshes = config.getCacheMaxConcurrentRefreshes();
+            this.pushedTtlMs = config.getBalanceEventsFallbackTtlMs();
+            int max = config.getCacheMaxEntries();
+            if (max != maxEntries) {
+                synchronized (policyLock) {
+                    maxEntries = max;
+                    sketch = new FrequencySketch(max > 0 ? max : 10000);
+                    window = new long[Math.max(1, max / 100)];
+                    windowHead = 0;
+                    windowSize = 0;
+                }
+                scheduleMaintenance();
+            }
+            drainRefreshes();
         }
 
         public Double getBalance(String card) {
-            CachedBalance cached = cache.get(card);
-            if (cached != null && cached.isValid(System.currentTimeMillis())) {
-                return cached.balance;
+            long units = getUnits(card, NO_BALANCE);
+            return units == NO_BALANCE ? null : Money.toCoins(units);
+        }
+
+        /** Fresh balance in {@link Money} units, or {@code missing} if not cached or stale. */
+        public long getUnits(String card, long missing) {
+            if (card == null) return missing;
+            long now = System.currentTimeMillis();
+            long ttlMs = softTtlFor(card);
+            long key = CardBalanceMap.pack(card);
+            if (key != CardBalanceMap.NOT_PACKABLE) {
+                sketch.increment(key);
+                long units = balances.getIfNewer(key, now - ttlMs + 1, NO_BALANCE);
+                if (units != NO_BALANCE) return units;
+                long[] stored = storeGet(key);
+                return stored != null && now - stored[1] < ttlMs ? stored[0] : missing;
             }
-            return null;
+            CachedBalance cached = fallback.get(card);
+            if (cached != null && cached.isValid(now, ttlMs)) {
+                return Money.toUnits(cached.balance);
+            }
+            return missing;
         }
 
         public Double getBalanceFast(String card) {
-            CachedBalance cached = cache.get(card);
-            return cached != null ? cached.balance : null;
+            long units = getUnitsFast(card, NO_BALANCE);
+            return units == NO_BALANCE ? null : Money.toCoins(units);
+        }
+
+        /** Last known balance, or {@code missing}; allocation-free for regular card codes. */
+        public double getBalanceFast(String card, double missing) {
+            long units = getUnitsFast(card, NO_BALANCE);
+            return units == NO_BALANCE ? missing : Money.toCoins(units);
+        }
+
+        /** Last known balance in {@link Money} units, or {@code missing}. */
+        public long getUnitsFast(String card, long missing) {
+            if (card == null) return missing;
+            long key = CardBalanceMap.pack(card);
+            if (key != CardBalanceMap.NOT_PACKABLE) {
+                sketch.increment(key);
+                long units = balances.get(key, NO_BALANCE);
+                if (units != NO_BALANCE) return units;
+                long[] stored = storeGet(key);
+                return stored != null ? stored[0] : missing;
+            }
+            CachedBalance cached = fallback.get(card);
+            return cached != null ? Money.toUnits(cached.balance) : missing;
         }
 
         public Double getLastBalance(String card) {
-            CachedBalance cached = cache.get(card);
-            return cached != null ? cached.balance : null;
+            return getBalanceFast(card);
+        }
+
+        /**
+         * Stale-while-revalidate read: the cached balance if it is younger than the hard TTL, or
+         * null when the caller has to ask the bank. Past the soft TTL the entry is still returned,
+         * and one background refresh of the card is queued.
+         */
+        public Double getBalanceRefreshing(String card) {
+            long timestamp = getTimestamp(card);
+            if (timestamp < 0) return null;
+            long age = System.currentTimeMillis() - timestamp;
+            boolean pushed = pushedCards.contains(card);
+            if (age >= (pushed ? Math.max(hardTtlMs, pushedTtlMs) : hardTtlMs)) return null;
+            long units = getUnitsFast(card, NO_BALANCE);
+            if (units == NO_BALANCE) return null;
+            if (age >= (pushed ? pushedTtlMs : softTtlMs)) requestRefresh(card);
+            return Money.toCoins(units);
+        }
+
+        private long softTtlFor(String card) {
+            return pushedCards.contains(card) ? pushedTtlMs : softTtlMs;
+        }
+
+        /** The cards the live event stream covers; empty while it is down. */
+        public void setPushedCards(Set<String> cards) {
+            this.pushedCards = cards;
+        }
+
+        /**
+         * Queues a background api/card/info lookup for the card unless one is already queued or
+         * running. Cards of online players are taken before the others, and at most
+         * maxConcurrentRefreshes lookups run at once so refreshes never crowd out real requests.
+         */
+        public void requestRefresh(String card) {
+            if (card == null || !refreshQueued.add(card)) return;
+            if (isHot(card)) onlineRefreshes.offer(card);
+            else offlineRefreshes.offer(card);
+            drainRefreshes();
+        }
+
+        private void drainRefreshes() {
+            while (!onlineRefreshes.isEmpty() || !offlineRefreshes.isEmpty()) {
+                int running = refreshesInFlight.get();
+                if (running >= maxConcurrentRefreshes) return;
+                if (!refreshesInFlight.compareAndSet(running, running + 1)) continue;
+                String card = onlineRefreshes.poll();
+                if (card == null) card = offlineRefreshes.poll();
+                if (card == null) {
+                    refreshesInFlight.decrementAndGet(); // another thread took the last one
+                    continue;
+                }
+                startRefresh(card);
+            }
+        }
+
+        private void startRefresh(String card) {
+            CompletableFuture<?> lookup;
+            try {
+                ApiClient api = plugin.getApiClient();
+                lookup = api != null ? api.refreshCardInfo(card) : CompletableFuture.completedFuture(null);
+            } catch (RuntimeException e) {
+                lookup = CompletableFuture.completedFuture(null);
+            }
+            // a failed lookup leaves the entry stale, so the next read queues it again
+            lookup.whenComplete((result, error) -> {
+                refreshQueued.remove(card);
+                refreshesInFlight.decrementAndGet();
+                drainRefreshes();
+            });
+        }
+
+        /** When the card's balance was last stored (millis), or -1 if it is not cached. */
+        public long getTimestamp(String card) {
+            if (card == null) return -1L;
+            long key = CardBalanceMap.pack(card);
+            if (key != CardBalanceMap.NOT_PACKABLE) {
+                long timestamp = balances.getTimestamp(key, -1L);
+                if (timestamp >= 0) return timestamp;
+                long[] stored = storeGet(key);
+                return stored != null ? stored[1] : -1L;
+            }
+            CachedBalance cached = fallback.get(card);
+            return cached != null ? cached.timestamp : -1L;
+        }
+
+        // ==================== HOT TIER ====================
+
+        /** A player with this card joined: bring it into memory and keep it there. */
+        public void promote(String card, UUID holder) {
+            long key = CardBalanceMap.pack(card);
+            if (key == CardBalanceMap.NOT_PACKABLE) {
+                hold(hotFallback, card, holder);
+                return;
+            }
+            hold(hotHolders, key, holder);
+            loadFromStore(key);
+            long timestamp = balances.getTimestamp(key, -1L);
+            if (timestamp < 0 || System.currentTimeMillis() - timestamp >= refreshAheadMs(card)) requestRefresh(card);
+        }
+
+        /**
+         * The player left: once no other online player holds the card it turns cold, its balance
+         * is written to balances.dat and leaves memory.
+         */
+        public void demote(String card, UUID holder) {
+            long key = CardBalanceMap.pack(card);
+            if (key == CardBalanceMap.NOT_PACKABLE) {
+                release(hotFallback, card, holder);
+                return;
+            }
+            if (!release(hotHolders, key, holder)) return;
+            try {
+                plugin.getAsyncExecutor().submit(() -> {
+                    synchronized (policyLock) {
+                        if (!hotHolders.containsKey(key)) evict(key); // unless a holder is back already
+                    }
+                });
+            } catch (RuntimeException e) {
+                // shutting down: the final save writes it
+            }
+        }
+
+        /**
+         * Queues a refresh of every hot card past three quarters of its soft TTL, so reads of
+         * online players find a fresh balance instead of triggering the refresh themselves.
+         * Called every second.
+         */
+        public void refreshHotAhead() {
+            if (hotHolders.isEmpty()) return;
+            boolean shedding = plugin.shouldShedBackgroundWork();
+            int skipped = 0;
+            long now = System.currentTimeMillis();
+            for (long key : hotHolders.keySet()) {
+                String card = CardBalanceMap.unpack(key);
+                long timestamp = balances.getTimestamp(key, -1L);
+                if (timestamp < 0) loadFromStore(key);
+                if (timestamp >= 0 && now - timestamp < refreshAheadMs(card)) continue;
+                if (shedding) skipped++;
+                else requestRefresh(card);
+            }
+            plugin.countShedWork(skipped);
+        }
+
+        private long refreshAheadMs(String card) {
+            return softTtlFor(card) * 3 / 4;
+        }
+
+        private static <K> void hold(Map<K, Set<UUID>> hot, K key, UUID holder) {
+            hot.compute(key, (k, holders) -> {
+                if (holders == null) holders = new HashSet<>(2);
+                holders.add(holder);
+                return holders;
+            });
+        }
+
+        /** @return whether the card lost its last holder */
+        private static <K> boolean release(Map<K, Set<UUID>> hot, K key, UUID holder) {
+            boolean[] cold = new boolean[1];
+            hot.computeIfPresent(key, (k, holders) -> {
+                if (!holders.remove(holder) || !holders.isEmpty()) return holders;
+                cold[0] = true;
+                return null;
+            });
+            return cold[0];
+        }
+
+        private boolean isHot(String card) {
+            long key = CardBalanceMap.pack(card);
+            return key != CardBalanceMap.NOT_PACKABLE ? hotHolders.containsKey(key) : hotFallback.containsKey(card);
+        }
+
+        /** Cards of the players online now; a new set the caller may change. */
+        public Set<String> hotCards() {
+            Set<String> cards = new HashSet<>(hotHolders.size() + hotFallback.size());
+            for (long key : hotHolders.keySet()) cards.add(CardBalanceMap.unpack(key));
+            cards.addAll(hotFallback.keySet());
+            return cards;
+        }
+
+        public int hotSize() {
+            return hotHolders.size() + hotFallback.size();
+        }
+
+        /** Balances held in memory (see {@link #storedSize()} for all of them). */
+        public int size() {
+            return balances.size() + fallback.size();
+        }
+
+        /** Balances in balances.dat, which has every card that was ever cached. */
+        public int storedSize() {
+            return store != null ? store.size() : 0;
+        }
+
+        public long getEvictionCount() {
+            return evictions.get();
         }
 
         public double getBalanceOrDefault(String card, double defaultValue) {
@@ -1189,166 +2296,406 @@ public class CoinCardPlugin extends JavaPlugin {
         }
 
         public void setBalance(String card, double balance) {
-            cache.put(card, new CachedBalance(DecimalUtil.truncate(balance, 8), System.currentTimeMillis()));
-            markDirty();
+            if (card == null) return;
+            setUnits(card, Money.toUnits(balance));
+        }
+
+        /**
+         * Stores a balance the bank reported, unless the card has vault transactions the bank
+         * has not confirmed: the cache already holds their debits and credits and the bank figure
+         * does not, so writing it would undo a withdraw the player could then spend again. The
+         * entry is left as it is then; the sync after the last of them brings it in line.
+         *
+         * @return whether the balance was stored
+         */
+        public boolean setBankBalance(String card, double balance) {
+            if (card == null || plugin.hasUnconfirmedVault(card)) return false;
+            setUnits(card, Money.toUnits(balance));
+            return true;
         }
 
-        public void removeBalance(String card) {
-            cache.remove(card);
-            markDirty();
+        /**
+         * {@link #setBankBalance} for a sync that read {@code expectedVersion} (see
+         * {@link #getVersion}) before asking the bank: a change of the card that landed while
+         * the lookup was out is newer than the bank figure, so the write is skipped then too.
+         */
+        public boolean setBankBalance(String card, long expectedVersion, double balance) {
+            if (card == null || plugin.hasUnconfirmedVault(card)) return false;
+            return compareAndSetUnits(card, expectedVersion, Money.toUnits(balance));
+        }
+
+        /** The card's current version for {@link #compareAndSetUnits}; {@code CardBalanceMap.NO_VERSION} if not cached. */
+        public long getVersion(String card) {
+            long[] current = new long[2];
+            readVersioned(card, current);
+            return current[1];
+        }
+
+        public void setUnits(String card, long units) {
+            if (card == null) return;
+            put(card, units, System.currentTimeMillis());
+        }
+
+        // ==================== ATOMIC UPDATES ====================
+        // Read-modify-write callers use these instead of getUnitsFast + setUnits, so two updates
+        // of one card racing on different threads never lose either of them.
+
+        /**
+         * Balance and version of the card read together: {@code into[0]} = units, {@code into[1]}
+         * = version to pass to {@link #compareAndSetUnits}. A card only in balances.dat is brought
+         * into memory first. Leaves {@code {0, CardBalanceMap.NO_VERSION}} and returns false when
+         * the card is not cached at all.
+         */
+        public boolean readVersioned(String card, long[] into) {
+            into[0] = 0L;
+            into[1] = CardBalanceMap.NO_VERSION;
+            if (card == null) return false;
+            long key = CardBalanceMap.pack(card);
+            if (key != CardBalanceMap.NOT_PACKABLE) {
+                sketch.increment(key);
+                while (!balances.getVersioned(key, into)) {
+                    if (!loadFromStore(key)) return false;
+                }
+                return true;
+            }
+            CachedBalance cached = fallback.get(card);
+            if (cached == null) return false;
+            into[0] = Money.toUnits(cached.balance);
+            into[1] = cached.version;
+            return true;
         }
 
-        private void markDirty() {
-            dirty = true;
+        /**
+         * Stores {@code units} only if the card is still at {@code expectedVersion} from
+         * {@link #readVersioned}; with {@code CardBalanceMap.NO_VERSION}, only if it is not cached.
+         *
+         * @return false if the card changed in between; read again and retry
+         */
+        public boolean compareAndSetUnits(String card, long expectedVersion, long units) {
+            if (card == null) return false;
+            long now = System.currentTimeMillis();
+            long key = CardBalanceMap.pack(card);
+            if (key != CardBalanceMap.NOT_PACKABLE) {
+                // "not cached" must also hold for balances.dat, or an evicted card would be overwritten
+                if (expectedVersion == CardBalanceMap.NO_VERSION && storeGet(key) != null) return false;
+                boolean inserted = expectedVersion == CardBalanceMap.NO_VERSION;
+                if (!balances.compareAndSet(key, expectedVersion, units, now)) return false;
+                dirtyKeys.add(key);
+                if (inserted) admit(key);
+                return true;
+            }
+            CachedBalance current = fallback.get(card);
+            long currentVersion = current != null ? current.version : CardBalanceMap.NO_VERSION;
+            if (currentVersion != expectedVersion) return false;
+            CachedBalance next = new CachedBalance(Money.toCoins(units), now, fallbackVersions.incrementAndGet());
+            return current == null ? fallback.putIfAbsent(card, next) == null : fallback.replace(card, current, next);
+        }
+
+        /** Adds {@code deltaUnits} atomically and returns the new balance; a card not cached counts as 0. */
+        public long addAndGetUnits(String card, long deltaUnits) {
+            if (card == null) return 0L;
+            long key = CardBalanceMap.pack(card);
+            if (key != CardBalanceMap.NOT_PACKABLE) {
+                sketch.increment(key);
+                long now = System.currentTimeMillis();
+                while (true) {
+                    long units = balances.addAndGet(key, deltaUnits, now, NO_BALANCE);
+                    if (units != NO_BALANCE) {
+                        dirtyKeys.add(key);
+                        return units;
+                    }
+                    if (!loadFromStore(key) && balances.putIfAbsent(key, 0L, now)) admit(key);
+                }
+            }
+            return updateAndGetUnits(card, units -> Math.addExact(units, deltaUnits));
         }
 
-        public void saveIfDirty() {
-            if (dirty) saveToDiskAsync();
+        /** Applies {@code update} atomically (retrying on a race) and returns the new balance. */
+        public long updateAndGetUnits(String card, LongUnaryOperator update) {
+            if (card == null) return 0L;
+            long[] current = new long[2];
+            while (true) {
+                readVersioned(card, current);
+                long next = update.applyAsLong(current[0]);
+                if (compareAndSetUnits(card, current[1], next)) return next;
+            }
         }
 
-        @SuppressWarnings("unchecked")
-        public void loadFromDiskAsync() {
-            plugin.getAsyncExecutor().submit(() -> {
-                if (!cacheFile.exists()) {
-                    plugin.getLogger().info("Balance cache file does not exist, starting fresh.");
-                    return;
+        /** Brings a card that is only in balances.dat into memory; false if it is not there either. */
+        private boolean loadFromStore(long key) {
+            long[] stored = storeGet(key);
+            if (stored == null) return false;
+            if (balances.putIfAbsent(key, stored[0], stored[1])) admit(key);
+            return true;
+        }
+
+        public void removeBalance(String card) {
+            if (card == null) return;
+            long key = CardBalanceMap.pack(card);
+            if (key != CardBalanceMap.NOT_PACKABLE) {
+                synchronized (policyLock) {
+                    dirtyKeys.remove(key);
+                    balances.remove(key);
+                    if (store != null) store.remove(key);
                 }
+            } else {
+                fallback.remove(card);
+            }
+        }
 
-                try (FileInputStream fis = new FileInputStream(cacheFile);
-                     ObjectInputStream ois = new ObjectInputStream(fis)) {
+        private void put(String card, long units, long timestamp) {
+            long key = CardBalanceMap.pack(card);
+            if (key != CardBalanceMap.NOT_PACKABLE) {
+                sketch.increment(key);
+                dirtyKeys.add(key);
+                if (balances.put(key, units, timestamp)) admit(key);
+            } else {
+                // irregular codes are rare and are kept in memory only, outside the size bound
+                fallback.put(card, new CachedBalance(Money.toCoins(units), timestamp, fallbackVersions.incrementAndGet()));
+            }
+        }
 
-                    Map<String, CachedBalance> loaded = (Map<String, CachedBalance>) ois.readObject();
-                    long now = System.currentTimeMillis();
-                    int validCount = 0;
+        /** A card new to memory enters the eviction window. */
+        private void admit(long key) {
+            admissions.offer(key);
+            scheduleMaintenance();
+        }
+
+        // ==================== EVICTION ====================
 
-                    for (Map.Entry<String, CachedBalance> entry : loaded.entrySet()) {
-                        cache.put(entry.getKey(), entry.getValue());
-                        if (entry.getValue().isValid(now)) validCount++;
+        private void scheduleMaintenance() {
+            if (!maintenanceScheduled.compareAndSet(false, true)) return;
+            try {
+                plugin.getAsyncExecutor().submit(this::maintain);
+            } catch (RuntimeException e) {
+                maintenanceScheduled.set(false); // executor gone (shutting down)
+            }
+        }
+
+        /**
+         * Runs off the caller's thread: writes to balances.dat never land on a Vault call. A cold
+         * miss on the caller's thread still reads balances.dat, but only waits for other lookups,
+         * never for an eviction's write or the file's growth (see {@link MappedBalanceStore}).
+         */
+        private void maintain() {
+            try {
+                synchronized (policyLock) {
+                    Long added;
+                    while ((added = admissions.poll()) != null) {
+                        if (maxEntries <= 0) continue;
+                        long candidate = pushWindow(added);
+                        if (balances.size() <= maxEntries) continue;
+                        evictOne(candidate);
+                    }
+                    // still over after a reload lowered the bound or a large load
+                    int excess = maxEntries > 0 ? balances.size() - maxEntries : 0;
+                    for (int attempts = 0; excess > 0 && attempts < excess * 2; attempts++) {
+                        if (!evictOne(CardBalanceMap.NOT_PACKABLE)) break;
+                        excess = balances.size() - maxEntries;
                     }
+                }
+            } catch (Exception e) {
+                plugin.getLogger().warning("Balance cache eviction failed: " + e.getMessage());
+            } finally {
+                maintenanceScheduled.set(false);
+                if (!admissions.isEmpty()) scheduleMaintenance();
+            }
+        }
+
+        /** Adds a new card to the window; returns the card pushed out of it, if the window was full. */
+        private long pushWindow(long key) {
+            if (windowSize < window.length) {
+                window[(windowHead + windowSize++) % window.length] = key;
+                return CardBalanceMap.NOT_PACKABLE;
+            }
+            long oldest = window[windowHead];
+            window[windowHead] = key;
+            windowHead = (windowHead + 1) % window.length;
+            return oldest;
+        }
 
-                    plugin.getLogger().info("Loaded " + cache.size() + " balances from disk (" + validCount + " fresh).");
+        private boolean inWindow(long key) {
+            for (int i = 0; i < windowSize; i++) {
+                if (window[(windowHead + i) % window.length] == key) return true;
+            }
+            return false;
+        }
 
-                } catch (Exception e) {
-                    plugin.getLogger().warning("Failed to load balance cache: " + e.getMessage());
+        /** Evicts the window candidate or a sampled victim (never a hot card), whichever the sketch says is used less. */
+        private boolean evictOne(long candidate) {
+            long victim = sampleVictim();
+            if (candidate != CardBalanceMap.NOT_PACKABLE && !hotHolders.containsKey(candidate) && balances.contains(candidate)) {
+                if (victim == CardBalanceMap.NOT_PACKABLE || sketch.frequency(candidate) <= sketch.frequency(victim)) {
+                    return evict(candidate);
                 }
-            });
+            }
+            return victim != CardBalanceMap.NOT_PACKABLE && evict(victim);
+        }
+
+        /** Least used (then oldest) of a few random cards outside the window and not hot. */
+        private long sampleVictim() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long best = CardBalanceMap.NOT_PACKABLE;
+            int bestFrequency = Integer.MAX_VALUE;
+            long bestTimestamp = Long.MAX_VALUE;
+            for (int i = 0; i < EVICTION_SAMPLES; i++) {
+                long key = balances.keyAtOrAfter(random.nextInt());
+                if (key == CardBalanceMap.NOT_PACKABLE) break;
+                if (hotHolders.containsKey(key) || inWindow(key)) continue;
+                int frequency = sketch.frequency(key);
+                long timestamp = balances.getTimestamp(key, Long.MAX_VALUE);
+                if (frequency < bestFrequency || (frequency == bestFrequency && timestamp < bestTimestamp)) {
+                    best = key;
+                    bestFrequency = frequency;
+                    bestTimestamp = timestamp;
+                }
+            }
+            return best;
+        }
+
+        private boolean evict(long key) {
+            // unmarked first: a write racing in after this marks the card again
+            dirtyKeys.remove(key);
+            long timestamp = balances.getTimestamp(key, -1L);
+            long units = balances.get(key, NO_BALANCE);
+            if (timestamp < 0 || units == NO_BALANCE) return false;
+            writeToStore(key, units, timestamp);
+            // a write that raced in keeps the entry in memory (and supersedes the stored copy)
+            if (!balances.remove(key, units, timestamp)) return false;
+            evictions.incrementAndGet();
+            return true;
         }
 
-        public void saveToDiskAsync() {
-            plugin.getAsyncExecutor().submit(() -> {
-                if (!dirty) return;
+        /** {units, timestamp} from balances.dat, or null. */
+        private long[] storeGet(long key) {
+            if (store == null) return null;
+            long[] entry = new long[2];
+            return store.get(key, entry) ? entry : null;
+        }
 
-                try {
-                    if (!plugin.getDataFolder().exists()) {
-                        plugin.getDataFolder().mkdirs();
-                    }
+        private void writeToStore(long key, long units, long timestamp) {
+            if (store == null) return;
+            try {
+                store.put(key, units, timestamp);
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not write to balances.dat: " + e.getMessage());
+            }
+        }
+
+        public void saveIfDirty() {
+            if (!dirtyKeys.isEmpty()) saveToDiskAsync();
+        }
 
-                    File tempFile = new File(plugin.getDataFolder(), "balance_cache.dat.tmp");
+        /**
+         * balances.dat is mapped, not read, so there is nothing to load; this only migrates a
+         * balance_cache.dat left by an older version into it, once.
+         */
+        @SuppressWarnings("unchecked")
+        public void loadFromDiskAsync() {
+            plugin.getAsyncExecutor().submit(() -> {
+                if (!legacyCacheFile.exists()) {
+                    plugin.getLogger().info("Mapped balances.dat (" + storedSize() + " balances).");
+                    return;
+                }
 
-                    try (FileOutputStream fos = new FileOutputStream(tempFile);
-                         ObjectOutputStream oos = new ObjectOutputStream(fos)) {
+                try (FileInputStream fis = new FileInputStream(legacyCacheFile);
+                     ObjectInputStream ois = new ObjectInputStream(fis)) {
 
-                        oos.writeObject(new HashMap<>(cache));
-                        oos.flush();
+                    Map<String, CachedBalance> loaded = (Map<String, CachedBalance>) ois.readObject();
+                    int migrated = 0;
+
+                    synchronized (policyLock) {
+                        for (Map.Entry<String, CachedBalance> entry : loaded.entrySet()) {
+                            long key = CardBalanceMap.pack(entry.getKey());
+                            if (key == CardBalanceMap.NOT_PACKABLE) continue;
+                            CachedBalance cached = entry.getValue();
+                            long[] stored = storeGet(key);
+                            if (stored != null && stored[1] >= cached.timestamp) continue;
+                            writeToStore(key, Money.toUnits(cached.balance), cached.timestamp);
+                            migrated++;
+                        }
+                        if (store != null) store.force();
                     }
 
-                    synchronized (saveLock) {
-                        if (cacheFile.exists() && !cacheFile.delete()) {
-                            plugin.getLogger().warning("Could not delete old balance cache file.");
-                        }
-                        if (tempFile.renameTo(cacheFile)) {
-                            dirty = false;
-                            plugin.getLogger().info("Saved " + cache.size() + " balances to disk cache.");
-                        }
+                    if (!legacyCacheFile.delete()) {
+                        plugin.getLogger().warning("Could not delete balance_cache.dat after migrating it.");
                     }
+                    plugin.getLogger().info("Migrated " + migrated + " balances from balance_cache.dat to balances.dat ("
+                            + storedSize() + " balances).");
 
                 } catch (Exception e) {
-                    plugin.getLogger().warning("Failed to save balance cache: " + e.getMessage());
+                    plugin.getLogger().warning("Failed to migrate balance cache: " + e.getMessage());
                 }
             });
         }
 
+        public void saveToDiskAsync() {
+            plugin.getAsyncExecutor().submit(this::saveToDisk);
+        }
+
+        /** Writes the records of the cards changed since the last save; the rest are untouched. */
+        private void saveToDisk() {
+            if (store == null || dirtyKeys.isEmpty()) return;
+            int written = 0;
+            // under policyLock so an eviction cannot write a newer value that this then overwrites
+            synchronized (policyLock) {
+                for (Iterator<Long> it = dirtyKeys.iterator(); it.hasNext(); ) {
+                    long key = it.next();
+                    it.remove(); // a write racing in after this marks the card again
+                    long timestamp = balances.getTimestamp(key, -1L);
+                    long units = balances.get(key, NO_BALANCE);
+                    if (timestamp < 0 || units == NO_BALANCE) continue; // evicted, already written
+                    writeToStore(key, units, timestamp);
+                    written++;
+                }
+                store.force();
+            }
+            plugin.getLogger().fine("Saved " + written + " changed balances to balances.dat.");
+        }
+
         public Map<String, Double> getAllFreshBalances() {
             Map<String, Double> result = new HashMap<>();
             long now = System.currentTimeMillis();
-            for (Map.Entry<String, CachedBalance> entry : cache.entrySet()) {
-                if (entry.getValue().isValid(now)) {
+            for (Map.Entry<String, CachedBalance> entry : fallback.entrySet()) {
+                if (entry.getValue().isValid(now, softTtlMs)) {
                     result.put(entry.getKey(), entry.getValue().balance);
                 }
             }
+            forEachStored((key, units, timestamp) -> {
+                if (now - timestamp < softTtlMs) result.put(CardBalanceMap.unpack(key), Money.toCoins(units));
+            });
+            balances.forEach((key, units, timestamp) -> {
+                if (now - timestamp < softTtlMs) result.put(CardBalanceMap.unpack(key), Money.toCoins(units));
+            });
             return result;
         }
 
         public Map<String, Double> getAllLastBalances() {
             Map<String, Double> result = new HashMap<>();
-            for (Map.Entry<String, CachedBalance> entry : cache.entrySet()) {
+            for (Map.Entry<String, CachedBalance> entry : fallback.entrySet()) {
                 result.put(entry.getKey(), entry.getValue().balance);
             }
+            forEachStored((key, units, timestamp) -> result.put(CardBalanceMap.unpack(key), Money.toCoins(units)));
+            balances.forEach((key, units, timestamp) -> result.put(CardBalanceMap.unpack(key), Money.toCoins(units)));
             return result;
         }
 
-        public void shutdown() {
-            saveToDiskAsync();
-        }
-    }
-
-    // ==================== ASYNC QUEUE PROCESSOR ====================
-
-    public static class AsyncQueueProcessor {
-        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
-        private final AtomicBoolean running = new AtomicBoolean(false);
-        private Thread workerThread;
-        private volatile long delayMs;
-
-        public AsyncQueueProcessor(long delayMs) {
-            this.delayMs = delayMs;
+        private void forEachStored(MappedBalanceStore.Visitor visitor) {
+            if (store != null) store.forEach(visitor);
         }
 
-        public void start() {
-            if (running.getAndSet(true)) return;
-            workerThread = new Thread(() -> {
-                while (running.get()) {
-                    Runnable task = tasks.poll();
-                    if (task != null) {
-                        try {
-                            task.run();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        try {
-                            Thread.sleep(delayMs);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        }
-                    } else {
-                        try {
-                            Thread.sleep(50);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            break;
-                        }
+        /** Called after the async executor has stopped, so the save runs here. */
+        public void shutdown() {
+            saveToDisk();
+            if (store != null) {
+                synchronized (policyLock) {
+                    try {
+                        store.close();
+                    } catch (IOException e) {
+                        plugin.getLogger().warning("Could not close balances.dat: " + e.getMessage());
                     }
                 }
-            });
-            workerThread.setDaemon(true);
-            workerThread.start();
-        }
-
-        public void enqueue(Runnable r) {
-            if (r != null) tasks.offer(r);
-        }
-
-        public void setDelayMs(long delayMs) {
-            this.delayMs = delayMs;
-        }
-
-        public void shutdown() {
-            running.set(false);
-            if (workerThread != null) {
-                workerThread.interrupt();
             }
-            tasks.clear();
         }
     }
 
@@ -1413,12 +2760,18 @@ public class CoinCardPlugin extends JavaPlugin {
 
                     plugin.getLogger().info("Baltop updater: fetching fresh balances for " + cardsToUpdate.size() + " cards...");
 
-                    for (String card : cardsToUpdate) {
+                    for (int i = 0; i < cardsToUpdate.size(); i++) {
+                        String card = cardsToUpdate.get(i);
                         if (!running.get()) break;
+                        if (plugin.shouldShedBackgroundWork()) {
+                            plugin.countShedWork(cardsToUpdate.size() - i);
+                            plugin.getLogger().info("Baltop updater: transaction queue backed up, cycle cut short.");
+                            break;
+                        }
                         try {
                             ApiClient.CardInfoResult result = api.getCardInfo(card);
                             if (result.success && result.coins != null) {
-                                cache.setBalance(card, result.coins);
+                                cache.setBankBalance(card, result.coins);
                             }
                             Thread.sleep(REQUEST_DELAY_MS);
                         } catch (InterruptedException e) {
@@ -1456,7 +2809,17 @@ public class CoinCardPlugin extends JavaPlugin {
         private final String apiBase;
         private final int queueIntervalTicks;
         private final long queueProcessDelayMs;
+        private final int queueWorkers;
+        private final int[] queueLaneWeights = new int[Lane.values().length];
+        private final int[] queueHighWatermarks = new int[Lane.values().length];
+        private final int[] queueLowWatermarks = new int[Lane.values().length];
+        private final boolean netSettlementEnabled;
+        private final long netSettlementWindowMs;
+        private final int netSettlementMaxBatch;
+        private final boolean asyncVirtualThreads;
+        private final int asyncMaxConcurrent;
         private final int timeoutMs;
+        private final int maxConnections;
         private final int decimals;
 
         private final String defaultPassword;
@@ -1465,6 +2828,43 @@ public class CoinCardPlugin extends JavaPlugin {
         private final int maxSuffixAttempts;
         private final long perUserCooldownMs;
 
+        // ===== API RATE LIMITS (per endpoint) =====
+        private final double payRatePerSecond;
+        private final int payRateBurst;
+        private final double infoRatePerSecond;
+        private final int infoRateBurst;
+        private final double claimRatePerSecond;
+        private final int claimRateBurst;
+
+        // ===== CIRCUIT BREAKER / ADAPTIVE TIMEOUTS =====
+        private final double breakerFailureRate;
+        private final int breakerMinimumCalls;
+        private final long breakerWindowMs;
+        private final long breakerOpenMs;
+        private final int breakerHalfOpenProbes;
+        private final boolean adaptiveTimeoutEnabled;
+        private final double adaptiveTimeoutP99Multiplier;
+        private final int adaptiveTimeoutMinMs;
+
+        // ===== RETRY BACKOFF =====
+        private final long retryBaseDelayMs;
+        private final long retryMaxDelayMs;
+
+        // ===== METRICS =====
+        private final int metricsLogIntervalSeconds;
+
+        // ===== BALANCE CACHE =====
+        private final long cacheSoftTtlMs;
+        private final long cacheHardTtlMs;
+        private final int cacheMaxConcurrentRefreshes;
+        private final int cacheMaxEntries;
+
+        // ===== BALANCE EVENTS =====
+        private final boolean balanceEventsEnabled;
+        private final String balanceEventsUrl;
+        private final long balanceEventsFallbackTtlMs;
+        private final long balanceEventsReconnectMaxMs;
+
         // ===== AUTO CLAIM CONFIG =====
         private final double claimTax;
 
@@ -1477,8 +2877,22 @@ public class CoinCardPlugin extends JavaPlugin {
             this.sellCoinsPerVault = c.getDouble("Sell", 0.000001D);
             this.apiBase = c.getString("API", "https://bank.foxsrv.net/");
             this.queueIntervalTicks = c.getInt("QueueIntervalTicks", 20);
-            this.queueProcessDelayMs = c.getLong("QueueProcessDelayMs", 1010L);
+            this.queueProcessDelayMs = Math.max(0L, c.getLong("QueueProcessDelayMs", 0L));
+            this.queueWorkers = Math.max(1, c.getInt("QueueWorkers", 4));
+            this.queueLaneWeights[Lane.INTERACTIVE.ordinal()] = Math.max(1, c.getInt("QueueLanes.Interactive", 8));
+            this.queueLaneWeights[Lane.SETTLEMENT.ordinal()] = Math.max(1, c.getInt("QueueLanes.Settlement", 3));
+            this.queueLaneWeights[Lane.BACKGROUND.ordinal()] = Math.max(1, c.getInt("QueueLanes.Background", 1));
+            int[] defaultHigh = {200, 2000, 5000};
+            for (Lane lane : Lane.values()) {
+                String path = "QueueLimits." + lane.name().charAt(0) + lane.name().substring(1).toLowerCase(Locale.ROOT);
+                int high = Math.max(0, c.getInt(path + ".High", defaultHigh[lane.ordinal()]));
+                this.queueHighWatermarks[lane.ordinal()] = high;
+                this.queueLowWatermarks[lane.ordinal()] = Math.max(0, c.getInt(path + ".Low", high / 2));
+            }
+            this.asyncVirtualThreads = c.getBoolean("AsyncExecutor.VirtualThreads", true);
+            this.asyncMaxConcurrent = Math.max(1, c.getInt("AsyncExecutor.MaxConcurrent", 64));
             this.timeoutMs = c.getInt("TimeoutMs", 60000);
+            this.maxConnections = Math.max(1, c.getInt("MaxConnections", 16));
             this.decimals = Math.min(8, Math.max(0, c.getInt("Decimals", 2)));
 
             this.defaultPassword = c.getString("DefaultPassword", "1234");
@@ -1487,6 +2901,42 @@ public class CoinCardPlugin extends JavaPlugin {
             this.maxSuffixAttempts = c.getInt("MaxSuffixAttempts", 10);
             this.perUserCooldownMs = c.getLong("PerUserCooldownMs", 1100L);
 
+            this.payRatePerSecond = c.getDouble("RateLimits.Pay.PerSecond", 5.0);
+            this.payRateBurst = c.getInt("RateLimits.Pay.Burst", 10);
+            this.infoRatePerSecond = c.getDouble("RateLimits.Info.PerSecond", 5.0);
+            this.infoRateBurst = c.getInt("RateLimits.Info.Burst", 10);
+            this.claimRatePerSecond = c.getDouble("RateLimits.Claim.PerSecond", 2.0);
+            this.claimRateBurst = c.getInt("RateLimits.Claim.Burst", 4);
+
+            this.breakerFailureRate = c.getDouble("CircuitBreaker.FailureRate", 0.5);
+            this.breakerMinimumCalls = c.getInt("CircuitBreaker.MinimumCalls", 10);
+            this.breakerWindowMs = c.getLong("CircuitBreaker.WindowSeconds", 30) * 1000L;
+            this.breakerOpenMs = c.getLong("CircuitBreaker.OpenSeconds", 15) * 1000L;
+            this.breakerHalfOpenProbes = c.getInt("CircuitBreaker.HalfOpenProbes", 3);
+            this.adaptiveTimeoutEnabled = c.getBoolean("AdaptiveTimeout.Enabled", true);
+            this.adaptiveTimeoutP99Multiplier = c.getDouble("AdaptiveTimeout.P99Multiplier", 3.0);
+            this.adaptiveTimeoutMinMs = c.getInt("AdaptiveTimeout.MinTimeoutMs", 2000);
+
+            this.retryBaseDelayMs = Math.max(1L, c.getLong("Retry.BaseDelayMs", 1000L));
+            this.retryMaxDelayMs = Math.max(retryBaseDelayMs, c.getLong("Retry.MaxDelayMs", 60000L));
+            this.netSettlementEnabled = c.getBoolean("NetSettlement.Enabled", false);
+            this.netSettlementWindowMs = Math.max(0L, c.getLong("NetSettlement.WindowMs", 1000L));
+            this.netSettlementMaxBatch = Math.max(1, c.getInt("NetSettlement.MaxBatch", 200));
+
+            this.metricsLogIntervalSeconds = Math.max(0, c.getInt("Metrics.LogIntervalSeconds", 300));
+
+            this.cacheSoftTtlMs = Math.max(0L, c.getLong("BalanceCache.SoftTtlMs", 10000L));
+            this.cacheHardTtlMs = Math.max(cacheSoftTtlMs, c.getLong("BalanceCache.HardTtlMs", 60000L));
+            this.cacheMaxConcurrentRefreshes = Math.max(1, c.getInt("BalanceCache.MaxConcurrentRefreshes", 4));
+            this.cacheMaxEntries = Math.max(0, c.getInt("BalanceCache.MaxEntries", 10000));
+
+            this.balanceEventsEnabled = c.getBoolean("BalanceEvents.Enabled", false);
+            String eventsUrl = c.getString("BalanceEvents.Url", "");
+            this.balanceEventsUrl = eventsUrl == null || eventsUrl.isEmpty() ? apiBase + "api/card/events" : eventsUrl;
+            this.balanceEventsFallbackTtlMs = Math.max(cacheSoftTtlMs,
+                    c.getLong("BalanceEvents.FallbackPollSeconds", 300) * 1000L);
+            this.balanceEventsReconnectMaxMs = Math.max(1000L, c.getLong("BalanceEvents.ReconnectMaxDelayMs", 60000L));
+
             // Lê a taxa de claim do config
             this.claimTax = c.getDouble("ClaimTax", 0.01);
         }
@@ -1500,7 +2950,14 @@ public class CoinCardPlugin extends JavaPlugin {
         public String getApiBase() { return apiBase; }
         public int getQueueIntervalTicks() { return queueIntervalTicks; }
         public long getQueueProcessDelayMs() { return queueProcessDelayMs; }
+        public int getQueueWorkers() { return queueWorkers; }
+        public int getQueueLaneWeight(Lane lane) { return queueLaneWeights[lane.ordinal()]; }
+        public int getQueueHighWatermark(Lane lane) { return queueHighWatermarks[lane.ordinal()]; }
+        public int getQueueLowWatermark(Lane lane) { return queueLowWatermarks[lane.ordinal()]; }
+        public boolean isAsyncVirtualThreads() { return asyncVirtualThreads; }
+        public int getAsyncMaxConcurrent() { return asyncMaxConcurrent; }
         public int getTimeoutMs() { return timeoutMs; }
+        public int getMaxConnections() { return maxConnections; }
         public int getDecimals() { return decimals; }
 
         public String getDefaultPassword() { return defaultPassword; }
@@ -1509,6 +2966,40 @@ public class CoinCardPlugin extends JavaPlugin {
         public int getMaxSuffixAttempts() { return maxSuffixAttempts; }
         public long getPerUserCooldownMs() { return perUserCooldownMs; }
 
+        public double getPayRatePerSecond() { return payRatePerSecond; }
+        public int getPayRateBurst() { return payRateBurst; }
+        public double getInfoRatePerSecond() { return infoRatePerSecond; }
+        public int getInfoRateBurst() { return infoRateBurst; }
+        public double getClaimRatePerSecond() { return claimRatePerSecond; }
+        public int getClaimRateBurst() { return claimRateBurst; }
+
+        public double getBreakerFailureRate() { return breakerFailureRate; }
+        public int getBreakerMinimumCalls() { return breakerMinimumCalls; }
+        public long getBreakerWindowMs() { return breakerWindowMs; }
+        public long getBreakerOpenMs() { return breakerOpenMs; }
+        public int getBreakerHalfOpenProbes() { return breakerHalfOpenProbes; }
+        public boolean isAdaptiveTimeoutEnabled() { return adaptiveTimeoutEnabled; }
+        public double getAdaptiveTimeoutP99Multiplier() { return adaptiveTimeoutP99Multiplier; }
+        public int getAdaptiveTimeoutMinMs() { return adaptiveTimeoutMinMs; }
+
+        public long getRetryBaseDelayMs() { return retryBaseDelayMs; }
+        public long getRetryMaxDelayMs() { return retryMaxDelayMs; }
+        public boolean isNetSettlementEnabled() { return netSettlementEnabled; }
+        public long getNetSettlementWindowMs() { return netSettlementWindowMs; }
+        public int getNetSettlementMaxBatch() { return netSettlementMaxBatch; }
+
+        public int getMetricsLogIntervalSeconds() { return metricsLogIntervalSeconds; }
+
+        public long getCacheSoftTtlMs() { return cacheSoftTtlMs; }
+        public long getCacheHardTtlMs() { return cacheHardTtlMs; }
+        public int getCacheMaxConcurrentRefreshes() { return cacheMaxConcurrentRefreshes; }
+        public int getCacheMaxEntries() { return cacheMaxEntries; }
+
+        public boolean isBalanceEventsEnabled() { return balanceEventsEnabled; }
+        public String getBalanceEventsUrl() { return balanceEventsUrl; }
+        public long getBalanceEventsFallbackTtlMs() { return balanceEventsFallbackTtlMs; }
+        public long getBalanceEventsReconnectMaxMs() { return balanceEventsReconnectMaxMs; }
+
         // ===== GETTER PARA ClaimTax =====
         public double getClaimTax() { return claimTax; }
     }
@@ -1723,24 +3214,62 @@ public class CoinCardPlugin extends JavaPlugin {
 
         public static class HistoryEntry implements Serializable {
             private static final long serialVersionUID = 1L;
-            public final long timestamp;
-            public final String type;
-            public final double amount;
-            public final String targetOrNote;
-            public final double balanceAfter;
-
-            public HistoryEntry(long timestamp, String type, double amount, String targetOrNote, double balanceAfter) {
+            // history.dat keeps the original double fields; amounts are held as Money units in memory
+            private static final ObjectStreamField[] serialPersistentFields = {
+                    new ObjectStreamField("timestamp", long.class),
+                    new ObjectStreamField("type", String.class),
+                    new ObjectStreamField("amount", double.class),
+                    new ObjectStreamField("targetOrNote", String.class),
+                    new ObjectStreamField("balanceAfter", double.class)
+            };
+
+            private long timestamp;
+            private String type;
+            private long amountUnits;
+            private String targetOrNote;
+            private long balanceAfterUnits;
+
+            public HistoryEntry(long timestamp, String type, long amountUnits, String targetOrNote, long balanceAfterUnits) {
                 this.timestamp = timestamp;
                 this.type = type;
-                this.amount = amount;
+                this.amountUnits = amountUnits;
                 this.targetOrNote = targetOrNote;
-                this.balanceAfter = balanceAfter;
+                this.balanceAfterUnits = balanceAfterUnits;
             }
 
+            public long getTimestamp() { return timestamp; }
+            public String getType() { return type; }
+            public long getAmountUnits() { return amountUnits; }
+            public String getTargetOrNote() { return targetOrNote; }
+            public long getBalanceAfterUnits() { return balanceAfterUnits; }
+
             public String format() {
                 return new Date(timestamp).toString() + " - " + type + ": " +
-                        DecimalUtil.formatDisplay(amount) + " (" + targetOrNote + ") - balance: " +
-                        DecimalUtil.formatDisplay(balanceAfter);
+                        DecimalUtil.formatUnits(amountUnits) + " (" + targetOrNote + ") - balance: " +
+                        DecimalUtil.formatUnits(balanceAfterUnits);
+            }
+
+            private void writeObject(ObjectOutputStream out) throws IOException {
+                ObjectOutputStream.PutField fields = out.putFields();
+                fields.put("timestamp", timestamp);
+                fields.put("type", type);
+                fields.put("amount", Money.toCoins(amountUnits));
+                fields.put("targetOrNote", targetOrNote);
+                fields.put("balanceAfter", Money.toCoins(balanceAfterUnits));
+                out.writeFields();
+            }
+
+            private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+                ObjectInputStream.GetField fields = in.readFields();
+                timestamp = fields.get("timestamp", 0L);
+                type = (String) fields.get("type", null);
+                amountUnits = unitsOf(fields.get("amount", 0.0));
+                targetOrNote = (String) fields.get("targetOrNote", null);
+                balanceAfterUnits = unitsOf(fields.get("balanceAfter", 0.0));
+            }
+
+            private static long unitsOf(double coins) {
+                return Double.isFinite(coins) ? Money.toUnits(coins) : 0L;
             }
         }
 
@@ -1765,9 +3294,10 @@ public class CoinCardPlugin extends JavaPlugin {
             });
         }
 
-        public synchronized void addEntry(UUID uuid, String type, double amount, String targetOrNote, double balanceAfter) {
+        /** Amounts in {@link Money} units. */
+        public synchronized void addEntry(UUID uuid, String type, long amountUnits, String targetOrNote, long balanceAfterUnits) {
             List<HistoryEntry> list = history.computeIfAbsent(uuid, k -> Collections.synchronizedList(new ArrayList<>()));
-            list.add(new HistoryEntry(System.currentTimeMillis(), type, amount, targetOrNote, balanceAfter));
+            list.add(new HistoryEntry(System.currentTimeMillis(), type, amountUnits, targetOrNote, balanceAfterUnits));
             if (list.size() > MAX_HISTORY_PER_USER) {
                 list.remove(0);
             }
@@ -1815,42 +3345,50 @@ public class CoinCardPlugin extends JavaPlugin {
     // ==================== DECIMAL UTIL ====================
 
     public static class DecimalUtil {
-        private static int displayDecimals = 2;
+        private static volatile int displayDecimals = 2;
 
         public static void setDisplayDecimals(int decimals) {
             displayDecimals = Math.min(8, Math.max(0, decimals));
         }
 
+        public static int getDisplayDecimals() {
+            return displayDecimals;
+        }
+
         public static double truncate(double value, int scale) {
-            if (scale < 0) scale = 0;
-            BigDecimal bd = BigDecimal.valueOf(value);
-            bd = bd.setScale(scale, RoundingMode.DOWN);
-            return bd.doubleValue();
+            return com.foxsrv.coincard.core.DecimalUtil.truncate(value, scale);
         }
 
         public static double toDisplay(double internalValue) {
-            double factor = Math.pow(10, 8 - displayDecimals);
-            return internalValue * factor;
+            return unitsToDisplay(Money.toUnits(internalValue));
         }
 
         public static double toInternal(double displayValue) {
-            double factor = Math.pow(10, 8 - displayDecimals);
-            return truncate(displayValue / factor, 8);
+            return Money.toCoins(displayToUnits(displayValue));
+        }
+
+        /**
+         * A display amount as internal units. A display step of 10^-displayDecimals is one
+         * internal unit, so this is the display value truncated to displayDecimals places.
+         */
+        public static long displayToUnits(double displayValue) {
+            return Money.toSteps(displayValue, displayDecimals);
+        }
+
+        public static double unitsToDisplay(long units) {
+            return units / Money.pow10Double(displayDecimals);
         }
 
         public static String formatDisplay(double internalValue) {
-            double display = toDisplay(internalValue);
-            BigDecimal bd = BigDecimal.valueOf(display).setScale(displayDecimals, RoundingMode.DOWN);
-            String stripped = bd.stripTrailingZeros().toPlainString();
-            if (stripped.equals("0")) return "0";
-            return stripped;
+            return formatUnits(Money.toUnits(internalValue));
+        }
+
+        public static String formatUnits(long units) {
+            return Money.format(units, displayDecimals);
         }
 
         public static String formatDisplayValue(double displayValue) {
-            BigDecimal bd = BigDecimal.valueOf(displayValue).setScale(displayDecimals, RoundingMode.DOWN);
-            String stripped = bd.stripTrailingZeros().toPlainString();
-            if (stripped.equals("0")) return "0";
-            return stripped;
+            return formatUnits(displayToUnits(displayValue));
         }
 
         public static String formatFull(double value) {
@@ -1869,10 +3407,19 @@ public class CoinCardPlugin extends JavaPlugin {
 
     public static class ApiClient {
         private final String baseUrl;
-        private final int timeoutMs;
+        private final HttpTransport transport;
         private final Logger log;
+        // may be null (e.g. the bench LoadDriver): card lookups then always go to the bank
         private final BalanceCacheManager cache;
         private final RateLimiter rateLimiter;
+        private final CircuitBreakers breakers;
+        private final Metrics metrics;
+        private final IdempotencyStore idempotency;
+        private final Map<String, CompletableFuture<CardTransferResult>> transfersInFlight = new ConcurrentHashMap<>();
+        // Single-flight: concurrent lookups of one card share the request already on the wire. The
+        // shared futures stay in here; each caller gets its own copy, so none can complete or
+        // cancel the lookup for the others.
+        private final Map<String, CompletableFuture<CardInfoResult>> infoInFlight = new ConcurrentHashMap<>();
 
         public static class CardTransferResult {
             public final boolean success;
@@ -1902,136 +3449,239 @@ public class CoinCardPlugin extends JavaPlugin {
             void onResult(CardInfoResult result);
         }
 
-        public ApiClient(String baseUrl, int timeoutMs, Logger logger, BalanceCacheManager cache) {
+        public static final String ENDPOINT_PAY = "api/card/pay";
+        public static final String ENDPOINT_INFO = "api/card/info";
+        public static final String ENDPOINT_CLAIM = "api/card/claim";
+        public static final String ENDPOINT_REGISTER = "api/register";
+        public static final String ENDPOINT_CARD = "api/card";
+
+        private static final JsonReader TRANSFER_FIELDS = new JsonReader("success", "txId", "tx");
+        private static final JsonReader INFO_FIELDS = new JsonReader("success", "error", "coins", "sats");
+
+        public ApiClient(String baseUrl, HttpTransport transport, RateLimiter rateLimiter,
+                         CircuitBreakers breakers, Metrics metrics, IdempotencyStore idempotency,
+                         Logger logger, BalanceCacheManager cache) {
             this.baseUrl = baseUrl.endsWith("/") ? baseUrl : (baseUrl + "/");
-            this.timeoutMs = timeoutMs;
+            this.transport = transport;
+            this.rateLimiter = rateLimiter;
+            this.breakers = breakers;
+            this.metrics = metrics;
+            this.idempotency = idempotency;
             this.log = logger;
             this.cache = cache;
-            this.rateLimiter = new RateLimiter(500);
         }
 
         public CardTransferResult transferByCard(String fromCard, String toCard, double amount) {
-            String endpoint = baseUrl + "api/card/pay";
-            String body = "{\"fromCard\":\"" + esc(fromCard) + "\",\"toCard\":\"" + esc(toCard) + "\",\"amount\":" + amount + "}";
-            try {
-                rateLimiter.acquire();
-                String resp = postJson(endpoint, body);
-                boolean ok = parseBoolean(resp, "success");
-                String tx = parseString(resp, "txId");
-                if (tx == null) tx = parseString(resp, "tx");
-                return new CardTransferResult(ok, tx, resp);
-            } catch (IOException e) {
-                log.warning("HTTP error: " + e.getMessage());
-                return new CardTransferResult(false, null, null);
+            return transferByCardAsync(fromCard, toCard, amount).join();
+        }
+
+        public CardTransferResult transferByCard(String fromCard, String toCard, double amount, String idempotencyKey) {
+            return transferByCardAsync(fromCard, toCard, amount, idempotencyKey).join();
+        }
+
+        /**
+         * Non-blocking transfer. The future never completes exceptionally: transport
+         * errors are reported as an unsuccessful result, like the blocking variant.
+         */
+        public CompletableFuture<CardTransferResult> transferByCardAsync(String fromCard, String toCard, double amount) {
+            return transferByCardAsync(fromCard, toCard, amount, null);
+        }
+
+        /**
+         * Transfer that is safe to retry: the key (the local txId) is sent as an
+         * Idempotency-Key header so the bank applies it at most once. A key the local
+         * IdempotencyStore already saw confirmed is answered without calling the bank, and
+         * concurrent calls with the same key share one request.
+         */
+        public CompletableFuture<CardTransferResult> transferByCardAsync(String fromCard, String toCard, double amount,
+                                                                         String idempotencyKey) {
+            if (idempotencyKey == null) return sendTransfer(fromCard, toCard, amount, null);
+
+            if (idempotency != null && idempotency.isCompleted(idempotencyKey)) {
+                String bankTx = idempotency.getBankTxId(idempotencyKey);
+                return CompletableFuture.completedFuture(
+                        new CardTransferResult(true, "-".equals(bankTx) ? null : bankTx, null));
             }
+
+            CompletableFuture<CardTransferResult> existing = transfersInFlight.get(idempotencyKey);
+            if (existing != null) return existing.copy();
+            CompletableFuture<CardTransferResult> mine = new CompletableFuture<>();
+            existing = transfersInFlight.putIfAbsent(idempotencyKey, mine);
+            if (existing != null) return existing.copy();
+
+            sendTransfer(fromCard, toCard, amount, idempotencyKey).whenComplete((result, error) -> {
+                if (result != null && result.success && idempotency != null) {
+                    idempotency.record(idempotencyKey, result.txId);
+                }
+                transfersInFlight.remove(idempotencyKey, mine);
+                if (error != null) mine.completeExceptionally(error);
+                else mine.complete(result);
+            });
+            return mine.copy();
+        }
+
+        private CompletableFuture<CardTransferResult> sendTransfer(String fromCard, String toCard, double amount,
+                                                                  String idempotencyKey) {
+            String body = "{\"fromCard\":\"" + esc(fromCard) + "\",\"toCard\":\"" + esc(toCard) + "\",\"amount\":" + amount + "}";
+            Map<String, String> headers = idempotencyKey != null
+                    ? Collections.singletonMap("Idempotency-Key", idempotencyKey) : null;
+            // a pay without a key cannot be sent again safely: timing it out early would report a
+            // transfer the bank may still apply as failed, so it gets the full configured timeout
+            return postAsync(ENDPOINT_PAY, body, headers, idempotencyKey != null)
+                    .handle((response, error) -> {
+                        if (isCircuitOpen(error)) {
+                            return new CardTransferResult(false, null, "CIRCUIT_OPEN");
+                        }
+                        if (error != null) {
+                            log.warning("HTTP error: " + rootMessage(error));
+                            return new CardTransferResult(false, null, null);
+                        }
+                        JsonReader.Fields json = TRANSFER_FIELDS.read(response.bytes());
+                        String tx = json.getString("txId");
+                        if (tx == null) tx = json.getString("tx");
+                        return new CardTransferResult(json.getBoolean("success"), tx, response.body());
+                    });
         }
 
         public CardInfoResult getCardInfo(String cardCode) {
-            Double fresh = cache.getBalance(cardCode);
+            return getCardInfoAsync(cardCode).join();
+        }
+
+        /**
+         * Non-blocking card lookup; answers from the fresh cache without any I/O when possible.
+         * Callers asking for the same card while a lookup is in flight get that lookup's result
+         * instead of sending another api/card/info request.
+         */
+        public CompletableFuture<CardInfoResult> getCardInfoAsync(String cardCode) {
+            Double fresh = cache != null ? cache.getBalance(cardCode) : null;
             if (fresh != null) {
-                return new CardInfoResult(true, fresh, null);
+                return CompletableFuture.completedFuture(new CardInfoResult(true, fresh, null));
             }
+            return refreshCardInfo(cardCode);
+        }
+
+        /** Asks the bank even if the cache is fresh (joining a lookup already in flight). */
+        public CompletableFuture<CardInfoResult> refreshCardInfo(String cardCode) {
+            CompletableFuture<CardInfoResult> existing = infoInFlight.get(cardCode);
+            if (existing != null) return existing.copy();
+
+            CompletableFuture<CardInfoResult> mine = new CompletableFuture<>();
+            existing = infoInFlight.putIfAbsent(cardCode, mine);
+            if (existing != null) return existing.copy();
+
+            fetchCardInfo(cardCode).whenComplete((result, error) -> {
+                // Unregister before completing so a caller woken by this result that asks again
+                // starts a new lookup (hitting the refreshed cache) instead of this finished one.
+                infoInFlight.remove(cardCode, mine);
+                if (error != null) mine.completeExceptionally(error);
+                else mine.complete(result);
+            });
+            return mine.copy();
+        }
 
-            String endpoint = baseUrl + "api/card/info";
+        private CompletableFuture<CardInfoResult> fetchCardInfo(String cardCode) {
             String body = "{\"cardCode\":\"" + esc(cardCode) + "\"}";
-            try {
-                rateLimiter.acquire();
-                String resp = postJson(endpoint, body);
-                boolean success = parseBoolean(resp, "success");
-                if (!success) return new CardInfoResult(false, null, parseString(resp, "error"));
+            return postAsync(ENDPOINT_INFO, body)
+                    .handle((response, error) -> {
+                        if (isCircuitOpen(error)) {
+                            // bank marked down: answer from the last known balance without waiting on it
+                            Double last = cache != null ? cache.getLastBalance(cardCode) : null;
+                            if (last != null) {
+                                return new CardInfoResult(true, last, "Using cached balance (circuit open)");
+                            }
+                            return new CardInfoResult(false, null, "CIRCUIT_OPEN");
+                        }
+                        if (error != null) {
+                            log.warning("HTTP error getting card info: " + rootMessage(error));
+                            Double last = cache != null ? cache.getLastBalance(cardCode) : null;
+                            if (last != null) {
+                                return new CardInfoResult(true, last, "Using cached balance (API unavailable)");
+                            }
+                            if (cache != null) cache.removeBalance(cardCode);
+                            return new CardInfoResult(false, null, "HTTP_ERROR");
+                        }
+                        JsonReader.Fields json = INFO_FIELDS.read(response.bytes());
+                        if (!json.getBoolean("success")) return new CardInfoResult(false, null, json.getString("error"));
 
-                Double coins = parseDouble(resp, "coins");
-                if (coins == null) coins = parseDouble(resp, "sats");
+                        Double coins = json.getDouble("coins");
+                        if (coins == null) coins = json.getDouble("sats");
 
-                if (coins != null) {
-                    double truncated = DecimalUtil.truncate(coins, 8);
-                    cache.setBalance(cardCode, truncated);
-                    return new CardInfoResult(true, truncated, null);
-                }
+                        if (coins != null) {
+                            double truncated = DecimalUtil.truncate(coins, 8);
+                            if (cache != null) cache.setBankBalance(cardCode, truncated);
+                            return new CardInfoResult(true, truncated, null);
+                        }
 
-                return new CardInfoResult(true, null, null);
-            } catch (IOException e) {
-                log.warning("HTTP error getting card info: " + e.getMessage());
-                Double last = cache.getLastBalance(cardCode);
-                if (last != null) {
-                    return new CardInfoResult(true, last, "Using cached balance (API unavailable)");
-                }
-                cache.removeBalance(cardCode);
-                return new CardInfoResult(false, null, "HTTP_ERROR");
-            }
-        }
-
-        private String postJson(String urlStr, String json) throws IOException {
-            URL url = URI.create(urlStr).toURL();
-            HttpURLConnection con = (HttpURLConnection) url.openConnection();
-            con.setConnectTimeout(timeoutMs);
-            con.setReadTimeout(timeoutMs);
-            con.setRequestMethod("POST");
-            con.setDoOutput(true);
-            con.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-
-            try (OutputStream os = con.getOutputStream()) {
-                os.write(json.getBytes(StandardCharsets.UTF_8));
-            }
-
-            int code = con.getResponseCode();
-            InputStream is = (code >= 200 && code < 300) ? con.getInputStream() : con.getErrorStream();
-            String resp = readAll(is);
-            return resp != null ? resp : "";
-        }
-
-        private String readAll(InputStream is) throws IOException {
-            if (is == null) return null;
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) sb.append(line);
-                return sb.toString();
-            }
-        }
-
-        private boolean parseBoolean(String json, String key) {
-            String k = "\"" + key + "\"";
-            int i = json.indexOf(k);
-            if (i < 0) return false;
-            int c = json.indexOf(':', i);
-            if (c < 0) return false;
-            String tail = json.substring(c + 1).trim();
-            return tail.startsWith("true");
-        }
-
-        private String parseString(String json, String key) {
-            String k = "\"" + key + "\"";
-            int i = json.indexOf(k);
-            if (i < 0) return null;
-            int c = json.indexOf(':', i);
-            if (c < 0) return null;
-            int q1 = json.indexOf('"', c + 1);
-            if (q1 < 0) return null;
-            int q2 = json.indexOf('"', q1 + 1);
-            if (q2 < 0) return null;
-            return json.substring(q1 + 1, q2);
-        }
-
-        private Double parseDouble(String json, String key) {
-            String k = "\"" + key + "\"";
-            int i = json.indexOf(k);
-            if (i < 0) return null;
-            int c = json.indexOf(':', i);
-            if (c < 0) return null;
-
-            String tail = json.substring(c + 1).trim();
-            StringBuilder num = new StringBuilder();
-            for (int j = 0; j < tail.length(); j++) {
-                char ch = tail.charAt(j);
-                if (ch == ',' || ch == '}' || ch == ']') break;
-                if (Character.isDigit(ch) || ch == '.' || ch == '-') num.append(ch);
+                        return new CardInfoResult(true, null, null);
+                    });
+        }
+
+        /**
+         * POSTs to an API endpoint (path relative to the base URL) through its rate limiter and
+         * circuit breaker, with the breaker's adaptive timeout. Fails with
+         * {@link CircuitBreaker.OpenException} without sending anything while the circuit is open.
+         * Only transport errors and 5xx responses count as failures for the breaker. Latency,
+         * outcome and the wait for a rate-limiter token are recorded in {@link Metrics}.
+         */
+        public CompletableFuture<HttpTransport.Response> postAsync(String path, String body) {
+            return postAsync(path, body, null);
+        }
+
+        public CompletableFuture<HttpTransport.Response> postAsync(String path, String body, Map<String, String> headers) {
+            return postAsync(path, body, headers, true);
+        }
+
+        /** @param adaptiveTimeout false to wait the configured TimeoutMs instead of the breaker's adaptive one */
+        private CompletableFuture<HttpTransport.Response> postAsync(String path, String body, Map<String, String> headers,
+                                                                    boolean adaptiveTimeout) {
+            CircuitBreaker breaker = breakers.get(path);
+            EndpointMetrics stats = metrics.get(path);
+            if (breaker != null && !breaker.tryAcquire()) {
+                if (stats != null) stats.recordShortCircuit();
+                return CompletableFuture.failedFuture(new CircuitBreaker.OpenException(path));
             }
+            long queued = System.nanoTime();
+            return rateLimiter.acquireAsync(path).thenCompose(ignored -> {
+                long start = System.nanoTime();
+                if (stats != null) stats.recordRateLimitWait(start - queued);
+                int timeoutMs = breaker != null && adaptiveTimeout ? breaker.getTimeoutMs() : 0;
+                return transport.postJsonAsync(baseUrl + path, body, null, timeoutMs, headers)
+                        .whenComplete((response, error) -> {
+                            long elapsed = System.nanoTime() - start;
+                            if (stats != null) stats.record(Metrics.classify(response, error), elapsed);
+                            if (breaker == null) return;
+                            if (error != null || response.status >= 500) breaker.onFailure(elapsed);
+                            else breaker.onSuccess(elapsed);
+                        });
+            });
+        }
+
+        /** Blocking {@link #postAsync}, for callers already running off the main thread. */
+        public HttpTransport.Response post(String path, String body) throws IOException {
             try {
-                return Double.parseDouble(num.toString());
-            } catch (NumberFormatException e) {
-                return null;
+                return postAsync(path, body).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + path);
+            } catch (ExecutionException e) {
+                Throwable cause = unwrap(e);
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+            }
+        }
+
+        private static boolean isCircuitOpen(Throwable t) {
+            return t != null && unwrap(t) instanceof CircuitBreaker.OpenException;
+        }
+
+        private static Throwable unwrap(Throwable t) {
+            while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+                t = t.getCause();
             }
+            return t;
+        }
+
+        private static String rootMessage(Throwable t) {
+            return unwrap(t).getMessage();
         }
 
         private String esc(String s) {
@@ -2039,28 +3689,137 @@ public class CoinCardPlugin extends JavaPlugin {
             return s.replace("\\", "\\\\").replace("\"", "\\\"");
         }
 
-        private static class RateLimiter {
-            private final long minIntervalMs;
-            private final AtomicLong lastRequestTime = new AtomicLong(0);
+        /**
+         * Per-endpoint token buckets shared by everything that talks to the bank, so pays,
+         * balance lookups and claims each have their own budget (baltop refresh traffic on
+         * api/card/info never delays a player's api/card/pay). Endpoints without a bucket
+         * are not limited.
+         */
+        public static class RateLimiter {
+            private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
 
-            RateLimiter(long minIntervalMs) {
-                this.minIntervalMs = minIntervalMs;
+            public RateLimiter(ConfigManager config) {
+                configure(config);
             }
 
-            void acquire() {
-                long now = System.currentTimeMillis();
-                long last = lastRequestTime.get();
-                long waitTime = minIntervalMs - (now - last);
+            /** Applies the configured limits; existing buckets keep their current fill level. */
+            public void configure(ConfigManager config) {
+                configure(ENDPOINT_PAY, config.getPayRatePerSecond(), config.getPayRateBurst());
+                configure(ENDPOINT_INFO, config.getInfoRatePerSecond(), config.getInfoRateBurst());
+                configure(ENDPOINT_CLAIM, config.getClaimRatePerSecond(), config.getClaimRateBurst());
+            }
+
+            private void configure(String endpoint, double perSecond, int burst) {
+                TokenBucket bucket = buckets.get(endpoint);
+                if (bucket == null) buckets.put(endpoint, new TokenBucket(perSecond, burst));
+                else bucket.configure(perSecond, burst);
+            }
 
-                if (waitTime > 0) {
+            public void acquire(String endpoint) {
+                TokenBucket bucket = buckets.get(endpoint);
+                if (bucket == null) return;
+                long waitNanos = bucket.reserve();
+                if (waitNanos > 0) {
                     try {
-                        Thread.sleep(waitTime);
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                     }
                 }
+            }
+
+            public CompletableFuture<Void> acquireAsync(String endpoint) {
+                TokenBucket bucket = buckets.get(endpoint);
+                long waitNanos = bucket != null ? bucket.reserve() : 0;
+                if (waitNanos <= 0) return CompletableFuture.completedFuture(null);
+                return CompletableFuture.runAsync(() -> { },
+                        CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+            }
+
+            public String describe(String endpoint) {
+                TokenBucket bucket = buckets.get(endpoint);
+                if (bucket == null) return endpoint + "=unlimited";
+                return endpoint + "=" + bucket.getPerSecond() + "/s (burst " + bucket.getBurst() + ")";
+            }
+        }
+
+        /**
+         * One circuit breaker per bank endpoint, kept across /coin reload so a reload does not
+         * forget that the bank is down.
+         */
+        public static class CircuitBreakers {
+            private final Map<String, CircuitBreaker> breakers = new LinkedHashMap<>();
+
+            public CircuitBreakers(ConfigManager config) {
+                for (String endpoint : new String[]{ENDPOINT_PAY, ENDPOINT_INFO, ENDPOINT_CLAIM}) {
+                    breakers.put(endpoint, new CircuitBreaker(endpoint));
+                }
+                configure(config);
+            }
+
+            public void configure(ConfigManager config) {
+                for (CircuitBreaker breaker : breakers.values()) {
+                    breaker.configure(config.getBreakerFailureRate(), config.getBreakerMinimumCalls(),
+                            config.getBreakerWindowMs(), config.getBreakerOpenMs(), config.getBreakerHalfOpenProbes(),
+                            config.isAdaptiveTimeoutEnabled(), config.getAdaptiveTimeoutP99Multiplier(),
+                            config.getAdaptiveTimeoutMinMs(), config.getTimeoutMs());
+                }
+            }
+
+            public CircuitBreaker get(String endpoint) {
+                return breakers.get(endpoint);
+            }
+
+            public Collection<CircuitBreaker> all() {
+                return Collections.unmodifiableCollection(breakers.values());
+            }
+        }
+
+        /**
+         * Latency histograms and throughput per bank endpoint, kept across /coin reload like
+         * the breakers. Shown by /coin stats and logged every Metrics.LogIntervalSeconds.
+         */
+        public static class Metrics {
+            private static final JsonReader SUCCESS_FIELD = new JsonReader("success");
+
+            private final Map<String, EndpointMetrics> endpoints = new LinkedHashMap<>();
+
+            public Metrics() {
+                for (String endpoint : new String[]{ENDPOINT_PAY, ENDPOINT_INFO, ENDPOINT_CLAIM,
+                        ENDPOINT_REGISTER, ENDPOINT_CARD}) {
+                    endpoints.put(endpoint, new EndpointMetrics(endpoint));
+                }
+            }
+
+            public EndpointMetrics get(String endpoint) {
+                return endpoints.get(endpoint);
+            }
 
-                lastRequestTime.set(System.currentTimeMillis());
+            public Collection<EndpointMetrics> all() {
+                return Collections.unmodifiableCollection(endpoints.values());
+            }
+
+            /** For calls made outside {@link ApiClient#postAsync} (e.g. card registration). */
+            public void record(String endpoint, long latencyNanos, HttpTransport.Response response, Throwable error) {
+                EndpointMetrics stats = endpoints.get(endpoint);
+                if (stats != null) stats.record(classify(response, error), latencyNanos);
+            }
+
+            public void reset() {
+                for (EndpointMetrics stats : endpoints.values()) stats.reset();
+            }
+
+            static EndpointMetrics.Outcome classify(HttpTransport.Response response, Throwable error) {
+                if (error != null) {
+                    return unwrap(error) instanceof HttpTimeoutException
+                            ? EndpointMetrics.Outcome.TIMEOUT : EndpointMetrics.Outcome.HTTP_ERROR;
+                }
+                if (response.status >= 500) return EndpointMetrics.Outcome.HTTP_ERROR;
+                JsonReader.Fields json = SUCCESS_FIELD.read(response.bytes());
+                if (json.getBoolean("success")) return EndpointMetrics.Outcome.SUCCESS;
+                // an explicit "success": false is the bank refusing; anything else unreadable is an error
+                if (json.has("success")) return EndpointMetrics.Outcome.BUSINESS_FAILURE;
+                return response.status >= 400 ? EndpointMetrics.Outcome.HTTP_ERROR : EndpointMetrics.Outcome.SUCCESS;
             }
         }
     }
@@ -2137,26 +3896,25 @@ public class CoinCardPlugin extends JavaPlugin {
         }
 
         private void updateBalanceAsync(UUID uuid) {
-            plugin.getAsyncExecutor().submit(() -> {
-                String card = users.getCard(uuid);
-                if (card == null || card.isEmpty()) {
-                    balanceCache.put(uuid, 0.0);
-                    lastUpdate.put(uuid, System.currentTimeMillis());
-                    return;
-                }
+            String card = users.getCard(uuid);
+            if (card == null || card.isEmpty()) {
+                balanceCache.put(uuid, 0.0);
+                lastUpdate.put(uuid, System.currentTimeMillis());
+                return;
+            }
 
-                Double cached = cache.getBalance(card);
-                if (cached != null) {
-                    balanceCache.put(uuid, cached);
-                    lastUpdate.put(uuid, System.currentTimeMillis());
-                    return;
-                }
+            Double cached = cache.getBalanceRefreshing(card);
+            if (cached != null) {
+                balanceCache.put(uuid, cached);
+                lastUpdate.put(uuid, System.currentTimeMillis());
+                return;
+            }
 
-                ApiClient.CardInfoResult result = api.getCardInfo(card);
+            api.getCardInfoAsync(card).thenAccept(result -> {
                 if (result.success && result.coins != null) {
                     double truncated = DecimalUtil.truncate(result.coins, 8);
                     balanceCache.put(uuid, truncated);
-                    cache.setBalance(card, truncated);
+                    cache.setBankBalance(card, truncated);
                 } else {
                     Double oldCache = cache.getLastBalance(card);
                     if (oldCache != null) {
@@ -2268,8 +4026,7 @@ public class CoinCardPlugin extends JavaPlugin {
                 return 0.0;
             }
 
-            Double internalBal = plugin.getBalanceCache().getBalanceFast(card);
-            return DecimalUtil.toDisplay(internalBal != null ? internalBal : 0.0);
+            return DecimalUtil.unitsToDisplay(plugin.getBalanceCache().getUnitsFast(card, 0L));
         }
 
         @Override
@@ -2328,46 +4085,44 @@ public class CoinCardPlugin extends JavaPlugin {
                 return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Operation on cooldown");
             }
 
-            if (plugin.withdrawPendingCards.contains(card)) {
-                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Withdraw already pending");
+            String serverCard = plugin.getCoinConfig().getServerCard();
+            if (serverCard == null || serverCard.isEmpty()) {
+                return new EconomyResponse(0, getBalance(player), EconomyResponse.ResponseType.FAILURE, "Server card not set");
+            }
+            if (!plugin.admitQueued(Lane.SETTLEMENT)) {
+                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, QUEUE_FULL);
             }
 
-            ReentrantLock lock = plugin.getPlayerLock(uuid);
-            if (!lock.tryLock()) {
-                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Another transaction in progress");
+            // claiming the card is what keeps a second withdraw out until this one settles; net
+            // settlement needs no claim, the cache debit below already guards the balance
+            boolean netted = plugin.isNetSettlement();
+            if (netted ? plugin.withdrawPendingCards.contains(card) : !plugin.withdrawPendingCards.add(card)) {
+                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Withdraw already pending");
             }
 
-            try {
-                double internalAmount = DecimalUtil.toInternal(amount);
-                double currentDisplay = getBalance(player);
+            long amountUnits = DecimalUtil.displayToUnits(amount);
+            BalanceCacheManager cache = plugin.getBalanceCache();
+            long[] current = new long[2];
+            do {
+                cache.readVersioned(card, current);
+                double currentDisplay = DecimalUtil.unitsToDisplay(current[0]);
                 if (currentDisplay < amount) {
+                    if (!netted) plugin.withdrawPendingCards.remove(card);
                     return new EconomyResponse(0, currentDisplay, EconomyResponse.ResponseType.FAILURE, "Insufficient funds");
                 }
+            } while (!cache.compareAndSetUnits(card, current[1], current[0] - amountUnits));
 
-                String serverCard = plugin.getCoinConfig().getServerCard();
-                if (serverCard == null || serverCard.isEmpty()) {
-                    return new EconomyResponse(0, currentDisplay, EconomyResponse.ResponseType.FAILURE, "Server card not set");
-                }
-
-                Double currentInternal = plugin.getBalanceCache().getLastBalance(card);
-                if (currentInternal == null) currentInternal = 0.0;
-
-                plugin.getBalanceCache().setBalance(card, 0.0);
-                plugin.withdrawPendingCards.add(card);
-
-                VaultWithdrawTransaction tx = new VaultWithdrawTransaction(
-                        uuid, card, serverCard, internalAmount, amount, currentInternal
-                );
-                plugin.pendingWithdraws.computeIfAbsent(uuid, k -> new ConcurrentLinkedQueue<>()).offer(tx);
-                if (plugin.pendingStore != null) plugin.pendingStore.save();
-                plugin.processWithdrawQueue(uuid);
+            VaultWithdrawTransaction tx = new VaultWithdrawTransaction(
+                    uuid, card, serverCard, Money.toCoins(amountUnits), amount, Money.toCoins(current[0])
+            );
+            plugin.queueWithdraw(tx);
+            if (plugin.pendingStore != null) plugin.pendingStore.put(tx);
+            if (netted) plugin.netSettlement.add(tx);
+            else plugin.processWithdraw(tx);
 
-                plugin.updateCooldown(uuid);
+            plugin.updateCooldown(uuid);
 
-                return new EconomyResponse(amount, 0.0, EconomyResponse.ResponseType.SUCCESS, null);
-            } finally {
-                lock.unlock();
-            }
+            return new EconomyResponse(amount, 0.0, EconomyResponse.ResponseType.SUCCESS, null);
         }
 
         @Override
@@ -2401,49 +4156,42 @@ public class CoinCardPlugin extends JavaPlugin {
                 return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Player has no card");
             }
 
-            ReentrantLock lock = plugin.getPlayerLock(uuid);
-            if (!lock.tryLock()) {
-                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Another transaction in progress");
+            long amountUnits = DecimalUtil.displayToUnits(amount);
+            double internalAmount = Money.toCoins(amountUnits);
+            String serverCard = plugin.getCoinConfig().getServerCard();
+            if (serverCard == null || serverCard.isEmpty()) {
+                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Server card not set");
+            }
+            if (!plugin.admitQueued(Lane.SETTLEMENT)) {
+                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, QUEUE_FULL);
             }
 
-            try {
-                double internalAmount = DecimalUtil.toInternal(amount);
-                String serverCard = plugin.getCoinConfig().getServerCard();
-                if (serverCard == null || serverCard.isEmpty()) {
-                    return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Server card not set");
-                }
-
-                // If withdraw pending, queue deposit but don't update cache now
-                if (plugin.withdrawPendingCards.contains(card)) {
-                    VaultDepositTransaction tx = new VaultDepositTransaction(
-                            uuid, card, serverCard, internalAmount, amount
-                    );
-                    plugin.pendingDeposits.offer(tx);
-                    if (plugin.pendingStore != null) plugin.pendingStore.save();
-                    plugin.processDepositQueue();
-                    plugin.updateCooldown(uuid);
-                    return new EconomyResponse(amount, 0.0, EconomyResponse.ResponseType.SUCCESS, null);
-                }
-
-                Double currentInternal = plugin.getBalanceCache().getLastBalance(card);
-                if (currentInternal == null) currentInternal = 0.0;
-                double newInternal = currentInternal + internalAmount;
-                plugin.getBalanceCache().setBalance(card, newInternal);
-
+            // If withdraw pending, queue deposit but don't update cache now
+            if (plugin.withdrawPendingCards.contains(card)) {
                 VaultDepositTransaction tx = new VaultDepositTransaction(
                         uuid, card, serverCard, internalAmount, amount
                 );
-                plugin.pendingDeposits.offer(tx);
-                if (plugin.pendingStore != null) plugin.pendingStore.save();
-                plugin.processDepositQueue();
-
+                plugin.queueDeposit(tx);
+                if (plugin.pendingStore != null) plugin.pendingStore.put(tx);
+                plugin.processDeposit(tx);
                 plugin.updateCooldown(uuid);
-
-                double newDisplay = DecimalUtil.toDisplay(newInternal);
-                return new EconomyResponse(amount, newDisplay, EconomyResponse.ResponseType.SUCCESS, null);
-            } finally {
-                lock.unlock();
+                return new EconomyResponse(amount, 0.0, EconomyResponse.ResponseType.SUCCESS, null);
             }
+
+            long newUnits = plugin.getBalanceCache().addAndGetUnits(card, amountUnits);
+
+            VaultDepositTransaction tx = new VaultDepositTransaction(
+                    uuid, card, serverCard, internalAmount, amount
+            );
+            plugin.queueDeposit(tx);
+            if (plugin.pendingStore != null) plugin.pendingStore.put(tx);
+            if (plugin.isNetSettlement()) plugin.netSettlement.add(tx);
+            else plugin.processDeposit(tx);
+
+            plugin.updateCooldown(uuid);
+
+            double newDisplay = DecimalUtil.unitsToDisplay(newUnits);
+            return new EconomyResponse(amount, newDisplay, EconomyResponse.ResponseType.SUCCESS, null);
         }
 
         @Override
@@ -2547,7 +4295,7 @@ public class CoinCardPlugin extends JavaPlugin {
         private final CoinCardPlugin plugin;
         private final UserStore users;
         private ApiClient api;
-        private AsyncQueueProcessor queue;
+        private PartitionedWorkerPool queue;
         private ConfigManager cfg;
         private BalanceCacheManager cache;
 
@@ -2557,7 +4305,7 @@ public class CoinCardPlugin extends JavaPlugin {
         private static final String AQUA = ChatColor.AQUA.toString();
 
         public PayCommand(CoinCardPlugin plugin, UserStore users, ApiClient api,
-                         AsyncQueueProcessor queue, ConfigManager cfg, BalanceCacheManager cache) {
+                         PartitionedWorkerPool queue, ConfigManager cfg, BalanceCacheManager cache) {
             this.plugin = plugin;
             this.users = users;
             this.api = api;
@@ -2567,7 +4315,7 @@ public class CoinCardPlugin extends JavaPlugin {
         }
 
         public void setApi(ApiClient api) { this.api = api; }
-        public void setQueue(AsyncQueueProcessor queue) { this.queue = queue; }
+        public void setQueue(PartitionedWorkerPool queue) { this.queue = queue; }
         public void setConfig(ConfigManager cfg) { this.cfg = cfg; }
 
         private String getCardByNick(String nick) {
@@ -2623,30 +4371,33 @@ public class CoinCardPlugin extends JavaPlugin {
                 p.sendMessage(RED + "Invalid amount.");
                 return true;
             }
-            final double fAmount = DecimalUtil.toInternal(fDisplayAmount);
+            final long fAmountUnits = DecimalUtil.displayToUnits(fDisplayAmount);
+            final double fAmount = Money.toCoins(fAmountUnits);
 
             final String fFromCard = fromCard;
             final String fToCard = toCard;
             final String fTargetName = args[0];
 
-            queue.enqueue(() -> {
-                ApiClient.CardTransferResult r = api.transferByCard(fFromCard, fToCard, fAmount);
-
+            if (!queue.admit(Lane.INTERACTIVE)) {
+                p.sendMessage(RED + QUEUE_FULL);
+                return true;
+            }
+            queue.enqueueAndAwait(fFromCard, Lane.INTERACTIVE, () -> api.transferByCardAsync(fFromCard, fToCard, fAmount).thenAccept(r -> {
                 plugin.getServer().getGlobalRegionScheduler().run(plugin, task -> {
                     if (r.success) {
-                        p.sendMessage(GREEN + "You sent " + YELLOW + DecimalUtil.formatDisplay(fAmount) +
+                        p.sendMessage(GREEN + "You sent " + YELLOW + DecimalUtil.formatUnits(fAmountUnits) +
                                 GREEN + " to " + YELLOW + fTargetName + GREEN +
                                 ". Transaction: " + AQUA + (r.txId != null ? r.txId : "-"));
 
                         Player onlineTarget = Bukkit.getPlayerExact(fTargetName);
                         if (onlineTarget != null && onlineTarget.isOnline()) {
-                            onlineTarget.sendMessage(GREEN + "You received " + YELLOW + DecimalUtil.formatDisplay(fAmount) +
+                            onlineTarget.sendMessage(GREEN + "You received " + YELLOW + DecimalUtil.formatUnits(fAmountUnits) +
                                     GREEN + " coins from " + YELLOW + p.getName() +
                                     GREEN + ". Transaction: " + AQUA + (r.txId != null ? r.txId : "-"));
                         }
 
-                        double newBal = cache.getBalanceOrDefault(fFromCard, 0) - fAmount;
-                        plugin.getHistoryStore().addEntry(p.getUniqueId(), "pay", fAmount, fTargetName, newBal);
+                        long newBal = cache.getUnits(fFromCard, 0L) - fAmountUnits;
+                        plugin.getHistoryStore().addEntry(p.getUniqueId(), "pay", fAmountUnits, fTargetName, newBal);
 
                         plugin.getLogger().info(p.getName() + " sent " + fAmount + " internal to " + fTargetName +
                                 " (offline=" + (onlineTarget == null) + ") tx=" + r.txId);
@@ -2655,7 +4406,7 @@ public class CoinCardPlugin extends JavaPlugin {
                         cache.removeBalance(fFromCard);
                     }
                 });
-            });
+            }));
 
             return true;
         }
@@ -2732,18 +4483,17 @@ public class CoinCardPlugin extends JavaPlugin {
                 return;
             }
 
-            Double cached = cache.getBalanceFast(card);
+            Double cached = cache.getBalanceRefreshing(card);
             if (cached != null) {
                 sender.sendMessage(GREEN + name + "'s balance: " + YELLOW + DecimalUtil.formatDisplay(cached));
                 return;
             }
 
             sender.sendMessage(GRAY + "Fetching balance...");
-            plugin.getAsyncExecutor().submit(() -> {
-                ApiClient.CardInfoResult result = api.getCardInfo(card);
+            api.getCardInfoAsync(card).thenAccept(result -> {
                 final double finalBalance = (result.success && result.coins != null) ? result.coins : 0.0;
                 if (result.success && result.coins != null) {
-                    cache.setBalance(card, result.coins);
+                    cache.setBankBalance(card, result.coins);
                 } else {
                     cache.removeBalance(card);
                 }
@@ -2884,15 +4634,19 @@ public class CoinCardPlugin extends JavaPlugin {
                     if (card == null || card.isEmpty()) continue;
 
                     boolean needsRefresh = false;
-                    CachedBalance cb = (CachedBalance) getCacheEntry(card);
-                    if (cb == null) {
+                    long cachedAt = cache.getTimestamp(card);
+                    if (cachedAt < 0) {
                         needsRefresh = true;
                     } else {
-                        long age = System.currentTimeMillis() - cb.timestamp;
+                        long age = System.currentTimeMillis() - cachedAt;
                         if (age > STALE_MS) needsRefresh = true;
                     }
 
                     if (needsRefresh) {
+                        if (plugin.shouldShedBackgroundWork()) {
+                            plugin.countShedWork(1);
+                            continue;
+                        }
                         api.getCardInfo(card);
                         try { Thread.sleep(100); } catch (InterruptedException e) { break; }
                     }
@@ -2900,17 +4654,6 @@ public class CoinCardPlugin extends JavaPlugin {
             });
         }
 
-        private Object getCacheEntry(String card) {
-            try {
-                java.lang.reflect.Field field = BalanceCacheManager.class.getDeclaredField("cache");
-                field.setAccessible(true);
-                Map<String, ?> map = (Map<String, ?>) field.get(cache);
-                return map.get(card);
-            } catch (Exception e) {
-                return null;
-            }
-        }
-
         private void displayBaltop(CommandSender sender, int page) {
             if (pageCache.isEmpty()) {
                 sender.sendMessage(GRAY + "Building balance top, please wait...");
@@ -3066,7 +4809,7 @@ public class CoinCardPlugin extends JavaPlugin {
         private final UserStore users;
         private Economy eco;
         private ApiClient api;
-        private AsyncQueueProcessor queue;
+        private PartitionedWorkerPool queue;
         private ConfigManager cfg;
         private BalanceCacheManager cache;
         private HistoryStore historyStore;
@@ -3079,7 +4822,7 @@ public class CoinCardPlugin extends JavaPlugin {
         private static final String WHITE = ChatColor.WHITE.toString();
 
         public CoinCommand(CoinCardPlugin plugin, UserStore users, ApiClient api,
-                          AsyncQueueProcessor queue, Economy eco, ConfigManager cfg,
+                          PartitionedWorkerPool queue, Economy eco, ConfigManager cfg,
                           BalanceCacheManager cache, HistoryStore historyStore) {
             this.plugin = plugin;
             this.users = users;
@@ -3092,7 +4835,7 @@ public class CoinCardPlugin extends JavaPlugin {
         }
 
         public void setApi(ApiClient api) { this.api = api; }
-        public void setQueue(AsyncQueueProcessor queue) { this.queue = queue; }
+        public void setQueue(PartitionedWorkerPool queue) { this.queue = queue; }
         public void setConfig(ConfigManager cfg) { this.cfg = cfg; }
 
         private String getCardByNick(String nick) {
@@ -3116,6 +4859,16 @@ public class CoinCardPlugin extends JavaPlugin {
                 if (s.hasPermission("coin.admin")) {
                     s.sendMessage(RED + "/coin reload " + GRAY + "- Reload configuration");
                     s.sendMessage(RED + "/coin server pay <player> <amount> " + GRAY + "- Pay using Server Card");
+                    s.sendMessage(RED + "/coin stats [reset] " + GRAY + "- Bank API latency and throughput");
+                    ApiClient.CircuitBreakers breakers = plugin.getCircuitBreakers();
+                    if (breakers != null) {
+                        s.sendMessage(GRAY + "Bank API:");
+                        for (CircuitBreaker breaker : breakers.all()) {
+                            String color = breaker.getState() == CircuitBreaker.State.CLOSED ? GREEN
+                                    : breaker.getState() == CircuitBreaker.State.OPEN ? RED : YELLOW;
+                            s.sendMessage(GRAY + " - " + color + breaker.describe());
+                        }
+                    }
                 }
                 s.sendMessage("");
                 s.sendMessage(GRAY + "Also available: " + YELLOW + "/pay, /balance, /bal, /baltop, /history");
@@ -3177,6 +4930,17 @@ public class CoinCardPlugin extends JavaPlugin {
                     s.sendMessage(RED + "Usage: " + YELLOW + "/coin server pay <player> <amount>");
                     return true;
 
+                case "stats":
+                    if (!s.hasPermission("coin.admin")) { s.sendMessage(RED + "No permission."); return true; }
+                    if (a.length >= 2 && a[1].equalsIgnoreCase("reset")) {
+                        plugin.getApiMetrics().reset();
+                        if (plugin.getQueueProcessor() != null) plugin.getQueueProcessor().resetStats();
+                        s.sendMessage(GREEN + "Bank API and queue statistics reset.");
+                        return true;
+                    }
+                    showStats(s);
+                    return true;
+
                 case "history":
                     if (a.length > 1) {
                         plugin.getCommand("history").execute(s, null, new String[]{a[1]});
@@ -3207,7 +4971,9 @@ public class CoinCardPlugin extends JavaPlugin {
 
         private void setCard(Player p, String card) {
             users.setNick(p.getUniqueId(), p.getName());
+            String previous = users.getCard(p.getUniqueId());
             users.setCard(p.getUniqueId(), card);
+            PresenceListener.cardChanged(plugin, p.getUniqueId(), previous, card);
             p.sendMessage(GREEN + "Card set to: " + YELLOW + card);
         }
 
@@ -3226,26 +4992,27 @@ public class CoinCardPlugin extends JavaPlugin {
             try { parsed = Double.parseDouble(amountStr); } catch (Exception e) { p.sendMessage(RED + "Invalid amount."); return; }
             final double fDisplayAmount = Math.max(0.0, parsed);
             if (fDisplayAmount <= 0) { p.sendMessage(RED + "Invalid amount."); return; }
-            final double fAmount = DecimalUtil.toInternal(fDisplayAmount);
+            final long fAmountUnits = DecimalUtil.displayToUnits(fDisplayAmount);
+            final double fAmount = Money.toCoins(fAmountUnits);
 
             final String fFromCard = fromCard, fToCard = toCard, fTargetName = targetName;
-            queue.enqueue(() -> {
-                ApiClient.CardTransferResult r = api.transferByCard(fFromCard, fToCard, fAmount);
+            if (!queue.admit(Lane.INTERACTIVE)) { p.sendMessage(RED + QUEUE_FULL); return; }
+            queue.enqueueAndAwait(fFromCard, Lane.INTERACTIVE, () -> api.transferByCardAsync(fFromCard, fToCard, fAmount).thenAccept(r -> {
                 plugin.getServer().getGlobalRegionScheduler().run(plugin, task -> {
                     if (r.success) {
-                        p.sendMessage(GREEN + "You sent " + YELLOW + DecimalUtil.formatDisplay(fAmount) + GREEN + " to " + YELLOW + fTargetName + GREEN + ". Transaction: " + AQUA + (r.txId != null ? r.txId : "-"));
+                        p.sendMessage(GREEN + "You sent " + YELLOW + DecimalUtil.formatUnits(fAmountUnits) + GREEN + " to " + YELLOW + fTargetName + GREEN + ". Transaction: " + AQUA + (r.txId != null ? r.txId : "-"));
                         Player onlineTarget = Bukkit.getPlayerExact(fTargetName);
                         if (onlineTarget != null && onlineTarget.isOnline())
-                            onlineTarget.sendMessage(GREEN + "You received " + YELLOW + DecimalUtil.formatDisplay(fAmount) + GREEN + " coins from " + YELLOW + p.getName() + GREEN + ". Transaction: " + AQUA + (r.txId != null ? r.txId : "-"));
-                        double newBal = cache.getBalanceOrDefault(fFromCard, 0) - fAmount;
-                        historyStore.addEntry(p.getUniqueId(), "pay", fAmount, fTargetName, newBal);
+                            onlineTarget.sendMessage(GREEN + "You received " + YELLOW + DecimalUtil.formatUnits(fAmountUnits) + GREEN + " coins from " + YELLOW + p.getName() + GREEN + ". Transaction: " + AQUA + (r.txId != null ? r.txId : "-"));
+                        long newBal = cache.getUnits(fFromCard, 0L) - fAmountUnits;
+                        historyStore.addEntry(p.getUniqueId(), "pay", fAmountUnits, fTargetName, newBal);
                         plugin.getLogger().info(p.getName() + " sent " + fAmount + " internal to " + fTargetName + " (offline=" + (onlineTarget == null) + ") tx=" + r.txId);
                     } else {
                         p.sendMessage(RED + "Transaction failed. Invalid card or insufficient funds.");
                         cache.removeBalance(fFromCard);
                     }
                 });
-            });
+            }));
         }
 
         private void buyCoinsToVault(Player p, String coinsStr) {
@@ -3257,7 +5024,8 @@ public class CoinCardPlugin extends JavaPlugin {
             try { parsedDisplay = Double.parseDouble(coinsStr); } catch (Exception e) { p.sendMessage(RED + "Invalid amount."); return; }
             final double fDisplayCoins = Math.max(0.0, parsedDisplay);
             if (fDisplayCoins <= 0) { p.sendMessage(RED + "Invalid amount."); return; }
-            final double fInternalCoins = DecimalUtil.toInternal(fDisplayCoins);
+            final long fCoinUnits = DecimalUtil.displayToUnits(fDisplayCoins);
+            final double fInternalCoins = Money.toCoins(fCoinUnits);
             final double fVaultToPay = DecimalUtil.truncate(fInternalCoins * cfg.getBuyVaultPerCoin(), 4);
 
             OfflinePlayer serverAcc = plugin.getServerVaultAccount();
@@ -3265,19 +5033,21 @@ public class CoinCardPlugin extends JavaPlugin {
             if (eco.getBalance(serverAcc) < fVaultToPay) { p.sendMessage(RED + "Failed: insufficient server balance."); return; }
 
             final String fFromCard = fromCard, fServerCard = serverCard;
-            queue.enqueue(() -> {
-                ApiClient.CardTransferResult r = api.transferByCard(fFromCard, fServerCard, fInternalCoins);
+            if (!queue.admit(Lane.INTERACTIVE)) { p.sendMessage(RED + QUEUE_FULL); return; }
+            queue.enqueueAndAwait(fFromCard, Lane.INTERACTIVE, () -> api.transferByCardAsync(fFromCard, fServerCard, fInternalCoins).thenAccept(r -> {
                 plugin.getServer().getGlobalRegionScheduler().run(plugin, task -> {
                     if (!r.success) { p.sendMessage(RED + "Failed: Invalid card or insufficient coin balance."); return; }
-                    eco.withdrawPlayer(serverAcc, fVaultToPay);
-                    eco.depositPlayer(p, fVaultToPay);
                     String tx = (r.txId != null ? r.txId : "-");
-                    double newBal = cache.getBalanceOrDefault(fFromCard, 0) - fInternalCoins;
-                    historyStore.addEntry(p.getUniqueId(), "buy", fInternalCoins, "Vault", newBal);
-                    p.sendMessage(GREEN + "Bought " + YELLOW + DecimalUtil.formatDisplay(fInternalCoins) + GREEN + " coins for " + YELLOW + DecimalUtil.formatFull(fVaultToPay) + GREEN + " vault. Transaction: " + AQUA + tx);
+                    plugin.runAdmitted(() -> {
+                        vaultStep("BUY", p, tx, eco.withdrawPlayer(serverAcc, fVaultToPay));
+                        vaultStep("BUY", p, tx, eco.depositPlayer(p, fVaultToPay));
+                    });
+                    long newBal = cache.getUnits(fFromCard, 0L) - fCoinUnits;
+                    historyStore.addEntry(p.getUniqueId(), "buy", fCoinUnits, "Vault", newBal);
+                    p.sendMessage(GREEN + "Bought " + YELLOW + DecimalUtil.formatUnits(fCoinUnits) + GREEN + " coins for " + YELLOW + DecimalUtil.formatFull(fVaultToPay) + GREEN + " vault. Transaction: " + AQUA + tx);
                     plugin.getLogger().info("BUY " + p.getName() + " internalCoins=" + fInternalCoins + " vault=" + fVaultToPay + " tx=" + tx);
                 });
-            });
+            }));
         }
 
         private void sellVaultToCoins(Player p, String vaultStr) {
@@ -3291,23 +5061,109 @@ public class CoinCardPlugin extends JavaPlugin {
             if (fVault <= 0) { p.sendMessage(RED + "Invalid amount."); return; }
             if (eco.getBalance(p) < fVault) { p.sendMessage(RED + "You don't have enough vault."); return; }
 
-            final double fInternalCoins = DecimalUtil.truncate(fVault * cfg.getSellCoinsPerVault(), 8);
+            final long fCoinUnits = Money.toUnits(fVault * cfg.getSellCoinsPerVault());
+            final double fInternalCoins = Money.toCoins(fCoinUnits);
             final String fToCard = toCard, fServerCard = serverCard;
-            queue.enqueue(() -> {
-                ApiClient.CardTransferResult r = api.transferByCard(fServerCard, fToCard, fInternalCoins);
+            if (!queue.admit(Lane.INTERACTIVE)) { p.sendMessage(RED + QUEUE_FULL); return; }
+            queue.enqueueAndAwait(fToCard, Lane.INTERACTIVE, () -> api.transferByCardAsync(fServerCard, fToCard, fInternalCoins).thenAccept(r -> {
                 plugin.getServer().getGlobalRegionScheduler().run(plugin, task -> {
                     if (!r.success) { p.sendMessage(RED + "Failed: Server card invalid or insufficient funds."); return; }
-                    eco.withdrawPlayer(p, fVault);
-                    OfflinePlayer serverAcc = plugin.getServerVaultAccount();
-                    if (serverAcc != null) eco.depositPlayer(serverAcc, fVault);
                     String tx = (r.txId != null ? r.txId : "-");
-                    double newBal = cache.getBalanceOrDefault(fToCard, 0) + fInternalCoins;
-                    historyStore.addEntry(p.getUniqueId(), "sell", fInternalCoins, "Vault", newBal);
-                    p.sendMessage(GREEN + "Sold " + YELLOW + DecimalUtil.formatFull(fVault) + GREEN + " vault for " + YELLOW + DecimalUtil.formatDisplay(fInternalCoins) + GREEN + " coins. Transaction: " + AQUA + tx);
-                    if (p.isOnline()) p.sendMessage(GREEN + "You received " + YELLOW + DecimalUtil.formatDisplay(fInternalCoins) + GREEN + " coins from server. Transaction: " + AQUA + tx);
+                    OfflinePlayer serverAcc = plugin.getServerVaultAccount();
+                    plugin.runAdmitted(() -> {
+                        vaultStep("SELL", p, tx, eco.withdrawPlayer(p, fVault));
+                        if (serverAcc != null) vaultStep("SELL", p, tx, eco.depositPlayer(serverAcc, fVault));
+                    });
+                    long newBal = cache.getUnits(fToCard, 0L) + fCoinUnits;
+                    historyStore.addEntry(p.getUniqueId(), "sell", fCoinUnits, "Vault", newBal);
+                    p.sendMessage(GREEN + "Sold " + YELLOW + DecimalUtil.formatFull(fVault) + GREEN + " vault for " + YELLOW + DecimalUtil.formatUnits(fCoinUnits) + GREEN + " coins. Transaction: " + AQUA + tx);
+                    if (p.isOnline()) p.sendMessage(GREEN + "You received " + YELLOW + DecimalUtil.formatUnits(fCoinUnits) + GREEN + " coins from server. Transaction: " + AQUA + tx);
                     plugin.getLogger().info("SELL " + p.getName() + " vault=" + fVault + " internalCoins=" + fInternalCoins + " tx=" + tx);
                 });
-            });
+            }));
+        }
+
+        /** The bank side of the trade is done by now; a Vault step that fails needs an admin to fix by hand. */
+        private void vaultStep(String trade, Player p, String tx, EconomyResponse response) {
+            if (response == null || response.transactionSuccess()) return;
+            plugin.getLogger().severe(trade + " " + p.getName() + " tx=" + tx + ": coins moved but the vault step failed: "
+                    + response.errorMessage);
+        }
+
+        private void showStats(CommandSender s) {
+            BalanceEventStream events = plugin.getBalanceEvents();
+            if (events != null) {
+                s.sendMessage(YELLOW + "Balance events" + GRAY + ": " + (events.isConnected()
+                        ? GREEN + "connected" + GRAY + " (" + events.getSubscribedCount() + " cards)"
+                        : RED + "disconnected" + GRAY + " (polling)")
+                        + ", " + events.getEventsReceived() + " events, " + events.getConnects() + " connects");
+            }
+            s.sendMessage(YELLOW + "Balance cache" + GRAY + ": " + cache.hotSize() + " hot (online), " + cache.size()
+                    + " in memory, " + cache.storedSize() + " in balances.dat, " + cache.getEvictionCount() + " evictions");
+            if (plugin.getAsyncExecutor() instanceof BlockingIoExecutor) {
+                BlockingIoExecutor async = (BlockingIoExecutor) plugin.getAsyncExecutor();
+                s.sendMessage(YELLOW + "Background tasks" + GRAY + ": " + async.getRunning() + "/" + async.getMaxConcurrent()
+                        + " running, " + async.getWaiting() + " waiting (" + (async.isVirtual() ? "virtual threads" : "thread pool") + ")");
+            }
+            NetSettlement net = plugin.getNetSettlement();
+            if (net != null && (net.getTransactionsSettled() > 0 || cfg.isNetSettlementEnabled())) {
+                s.sendMessage(YELLOW + "Net settlement" + GRAY + ": " + net.getTransactionsSettled() + " vault transactions in "
+                        + net.getTransfersSent() + " bank transfers, " + net.getOpenCount() + " cards collecting");
+            }
+            PendingTransactionStore pending = plugin.pendingStore;
+            if (pending != null) {
+                WriteAheadLog wal = pending.getLog();
+                s.sendMessage(YELLOW + "Pending log" + GRAY + ": " + pending.size() + " transactions, "
+                        + wal.getSize() / 1024 + " KB, " + wal.getRecordsWritten() + " records in " + wal.getCommits()
+                        + " commits, " + wal.getCompactions() + " compactions");
+            }
+            PartitionedWorkerPool workers = plugin.getQueueProcessor();
+            if (workers != null) {
+                s.sendMessage(YELLOW + "Queue" + GRAY + ": " + workers.getWorkerCount() + " workers, "
+                        + workers.getQueuedCount() + " tasks waiting, " + workers.getShedCount() + " background jobs shed");
+                CardMailboxes boxes = plugin.mailboxes;
+                if (boxes != null) {
+                    s.sendMessage(GRAY + "  vault: " + boxes.getQueuedCount() + " transactions on "
+                            + boxes.getCardCount() + " cards, " + boxes.getParkedCount() + " cards backing off");
+                }
+                for (Lane lane : Lane.values()) {
+                    PartitionedWorkerPool.LaneStats ls = workers.getLaneStats(lane);
+                    LatencyHistogram w = ls.getWait();
+                    int high = workers.getHighWatermark(lane);
+                    s.sendMessage(GRAY + "  " + lane.name().toLowerCase(Locale.ROOT) + " (weight " + workers.getWeight(lane)
+                            + (high > 0 ? ", limit " + high + "/" + workers.getLowWatermark(lane) : "") + "): "
+                            + (ls.isSaturated() ? RED + "FULL " + GRAY : "") + ls.getDepth() + " queued, "
+                            + ls.getHeld() + " held, "
+                            + ls.getCompleted() + " done, " + ls.getRejected() + " refused, wait"
+                            + "  p50 " + EndpointMetrics.millis(w.getPercentileMicros(0.50))
+                            + "  p99 " + EndpointMetrics.millis(w.getPercentileMicros(0.99))
+                            + "  max " + EndpointMetrics.millis(w.getMaxMicros()));
+                }
+            }
+            s.sendMessage(YELLOW + "Bank API " + GRAY + "(latency in ms since start or last reset)");
+            for (EndpointMetrics m : plugin.getApiMetrics().all()) {
+                if (m.getTotalCount() == 0 && m.getShortCircuited() == 0) {
+                    s.sendMessage(YELLOW + m.getName() + GRAY + ": no calls");
+                    continue;
+                }
+                s.sendMessage(YELLOW + m.getName() + GRAY + String.format(": %.1f/s (1m %.1f/s), %d calls, limiter wait p99 %s",
+                        m.getRate(10), m.getRate(60), m.getTotalCount(),
+                        EndpointMetrics.millis(m.getRateLimitWait().getPercentileMicros(0.99))));
+                for (EndpointMetrics.Outcome outcome : EndpointMetrics.Outcome.values()) {
+                    LatencyHistogram h = m.getLatency(outcome);
+                    if (h.getCount() == 0) continue;
+                    String color = outcome == EndpointMetrics.Outcome.SUCCESS ? GREEN
+                            : outcome == EndpointMetrics.Outcome.BUSINESS_FAILURE ? YELLOW : RED;
+                    s.sendMessage(GRAY + "  " + color + outcome.name().toLowerCase(Locale.ROOT) + GRAY + " " + h.getCount()
+                            + "  p50 " + EndpointMetrics.millis(h.getPercentileMicros(0.50))
+                            + "  p90 " + EndpointMetrics.millis(h.getPercentileMicros(0.90))
+                            + "  p99 " + EndpointMetrics.millis(h.getPercentileMicros(0.99))
+                            + "  max " + EndpointMetrics.millis(h.getMaxMicros()));
+                }
+                if (m.getShortCircuited() > 0) {
+                    s.sendMessage(GRAY + "  " + RED + "short-circuited " + GRAY + m.getShortCircuited() + " (circuit open)");
+                }
+            }
         }
 
         private void serverPay(CommandSender s, String targetName, String amountStr) {
@@ -3319,29 +5175,30 @@ public class CoinCardPlugin extends JavaPlugin {
             try { parsed = Double.parseDouble(amountStr); } catch (Exception e) { s.sendMessage(RED + "Invalid amount."); return; }
             final double fDisplayAmount = Math.max(0.0, parsed);
             if (fDisplayAmount <= 0) { s.sendMessage(RED + "Invalid amount."); return; }
-            final double fAmount = DecimalUtil.toInternal(fDisplayAmount);
+            final long fAmountUnits = DecimalUtil.displayToUnits(fDisplayAmount);
+            final double fAmount = Money.toCoins(fAmountUnits);
 
             final String fServerCard = serverCard, fToCard = toCard, fTargetName = targetName;
-            queue.enqueue(() -> {
-                ApiClient.CardTransferResult r = api.transferByCard(fServerCard, fToCard, fAmount);
+            if (!queue.admit(Lane.INTERACTIVE)) { s.sendMessage(RED + QUEUE_FULL); return; }
+            queue.enqueueAndAwait(fToCard, Lane.INTERACTIVE, () -> api.transferByCardAsync(fServerCard, fToCard, fAmount).thenAccept(r -> {
                 plugin.getServer().getGlobalRegionScheduler().run(plugin, task -> {
                     if (r.success) {
                         String tx = (r.txId != null ? r.txId : "-");
-                        s.sendMessage(GREEN + "Server sent " + YELLOW + DecimalUtil.formatDisplay(fAmount) + GREEN + " to " + YELLOW + fTargetName + GREEN + ". Transaction: " + AQUA + tx);
+                        s.sendMessage(GREEN + "Server sent " + YELLOW + DecimalUtil.formatUnits(fAmountUnits) + GREEN + " to " + YELLOW + fTargetName + GREEN + ". Transaction: " + AQUA + tx);
                         Player onlineTarget = Bukkit.getPlayerExact(fTargetName);
                         if (onlineTarget != null && onlineTarget.isOnline())
-                            onlineTarget.sendMessage(GREEN + "You received " + YELLOW + DecimalUtil.formatDisplay(fAmount) + GREEN + " coins from server. Transaction: " + AQUA + tx);
+                            onlineTarget.sendMessage(GREEN + "You received " + YELLOW + DecimalUtil.formatUnits(fAmountUnits) + GREEN + " coins from server. Transaction: " + AQUA + tx);
                         UUID targetUUID = users.findUUIDByNick(fTargetName);
                         if (targetUUID != null) {
-                            double newBal = cache.getBalanceOrDefault(fToCard, 0) + fAmount;
-                            historyStore.addEntry(targetUUID, "deposit", fAmount, "Server", newBal);
+                            long newBal = cache.getUnits(fToCard, 0L) + fAmountUnits;
+                            historyStore.addEntry(targetUUID, "deposit", fAmountUnits, "Server", newBal);
                         }
                         plugin.getLogger().info("SERVER PAY to " + fTargetName + " (offline=" + (onlineTarget == null) + ") internalAmount=" + fAmount + " tx=" + tx);
                     } else {
                         s.sendMessage(RED + "Failed: Server card invalid or insufficient funds.");
                     }
                 });
-            });
+            }));
         }
 
         @Override
@@ -3349,7 +5206,7 @@ public class CoinCardPlugin extends JavaPlugin {
             List<String> out = new ArrayList<>();
             if (a.length == 1) {
                 out.addAll(Arrays.asList("card", "pay", "buy", "sell", "balance", "bal", "baltop", "history"));
-                if (s.hasPermission("coin.admin")) out.addAll(Arrays.asList("reload", "server"));
+                if (s.hasPermission("coin.admin")) out.addAll(Arrays.asList("reload", "server", "stats"));
                 return filter(out, a[0]);
             }
             if (a.length == 2) {
@@ -3375,10 +5232,4 @@ public class CoinCardPlugin extends JavaPlugin {
             return base.stream().filter(s -> s.toLowerCase(Locale.ROOT).startsWith(t)).collect(Collectors.toList());
         }
     }
-
-    // ==================== CachedBalance (usado internamente) ====================
-    private static class CachedBalance {
-        double balance;
-        long timestamp;
-    }
 }
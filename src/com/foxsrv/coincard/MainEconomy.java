@@ -1,5 +1,7 @@
 package com.foxsrv.coincard;
 
+import com.foxsrv.coincard.core.Money;
+import com.foxsrv.coincard.core.PartitionedWorkerPool.Lane;
 import net.milkbowl.vault.economy.Economy;
 import net.milkbowl.vault.economy.EconomyResponse;
 import org.bukkit.Bukkit;
@@ -7,7 +9,6 @@ import org.bukkit.OfflinePlayer;
 
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * MainEconomy – Main Vault economy implementation (Main: true).
@@ -15,9 +16,10 @@ import java.util.concurrent.locks.ReentrantLock;
  * Features:
  * - Immediate return to Vault (non-blocking), cache updated instantly.
  * - Transactions queued and processed in background with infinite retry.
- * - Pending transactions persisted in pending.yml (managed by the plugin).
+ * - Pending transactions persisted in pending.wal (managed by the plugin).
  * - If a withdrawal fails due to INSUFFICIENT_FUNDS, CoinCardPlugin forces transfer of the remainder.
- * - Player lock, cooldown and busy state for atomicity.
+ * - Busy state and cooldown allow one transaction per player at a time; the cache is updated with
+ *   compare-and-set, so no concurrent write to the same card is lost.
  * - Notification via completeFuture to release busy state and update balance.
  * - Uses a txId map to reliably locate transaction info even after queue removal.
  * - Fully compatible with Folia.
@@ -124,8 +126,7 @@ public String getName() {
             return 0.0;
         }
 
-        Double internalBal = plugin.getBalanceCache().getBalanceFast(card);
-        return CoinCardPlugin.DecimalUtil.toDisplay(internalBal != null ? internalBal : 0.0);
+        return CoinCardPlugin.DecimalUtil.unitsToDisplay(plugin.getBalanceCache().getUnitsFast(card, 0L));
     }
 
     @Override
@@ -183,59 +184,58 @@ public String getName() {
             return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Player has no card");
         }
 
-        ReentrantLock lock = plugin.getPlayerLock(uuid);
-        if (!lock.tryLock()) {
-            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Another transaction in progress");
+        if (plugin.withdrawPendingCards.contains(card)) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Withdraw already pending");
+        }
+        if (!plugin.admitQueued(Lane.SETTLEMENT)) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, CoinCardPlugin.QUEUE_FULL);
+        }
+        if (!claimPlayer(card, uuid)) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Operation on cooldown");
         }
 
-        try {
-            // Atomic checks inside lock
-            if (isPlayerBusy(card, uuid)) {
-                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Operation on cooldown");
-            }
-            if (plugin.withdrawPendingCards.contains(card)) {
-                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Withdraw already pending");
-            }
-
-            double internalAmount = CoinCardPlugin.DecimalUtil.toInternal(amount);
-            Double currentInternal = plugin.getBalanceCache().getBalanceFast(card);
-            if (currentInternal == null) currentInternal = 0.0;
-            double currentDisplay = CoinCardPlugin.DecimalUtil.toDisplay(currentInternal);
+        String serverCard = plugin.getCoinConfig().getServerCard();
+        if (serverCard == null || serverCard.isEmpty()) {
+            busyPlayers.remove(uuid);
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Server card not set");
+        }
 
+        // Subtract from cache instantly (available balance), unless the card changed in between
+        long amountUnits = CoinCardPlugin.DecimalUtil.displayToUnits(amount);
+        CoinCardPlugin.BalanceCacheManager cache = plugin.getBalanceCache();
+        long[] current = new long[2];
+        long newUnits;
+        do {
+            cache.readVersioned(card, current);
+            double currentDisplay = CoinCardPlugin.DecimalUtil.unitsToDisplay(current[0]);
             if (currentDisplay < amount) {
+                busyPlayers.remove(uuid);
                 return new EconomyResponse(0, currentDisplay, EconomyResponse.ResponseType.FAILURE, "Insufficient funds");
             }
-
-            String serverCard = plugin.getCoinConfig().getServerCard();
-            if (serverCard == null || serverCard.isEmpty()) {
-                return new EconomyResponse(0, currentDisplay, EconomyResponse.ResponseType.FAILURE, "Server card not set");
-            }
-
-            // Mark as busy and update cooldown
-            busyPlayers.add(uuid);
-            plugin.updateCooldown(uuid);
-
-            // Subtract from cache instantly (available balance)
-            double newInternal = currentInternal - internalAmount;
-            plugin.getBalanceCache().setBalance(card, newInternal);
-            plugin.withdrawPendingCards.add(card);
-
-            // Create transaction and queue it
-            CoinCardPlugin.VaultWithdrawTransaction tx = new CoinCardPlugin.VaultWithdrawTransaction(
-                    uuid, card, serverCard, internalAmount, amount, currentInternal
-            );
-            pendingTxInfo.put(tx.txId, new TransactionInfo(uuid, card, true));
-            plugin.pendingWithdraws.computeIfAbsent(uuid, k -> new ConcurrentLinkedQueue<>()).offer(tx);
-            if (plugin.pendingStore != null) plugin.pendingStore.save();
-            plugin.processWithdrawQueue(uuid);
-
-            // Return SUCCESS immediately (transaction will be processed in background)
-            double newDisplay = CoinCardPlugin.DecimalUtil.toDisplay(newInternal);
-            return new EconomyResponse(amount, newDisplay, EconomyResponse.ResponseType.SUCCESS, null);
-
-        } finally {
-            lock.unlock();
+            newUnits = current[0] - amountUnits;
+        } while (!cache.compareAndSetUnits(card, current[1], newUnits));
+
+        plugin.updateCooldown(uuid);
+        boolean netted = plugin.isNetSettlement();
+        if (!netted) plugin.withdrawPendingCards.add(card);
+
+        // Create transaction and queue it
+        CoinCardPlugin.VaultWithdrawTransaction tx = new CoinCardPlugin.VaultWithdrawTransaction(
+                uuid, card, serverCard, Money.toCoins(amountUnits), amount, Money.toCoins(current[0])
+        );
+        pendingTxInfo.put(tx.txId, new TransactionInfo(uuid, card, true));
+        plugin.queueWithdraw(tx);
+        if (plugin.pendingStore != null) plugin.pendingStore.put(tx);
+        if (netted) {
+            plugin.getNetSettlement().add(tx);
+            busyPlayers.remove(uuid); // the cache already holds the debit; the batch settles it later
+        } else {
+            plugin.processWithdraw(tx);
         }
+
+        // Return SUCCESS immediately (transaction will be processed in background)
+        double newDisplay = CoinCardPlugin.DecimalUtil.unitsToDisplay(newUnits);
+        return new EconomyResponse(amount, newDisplay, EconomyResponse.ResponseType.SUCCESS, null);
     }
 
     @Override
@@ -271,54 +271,46 @@ public String getName() {
             return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Player has no card");
         }
 
-        ReentrantLock lock = plugin.getPlayerLock(uuid);
-        if (!lock.tryLock()) {
-            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Another transaction in progress");
+        if (!plugin.admitQueued(Lane.SETTLEMENT)) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, CoinCardPlugin.QUEUE_FULL);
         }
+        if (!claimPlayer(card, uuid)) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Operation on cooldown");
+        }
+        plugin.updateCooldown(uuid);
 
-        try {
-            if (isPlayerBusy(card, uuid)) {
-                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Operation on cooldown");
-            }
-
-            busyPlayers.add(uuid);
-            plugin.updateCooldown(uuid);
-
-            double internalAmount = CoinCardPlugin.DecimalUtil.toInternal(amount);
-            String serverCard = plugin.getCoinConfig().getServerCard();
-            if (serverCard == null || serverCard.isEmpty()) {
-                busyPlayers.remove(uuid);
-                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Server card not set");
-            }
-
-            if (plugin.withdrawPendingCards.contains(card)) {
-                busyPlayers.remove(uuid);
-                return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE,
-                        "Cannot deposit while withdraw is pending");
-            }
-
-            Double currentInternal = plugin.getBalanceCache().getBalanceFast(card);
-            if (currentInternal == null) currentInternal = 0.0;
-            double newInternal = currentInternal + internalAmount;
-
-            // Add to cache instantly
-            plugin.getBalanceCache().setBalance(card, newInternal);
-
-            // Create deposit transaction and queue it
-            CoinCardPlugin.VaultDepositTransaction tx = new CoinCardPlugin.VaultDepositTransaction(
-                    uuid, card, serverCard, internalAmount, amount
-            );
-            pendingTxInfo.put(tx.txId, new TransactionInfo(uuid, card, false));
-            plugin.pendingDeposits.offer(tx);
-            if (plugin.pendingStore != null) plugin.pendingStore.save();
-            plugin.processDepositQueue();
+        long amountUnits = CoinCardPlugin.DecimalUtil.displayToUnits(amount);
+        String serverCard = plugin.getCoinConfig().getServerCard();
+        if (serverCard == null || serverCard.isEmpty()) {
+            busyPlayers.remove(uuid);
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Server card not set");
+        }
 
-            double newDisplay = CoinCardPlugin.DecimalUtil.toDisplay(newInternal);
-            return new EconomyResponse(amount, newDisplay, EconomyResponse.ResponseType.SUCCESS, null);
+        if (plugin.withdrawPendingCards.contains(card)) {
+            busyPlayers.remove(uuid);
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE,
+                    "Cannot deposit while withdraw is pending");
+        }
 
-        } finally {
-            lock.unlock();
+        // Add to cache instantly
+        long newUnits = plugin.getBalanceCache().addAndGetUnits(card, amountUnits);
+
+        // Create deposit transaction and queue it
+        CoinCardPlugin.VaultDepositTransaction tx = new CoinCardPlugin.VaultDepositTransaction(
+                uuid, card, serverCard, Money.toCoins(amountUnits), amount
+        );
+        pendingTxInfo.put(tx.txId, new TransactionInfo(uuid, card, false));
+        plugin.queueDeposit(tx);
+        if (plugin.pendingStore != null) plugin.pendingStore.put(tx);
+        if (plugin.isNetSettlement()) {
+            plugin.getNetSettlement().add(tx);
+            busyPlayers.remove(uuid);
+        } else {
+            plugin.processDeposit(tx);
         }
+
+        double newDisplay = CoinCardPlugin.DecimalUtil.unitsToDisplay(newUnits);
+        return new EconomyResponse(amount, newDisplay, EconomyResponse.ResponseType.SUCCESS, null);
     }
 
     @Override
@@ -347,10 +339,11 @@ public String getName() {
         }
 
         if (result.success) {
-            // Sync balance with API
+            // Sync balance with API (unless the card changed while the lookup was out)
+            long version = plugin.getBalanceCache().getVersion(info.card);
             CoinCardPlugin.ApiClient.CardInfoResult balance = plugin.getApiClient().getCardInfo(info.card);
             if (balance.success && balance.coins != null) {
-                plugin.getBalanceCache().setBalance(info.card, balance.coins);
+                plugin.getBalanceCache().setBankBalance(info.card, version, balance.coins);
                 plugin.getLogger().info("Transaction completed for " + info.uuid + " (" + info.card + "). New balance: " + balance.coins);
             } else {
                 plugin.getLogger().warning("Could not fetch updated balance for " + info.uuid + " (" + info.card + ") after transaction.");
@@ -360,8 +353,40 @@ public String getName() {
         }
     }
 
+    /**
+     * Completion of a net settlement batch: releases its members like {@link #completeFuture},
+     * but syncs each card's balance once, and only if the card has no other vault transaction the
+     * bank has not confirmed (the bank balance would not include it yet).
+     */
+    public void completeBatch(Collection<String> txIds, CoinCardPlugin.ApiClient.CardTransferResult result) {
+        Set<String> cards = new HashSet<>();
+        for (String txId : txIds) {
+            TransactionInfo info = pendingTxInfo.remove(txId);
+            if (info == null) continue; // replayed from pending.wal after a restart
+            busyPlayers.remove(info.uuid);
+            cards.add(info.card);
+        }
+        for (String card : cards) {
+            if (plugin.hasUnconfirmedVault(card)) continue;
+            long version = plugin.getBalanceCache().getVersion(card);
+            CoinCardPlugin.ApiClient.CardInfoResult balance = plugin.getApiClient().getCardInfo(card);
+            if (balance.success && balance.coins != null) {
+                plugin.getBalanceCache().setBankBalance(card, version, balance.coins);
+            }
+        }
+    }
+
     // ==================== HELPER ====================
 
+    /**
+     * Marks the player busy unless they already are (or are on cooldown). The add is atomic, so
+     * of two transactions racing for one player exactly one gets through.
+     */
+    private boolean claimPlayer(String card, UUID uuid) {
+        if (plugin.withdrawPendingCards.contains(card) || plugin.isOnCooldown(uuid)) return false;
+        return busyPlayers.add(uuid);
+    }
+
     private boolean isPlayerBusy(String card, UUID uuid) {
         return plugin.withdrawPendingCards.contains(card) ||
                busyPlayers.contains(uuid) ||
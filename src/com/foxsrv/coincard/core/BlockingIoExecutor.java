@@ -0,0 +1,159 @@
+package com.foxsrv.coincard.core;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor for background work that spends its time waiting on the bank (balance lookups,
+ * baltop and auto-claim cycles) or on the disk, with at most {@code maxConcurrent} tasks running.
+ * <p>
+ * On JDK 21+ every task gets its own virtual thread, and a semaphore keeps all but
+ * {@code maxConcurrent} of them parked before they start: a slow bank then costs parked virtual
+ * threads, not one platform thread per waiting lookup. On older JDKs (or with virtual threads
+ * switched off) it is a pool of at most {@code maxConcurrent} platform threads over an unbounded
+ * queue. Virtual threads are reached through reflection, so the plugin still builds for and runs
+ * on Java 17.
+ */
+public class BlockingIoExecutor extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+    private final Semaphore permits; // null for the platform pool, whose size is the limit
+    private final boolean virtual;
+    private final int maxConcurrent;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private BlockingIoExecutor(ExecutorService delegate, boolean virtual, int maxConcurrent) {
+        this.delegate = delegate;
+        this.virtual = virtual;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = virtual ? new Semaphore(maxConcurrent) : null;
+    }
+
+    /**
+     * @param preferVirtual use virtual threads if this JDK has them
+     * @param maxConcurrent tasks allowed to run at once
+     */
+    public static BlockingIoExecutor create(String name, boolean preferVirtual, int maxConcurrent) {
+        int max = Math.max(1, maxConcurrent);
+        if (preferVirtual) {
+            ThreadFactory factory = virtualThreadFactory(name + "-");
+            ExecutorService perTask = factory != null ? threadPerTaskExecutor(factory) : null;
+            if (perTask != null) return new BlockingIoExecutor(perTask, true, max);
+        }
+        AtomicInteger ids = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(max, max, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, name + "-" + ids.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return new BlockingIoExecutor(pool, false, max);
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getRunning() {
+        return running.get();
+    }
+
+    /** Tasks submitted and not started yet. */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) throw new NullPointerException();
+        waiting.incrementAndGet();
+        try {
+            delegate.execute(() -> run(task));
+        } catch (RuntimeException e) {
+            waiting.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private void run(Runnable task) {
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                waiting.decrementAndGet(); // shutdownNow() while parked: the task never starts
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        waiting.decrementAndGet();
+        running.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            running.decrementAndGet();
+            if (permits != null) permits.release();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    /** {@code Thread.ofVirtual().name(prefix, 0).factory()}, or null before JDK 21. */
+    private static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) ofVirtual.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return null; // not there, or a preview feature this JVM was not started with
+        }
+    }
+
+    /** {@code Executors.newThreadPerTaskExecutor(factory)}, or null before JDK 21. */
+    private static ExecutorService threadPerTaskExecutor(ThreadFactory factory) {
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package com.foxsrv.coincard.core;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Open-addressing map from a card code packed into a long (see {@link #pack(String)}) to a
+ * balance in {@link Money} units (1e-8 coin), the time it was stored and a version, kept in
+ * parallel primitive arrays.
+ * <p>
+ * Card codes are 12 lowercase hex digits, i.e. 48 bits, so a key is the code itself: no String,
+ * no entry object and no boxed number per card. Slots are found by linear probing from a mixed
+ * hash of the key, with the table kept at most 70% full; removals leave tombstones that are
+ * dropped on the next rehash.
+ * <p>
+ * Lookups are optimistic reads of a {@link StampedLock} and neither lock nor allocate; they are
+ * retried under the read lock only if a write raced with them. Writes take the write lock.
+ * <p>
+ * Every write gives the entry a new version from a counter that never repeats, so
+ * {@link #compareAndSet} detects any change since {@link #getVersioned} read the entry, even a
+ * removal and re-insertion of the same balance. {@link #addAndGet} applies a delta atomically.
+ */
+public class CardBalanceMap {
+
+    public interface Visitor {
+        void accept(long key, long units, long timestamp);
+    }
+
+    /** Returned by {@link #pack(String)} for codes that are not 12 lowercase hex digits. */
+    public static final long NOT_PACKABLE = -1L;
+
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+    private static final long USED_BIT = 1L << 62; // marks a live slot, so code 000000000000 is not EMPTY
+    private static final int CODE_LENGTH = 12;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte[] NIBBLE = new byte[128]; // char -> hex value, -1 if not [0-9a-f]
+
+    static {
+        java.util.Arrays.fill(NIBBLE, (byte) -1);
+        for (int i = 0; i < HEX.length; i++) NIBBLE[HEX[i]] = (byte) i;
+    }
+
+    /** "No entry" for {@link #getVersioned} and {@link #compareAndSet}; real versions start at 1. */
+    public static final long NO_VERSION = 0L;
+
+    /** The arrays, swapped as one on rehash so a racing reader never mixes two tables. */
+    private static final class Table {
+        final long[] keys;
+        final long[] balances;
+        final long[] timestamps;
+        final long[] versions;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            balances = new long[capacity];
+            timestamps = new long[capacity];
+            versions = new long[capacity];
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private Table table;
+    private int size;
+    private int used; // live entries + tombstones
+    private long lastVersion; // guarded by the write lock
+
+    public CardBalanceMap() {
+        this(1024);
+    }
+
+    public CardBalanceMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Packs a card code into its 48-bit value, or {@link #NOT_PACKABLE} when the code is not
+     * exactly 12 lowercase hex digits (such codes must be kept elsewhere; uppercase is refused
+     * so {@link #unpack(long)} gives back the very same string).
+     */
+    public static long pack(String card) {
+        if (card == null || card.length() != CODE_LENGTH) return NOT_PACKABLE;
+        long v = 0;
+        int bad = 0;
+        // table lookup without early exit: hex digits are random, so branching on them mispredicts
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            char c = card.charAt(i);
+            int d = c < NIBBLE.length ? NIBBLE[c] : -1;
+            bad |= d;
+            v = (v << 4) | (d & 0xF);
+        }
+        return bad < 0 ? NOT_PACKABLE : v;
+    }
+
+    public static String unpack(long key) {
+        char[] out = new char[CODE_LENGTH];
+        for (int i = CODE_LENGTH - 1; i >= 0; i--) {
+            out[i] = HEX[(int) (key & 0xF)];
+            key >>>= 4;
+        }
+        return new String(out);
+    }
+
+    /** Balance for the key, or {@code absent} when there is none. */
+    public long get(long key, long absent) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Table t = table;
+            int slot = find(t.keys, key);
+            long result = slot >= 0 ? t.balances[slot] : absent;
+            if (lock.validate(stamp)) return result;
+        }
+        stamp = lock.readLock();
+        try {
+            Table t = table;
+            int slot = find(t.keys, key);
+            return slot >= 0 ? t.balances[slot] : absent;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** Balance for the key if it was stored at or after {@code minTimestamp}, else {@code absent}. */
+    public long getIfNewer(long key, long minTimestamp, long absent) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Table t = table;
+            int slot = find(t.keys, key);
+            long result = slot >= 0 && t.timestamps[slot] >= minTimestamp ? t.balances[slot] : absent;
+            if (lock.validate(stamp)) return result;
+        }
+        stamp = lock.readLock();
+        try {
+            Table t = table;
+            int slot = find(t.keys, key);
+            return slot >= 0 && t.timestamps[slot] >= minTimestamp ? t.balances[slot] : absent;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** Time the key's balance was stored, or {@code absent} when there is none. */
+    public long getTimestamp(long key, long absent) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Table t = table;
+            int slot = find(t.keys, key);
+            long result = slot >= 0 ? t.timestamps[slot] : absent;
+            if (lock.validate(stamp)) return result;
+        }
+        stamp = lock.readLock();
+        try {
+            Table t = table;
+            int slot = find(t.keys, key);
+            return slot >= 0 ? t.timestamps[slot] : absent;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Balance and version of the key read together: {@code into[0]} = units, {@code into[1]} =
+     * version. Leaves {@code {0, NO_VERSION}} and returns false when there is no entry.
+     */
+    public boolean getVersioned(long key, long[] into) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Table t = table;
+            int slot = find(t.keys, key);
+            long units = slot >= 0 ? t.balances[slot] : 0L;
+            long version = slot >= 0 ? t.versions[slot] : NO_VERSION;
+            if (lock.validate(stamp)) {
+                into[0] = units;
+                into[1] = version;
+                return slot >= 0;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            Table t = table;
+            int slot = find(t.keys, key);
+            into[0] = slot >= 0 ? t.balances[slot] : 0L;
+            into[1] = slot >= 0 ? t.versions[slot] : NO_VERSION;
+            return slot >= 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** @return true if the key was not in the map before */
+    public boolean put(long key, long units, long timestamp) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = find(table.keys, key);
+            if (slot >= 0) {
+                write(table, slot, units, timestamp);
+                return false;
+            }
+            insert(key, units, timestamp);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Stores the entry only if the key has none; true if it was stored. */
+    public boolean putIfAbsent(long key, long units, long timestamp) {
+        long stamp = lock.writeLock();
+        try {
+            if (find(table.keys, key) >= 0) return false;
+            insert(key, units, timestamp);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Sets the balance only if the entry still has {@code expectedVersion}; with
+     * {@link #NO_VERSION} the key must have no entry, and one is inserted.
+     *
+     * @return true if the balance was stored
+     */
+    public boolean compareAndSet(long key, long expectedVersion, long units, long timestamp) {
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            int slot = find(t.keys, key);
+            if (slot < 0) {
+                if (expectedVersion != NO_VERSION) return false;
+                insert(key, units, timestamp);
+                return true;
+            }
+            if (t.versions[slot] != expectedVersion) return false;
+            write(t, slot, units, timestamp);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds {@code delta} to the key's balance and returns the new balance, or {@code absent}
+     * (storing nothing) when the key has no entry.
+     *
+     * @throws ArithmeticException if the balance would overflow
+     */
+    public long addAndGet(long key, long delta, long timestamp, long absent) {
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            int slot = find(t.keys, key);
+            if (slot < 0) return absent;
+            long units = Math.addExact(t.balances[slot], delta);
+            write(t, slot, units, timestamp);
+            return units;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean remove(long key) {
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            int slot = find(t.keys, key);
+            if (slot < 0) return false;
+            t.keys[slot] = TOMBSTONE;
+            size--;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes the key only if it still holds exactly this balance and timestamp, so an eviction
+     * never drops a write that landed after the entry was read.
+     */
+    public boolean remove(long key, long units, long timestamp) {
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            int slot = find(t.keys, key);
+            if (slot < 0 || t.balances[slot] != units || t.timestamps[slot] != timestamp) return false;
+            t.keys[slot] = TOMBSTONE;
+            size--;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean contains(long key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean result = find(table.keys, key) >= 0;
+            if (lock.validate(stamp)) return result;
+        }
+        stamp = lock.readLock();
+        try {
+            return find(table.keys, key) >= 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * The first key at or after slot {@code start} (wrapping), or {@link #NOT_PACKABLE} when the
+     * map is empty. With a random start this samples entries roughly uniformly, for eviction.
+     */
+    public long keyAtOrAfter(int start) {
+        long stamp = lock.readLock();
+        try {
+            long[] k = table.keys;
+            int mask = k.length - 1;
+            for (int i = start & mask, n = 0; n < k.length; i = (i + 1) & mask, n++) {
+                long v = k[i];
+                if (v != EMPTY && v != TOMBSTONE) return v & ~USED_BIT;
+            }
+            return NOT_PACKABLE;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** Calls the visitor for every entry, under the read lock (writers wait until it returns). */
+    public void forEach(Visitor visitor) {
+        long stamp = lock.readLock();
+        try {
+            Table t = table;
+            for (int i = 0; i < t.keys.length; i++) {
+                long k = t.keys[i];
+                if (k != EMPTY && k != TOMBSTONE) {
+                    visitor.accept(k & ~USED_BIT, t.balances[i], t.timestamps[i]);
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            allocate(capacityFor(16));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Under the write lock. */
+    private void write(Table t, int slot, long units, long timestamp) {
+        t.balances[slot] = units;
+        t.timestamps[slot] = timestamp;
+        t.versions[slot] = ++lastVersion;
+    }
+
+    /** Under the write lock, for a key that is not in the map. */
+    private void insert(long key, long units, long timestamp) {
+        Table t = table;
+        long[] keys = t.keys;
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != TOMBSTONE) i = (i + 1) & mask;
+        if (keys[i] == EMPTY) used++;
+        write(t, i, units, timestamp);
+        keys[i] = key | USED_BIT;
+        size++;
+        if (used > maxFill(keys.length)) {
+            // grow when live entries are the problem, otherwise just clear out the tombstones
+            rehash(size > maxFill(keys.length) / 2 ? keys.length * 2 : keys.length);
+        }
+    }
+
+    /**
+     * Slot of the key in {@code k}, or -1. Bounded by the table length, so a read racing with
+     * a write (and seeing a half-updated table) still terminates; its result is then discarded.
+     */
+    private static int find(long[] k, long key) {
+        long stored = key | USED_BIT;
+        int mask = k.length - 1;
+        for (int i = hash(key) & mask, probes = 0; probes < k.length; i = (i + 1) & mask, probes++) {
+            long v = k[i];
+            if (v == stored) return i;
+            if (v == EMPTY) return -1;
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        Table old = table;
+        Table t = new Table(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < old.keys.length; j++) {
+            long k = old.keys[j];
+            if (k == EMPTY || k == TOMBSTONE) continue;
+            int i = hash(k & ~USED_BIT) & mask;
+            while (t.keys[i] != EMPTY) i = (i + 1) & mask;
+            t.keys[i] = k;
+            t.balances[i] = old.balances[j];
+            t.timestamps[i] = old.timestamps[j];
+            t.versions[i] = old.versions[j];
+        }
+        table = t;
+        used = size;
+    }
+
+    private void allocate(int capacity) {
+        table = new Table(capacity);
+        size = 0;
+        used = 0;
+    }
+
+    /** Slots that may be used (live or tombstone) before a rehash: a load factor of 0.7. */
+    private static int maxFill(int capacity) {
+        return (int) (capacity * 0.7);
+    }
+
+    /** Power of two holding the expected size below the maximum load. */
+    private static int capacityFor(int expectedSize) {
+        int needed = Math.max(16, (int) Math.ceil(expectedSize / 0.7));
+        return Integer.highestOneBit(needed - 1) << 1;
+    }
+
+    private static int hash(long key) {
+        // murmur3 fmix64: card codes are random-ish, but spread them anyway
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
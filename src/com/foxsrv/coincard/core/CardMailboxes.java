@@ -0,0 +1,146 @@
+package com.foxsrv.coincard.core;
+
+import com.foxsrv.coincard.core.PartitionedWorkerPool.Lane;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One ordered mailbox of operations per card, run on a {@link PartitionedWorkerPool}.
+ * <p>
+ * Operations posted for a card run one at a time and in the order posted, each only after the
+ * one before it has finished. A mailbox is on the pool only while its head can run: when the
+ * head has to wait (a failed transfer backing off) it is parked on the {@link TimerWheel} and
+ * the mailbox stays off the pool until the timer fires, so the operations behind it wait
+ * without being looked at and the worker serves other cards meanwhile. After each operation
+ * the mailbox goes to the back of its lane again instead of draining in one go, so a card with
+ * a long backlog cannot hold up the other cards on its worker either.
+ * <p>
+ * Operations waiting off the pool (behind a running or parked head, or a parked head itself)
+ * are reported to it through {@link PartitionedWorkerPool#hold} on their lane, so its
+ * watermarks see the whole backlog and not just the heads it holds.
+ * <p>
+ * Empty mailboxes are dropped; nothing is kept for a card without pending work.
+ */
+public class CardMailboxes {
+
+    /** Returned by an {@link Operation} that is finished. */
+    public static final long DONE = -1;
+
+    public interface Operation {
+        /** @return {@link #DONE}, or the delay in ms after which the same operation runs again */
+        long run();
+    }
+
+    private static final class Entry {
+        final Operation op;
+        final Lane lane;
+
+        Entry(Operation op, Lane lane) {
+            this.op = op;
+            this.lane = lane;
+        }
+    }
+
+    private static final class Mailbox {
+        final String key;
+        final ArrayDeque<Entry> ops = new ArrayDeque<>(); // guarded by this
+        boolean scheduled; // on the pool or parked on the wheel
+        boolean closed; // removed from the map; posts go to a new one
+
+        Mailbox(String key) {
+            this.key = key;
+        }
+    }
+
+    private final PartitionedWorkerPool pool;
+    private final TimerWheel wheel;
+    private final Logger logger;
+    private final Map<String, Mailbox> boxes = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger parked = new AtomicInteger();
+
+    public CardMailboxes(PartitionedWorkerPool pool, TimerWheel wheel, Logger logger) {
+        this.pool = pool;
+        this.wheel = wheel;
+        this.logger = logger;
+    }
+
+    /** Queues the operation behind everything already posted for the card; it runs on the given lane. */
+    public void post(String card, Lane lane, Operation op) {
+        queued.incrementAndGet();
+        while (true) {
+            Mailbox box = boxes.computeIfAbsent(card, Mailbox::new);
+            boolean schedule;
+            synchronized (box) {
+                if (box.closed) continue; // emptied and dropped just now
+                box.ops.addLast(new Entry(op, lane));
+                schedule = !box.scheduled;
+                box.scheduled = true;
+            }
+            if (schedule) pool.enqueue(card, lane, () -> runHead(box));
+            else pool.hold(lane, 1); // waits behind the head until runHead queues it
+            return;
+        }
+    }
+
+    /** Cards with operations waiting or running. */
+    public int getCardCount() {
+        return boxes.size();
+    }
+
+    /** Operations posted and not finished, over all cards. */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /** Cards whose head operation is waiting on the timer wheel. */
+    public int getParkedCount() {
+        return parked.get();
+    }
+
+    private void runHead(Mailbox box) {
+        Entry head;
+        synchronized (box) {
+            head = box.ops.peekFirst();
+        }
+        long delayMs;
+        try {
+            delayMs = head.op.run();
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, "Operation for card " + box.key + " failed", t);
+            delayMs = DONE;
+        }
+        if (delayMs >= 0) {
+            // the head waits, and everything behind it with it, without a slot on the pool
+            parked.incrementAndGet();
+            pool.hold(head.lane, 1);
+            wheel.schedule(() -> {
+                parked.decrementAndGet();
+                pool.hold(head.lane, -1);
+                pool.enqueue(box.key, head.lane, () -> runHead(box));
+            }, delayMs, TimeUnit.MILLISECONDS);
+            return;
+        }
+        queued.decrementAndGet();
+        Entry next;
+        synchronized (box) {
+            box.ops.pollFirst();
+            next = box.ops.peekFirst();
+            if (next == null) {
+                box.scheduled = false;
+                box.closed = true;
+                boxes.remove(box.key, box);
+            }
+        }
+        if (next != null) {
+            pool.hold(next.lane, -1);
+            pool.enqueue(box.key, next.lane, () -> runHead(box));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.foxsrv.coincard.core;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker for one remote endpoint.
+ * <p>
+ * CLOSED: calls go through; failures and latencies are counted over a rolling window (the
+ * current and the previous window). Once at least {@code minimumCalls} were seen and the
+ * failure rate reaches {@code failureRate}, the circuit OPENs and calls fail fast for
+ * {@code openMs}. After that a few HALF_OPEN probes are let through: if all succeed the
+ * circuit closes again, one failure opens it for another period.
+ * <p>
+ * The same latencies drive {@link #getTimeoutMs()}: the observed p99 times a multiplier,
+ * kept between a floor and the configured TimeoutMs, so a slow bank no longer makes every
+ * call wait the full timeout.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /** Thrown (or used to fail a future) when a call is rejected without being attempted. */
+    public static class OpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public OpenException(String endpoint) {
+            super("Circuit open for " + endpoint);
+        }
+    }
+
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private static class Window {
+        final long startNanos;
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Window(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+
+    private final String name;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicReference<Window> current = new AtomicReference<>(new Window(System.nanoTime()));
+    private volatile Window previous = new Window(System.nanoTime());
+    private volatile long openedAtNanos;
+    private final AtomicInteger probesLeft = new AtomicInteger();
+    private final AtomicInteger probeSuccesses = new AtomicInteger();
+    private final AtomicLong timesOpened = new AtomicLong();
+
+    private volatile double failureRate;
+    private volatile int minimumCalls;
+    private volatile long windowNanos;
+    private volatile long openNanos;
+    private volatile int halfOpenProbes;
+    private volatile boolean adaptiveTimeout;
+    private volatile double p99Multiplier;
+    private volatile int minTimeoutMs;
+    private volatile int maxTimeoutMs;
+
+    public CircuitBreaker(String name) {
+        this.name = name;
+        configure(0.5, 10, 30_000, 15_000, 3, true, 3.0, 2_000, 60_000);
+    }
+
+    public void configure(double failureRate, int minimumCalls, long windowMs, long openMs, int halfOpenProbes,
+                          boolean adaptiveTimeout, double p99Multiplier, int minTimeoutMs, int maxTimeoutMs) {
+        this.failureRate = failureRate;
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1_000, windowMs));
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, openMs));
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+        this.adaptiveTimeout = adaptiveTimeout;
+        this.p99Multiplier = Math.max(1.0, p99Multiplier);
+        this.maxTimeoutMs = Math.max(1, maxTimeoutMs);
+        this.minTimeoutMs = Math.max(1, Math.min(minTimeoutMs, this.maxTimeoutMs));
+    }
+
+    public String getName() { return name; }
+
+    /**
+     * Asks to make a call. Every {@code true} must be followed by exactly one
+     * {@link #onSuccess} or {@link #onFailure}.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            State s = state.get();
+            if (s == State.CLOSED) return true;
+            if (s == State.OPEN) {
+                if (System.nanoTime() - openedAtNanos < openNanos) return false;
+                if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                    probeSuccesses.set(0);
+                    probesLeft.set(halfOpenProbes);
+                }
+                continue;
+            }
+            // HALF_OPEN: only the allotted probes go through
+            int left;
+            while ((left = probesLeft.get()) > 0) {
+                if (probesLeft.compareAndSet(left, left - 1)) return true;
+            }
+            return false;
+        }
+    }
+
+    public void onSuccess(long latencyNanos) {
+        Window w = window();
+        w.calls.incrementAndGet();
+        w.latency.record(latencyNanos);
+        if (state.get() == State.HALF_OPEN && probeSuccesses.incrementAndGet() >= halfOpenProbes) {
+            if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                // start counting afresh so the failures that opened the circuit don't reopen it
+                long now = System.nanoTime();
+                previous = new Window(now);
+                current.set(new Window(now));
+            }
+        }
+    }
+
+    /**
+     * @param latencyNanos time until the failure, or a negative value when it says nothing
+     *                     about the bank's latency (e.g. the call was never sent)
+     */
+    public void onFailure(long latencyNanos) {
+        Window w = window();
+        w.calls.incrementAndGet();
+        w.failures.incrementAndGet();
+        if (latencyNanos >= 0) w.latency.record(latencyNanos);
+
+        State s = state.get();
+        if (s == State.HALF_OPEN) {
+            trip(State.HALF_OPEN);
+        } else if (s == State.CLOSED) {
+            Window prev = previous;
+            long calls = w.calls.get() + prev.calls.get();
+            long failures = w.failures.get() + prev.failures.get();
+            if (calls >= minimumCalls && failures >= failureRate * calls) trip(State.CLOSED);
+        }
+    }
+
+    private void trip(State from) {
+        probesLeft.set(0);
+        openedAtNanos = System.nanoTime();
+        if (state.compareAndSet(from, State.OPEN)) timesOpened.incrementAndGet();
+    }
+
+    /** Timeout to use for the next call, adapted to the recent p99 latency. */
+    public int getTimeoutMs() {
+        if (!adaptiveTimeout) return maxTimeoutMs;
+        Window w = window();
+        Window prev = previous;
+        if (w.latency.getCount() + prev.latency.getCount() < MIN_LATENCY_SAMPLES) return maxTimeoutMs;
+        long p99Micros = LatencyHistogram.percentileOf(new LatencyHistogram[]{w.latency, prev.latency}, 0.99);
+        long adapted = (long) Math.ceil(p99Micros * p99Multiplier / 1000.0);
+        return (int) Math.max(minTimeoutMs, Math.min(maxTimeoutMs, adapted));
+    }
+
+    public State getState() {
+        State s = state.get();
+        // an OPEN circuit whose wait is over behaves as half-open on the next call
+        if (s == State.OPEN && System.nanoTime() - openedAtNanos >= openNanos) return State.HALF_OPEN;
+        return s;
+    }
+
+    public long getTimesOpened() { return timesOpened.get(); }
+
+    /** Failure rate over the rolling window, 0..1. */
+    public double getFailureRate() {
+        Window w = window();
+        Window prev = previous;
+        long calls = w.calls.get() + prev.calls.get();
+        return calls == 0 ? 0 : (double) (w.failures.get() + prev.failures.get()) / calls;
+    }
+
+    public long getP99Micros() {
+        Window w = window();
+        return LatencyHistogram.percentileOf(new LatencyHistogram[]{w.latency, previous.latency}, 0.99);
+    }
+
+    public String describe() {
+        return name + ": " + getState()
+                + String.format(" (errors %.0f%%, p99 %d ms, timeout %d ms, opened %dx)",
+                getFailureRate() * 100, getP99Micros() / 1000, getTimeoutMs(), getTimesOpened());
+    }
+
+    /** Current window, rolling it over when it has expired. */
+    private Window window() {
+        Window w = current.get();
+        long now = System.nanoTime();
+        if (now - w.startNanos < windowNanos) return w;
+        Window fresh = new Window(now);
+        if (current.compareAndSet(w, fresh)) {
+            // a window older than two periods says nothing about the present
+            previous = now - w.startNanos < 2 * windowNanos ? w : new Window(now);
+            return fresh;
+        }
+        return current.get();
+    }
+}
@@ -6,6 +6,9 @@ import java.math.RoundingMode;
 public class DecimalUtil {
     public static double truncate(double value, int scale) {
         if (scale < 0) scale = 0;
+        if (scale <= 18 && Money.fitsSteps(value, scale)) {
+            return Money.toSteps(value, scale) / Money.pow10Double(scale);
+        }
         BigDecimal bd = BigDecimal.valueOf(value);
         bd = bd.setScale(scale, RoundingMode.DOWN);
         return bd.doubleValue();
@@ -0,0 +1,103 @@
+package com.foxsrv.coincard.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and throughput of one remote endpoint.
+ * <p>
+ * Every call lands in one latency histogram per {@link Outcome} and in a rolling throughput
+ * counter; the time spent waiting for a rate-limiter token is kept apart, as is the number of
+ * calls a circuit breaker refused without sending them. Everything is lock-free, so recording
+ * can happen on any HTTP callback thread. Histograms count since start or the last
+ * {@link #reset()}; throughput is per second over the last 10 s and 60 s.
+ */
+public class EndpointMetrics {
+
+    public enum Outcome {
+        /** 2xx with "success": true */
+        SUCCESS,
+        /** the bank answered but refused (success false, e.g. INSUFFICIENT_FUNDS) */
+        BUSINESS_FAILURE,
+        /** connection error, 5xx or an unreadable reply */
+        HTTP_ERROR,
+        /** no reply within the timeout */
+        TIMEOUT
+    }
+
+    private final String name;
+    private final LatencyHistogram[] latency = new LatencyHistogram[Outcome.values().length];
+    private final LatencyHistogram rateLimitWait = new LatencyHistogram();
+    private final RateCounter throughput = new RateCounter();
+    private final AtomicLong shortCircuited = new AtomicLong();
+
+    public EndpointMetrics(String name) {
+        this.name = name;
+        for (int i = 0; i < latency.length; i++) latency[i] = new LatencyHistogram();
+    }
+
+    public String getName() { return name; }
+
+    public void record(Outcome outcome, long latencyNanos) {
+        latency[outcome.ordinal()].record(latencyNanos);
+        throughput.increment();
+    }
+
+    public void recordRateLimitWait(long nanos) {
+        rateLimitWait.record(nanos);
+    }
+
+    /** A call refused locally by an open circuit (not sent, so no latency). */
+    public void recordShortCircuit() {
+        shortCircuited.incrementAndGet();
+    }
+
+    public LatencyHistogram getLatency(Outcome outcome) { return latency[outcome.ordinal()]; }
+
+    public LatencyHistogram getRateLimitWait() { return rateLimitWait; }
+
+    public long getShortCircuited() { return shortCircuited.get(); }
+
+    public long getCount(Outcome outcome) { return latency[outcome.ordinal()].getCount(); }
+
+    public long getTotalCount() {
+        long n = 0;
+        for (LatencyHistogram h : latency) n += h.getCount();
+        return n;
+    }
+
+    public double getRate(int seconds) { return throughput.getRate(seconds); }
+
+    /** Percentile over every outcome together, in microseconds. */
+    public long getPercentileMicros(double quantile) {
+        return LatencyHistogram.percentileOf(latency, quantile);
+    }
+
+    public void reset() {
+        for (LatencyHistogram h : latency) h.reset();
+        rateLimitWait.reset();
+        throughput.reset();
+        shortCircuited.set(0);
+    }
+
+    /** One-line summary, e.g. for the periodic log. */
+    public String describe() {
+        return name + String.format(": %.1f/s (1m %.1f/s), %d calls", getRate(10), getRate(60), getTotalCount())
+                + String.format(" [ok %d, refused %d, error %d, timeout %d, short-circuited %d]",
+                getCount(Outcome.SUCCESS), getCount(Outcome.BUSINESS_FAILURE), getCount(Outcome.HTTP_ERROR),
+                getCount(Outcome.TIMEOUT), getShortCircuited())
+                + String.format(", p50 %s p99 %s max %s ms, limiter wait p99 %s ms",
+                millis(getPercentileMicros(0.50)), millis(getPercentileMicros(0.99)), millis(maxMicros()),
+                millis(rateLimitWait.getPercentileMicros(0.99)));
+    }
+
+    /** Microseconds as milliseconds with one decimal. */
+    public static String millis(long micros) {
+        return String.format("%.1f", micros / 1000.0);
+    }
+
+    private long maxMicros() {
+        long max = 0;
+        for (LatencyHistogram h : latency) max = Math.max(max, h.getMaxMicros());
+        return max;
+    }
+}
@@ -0,0 +1,97 @@
+package com.foxsrv.coincard.core;
+
+/**
+ * Approximate access frequency of long keys: a count-min sketch of 4-bit counters, the
+ * admission filter of a TinyLFU cache.
+ * <p>
+ * Each key maps to four counters, one in each of four 16-counter longs picked by independent
+ * hashes, and its frequency is the smallest of them (so at most 15). After ten increments per
+ * expected entry every counter is halved, so the sketch follows what is popular now rather than
+ * what was popular once.
+ * <p>
+ * Updates are plain, unsynchronized read-modify-writes on purpose: recording happens on every
+ * cache read, and a lost increment only makes one count slightly low, which an estimate
+ * tolerates. The table is a fixed size, so nothing a race does can index out of it.
+ */
+public class FrequencySketch {
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    /** @param expectedEntries the number of entries the cache holds */
+    public FrequencySketch(int expectedEntries) {
+        int n = Math.max(16, Math.min(1 << 24, expectedEntries));
+        int length = Integer.highestOneBit(n - 1) << 1;
+        this.table = new long[length];
+        this.tableMask = length - 1;
+        this.sampleSize = 10 * n;
+    }
+
+    /** Estimated number of recent accesses of the key, 0..15. */
+    public int frequency(long key) {
+        int hash = spread(key);
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    public void increment(long key) {
+        int hash = spread(key);
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++additions >= sampleSize) reset();
+    }
+
+    /** Counter {@code j} (0..15) of long {@code i}, unless it is already saturated. */
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xFL << offset;
+        long word = table[i];
+        if ((word & mask) != mask) {
+            table[i] = word + (1L << offset);
+            return true;
+        }
+        return false;
+    }
+
+    /** Halves every counter (an odd count loses its last half-increment). */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            long word = table[i];
+            odd += Long.bitCount(word & ONE_MASK);
+            table[i] = (word >>> 1) & RESET_MASK;
+        }
+        additions = Math.max(0, (additions >>> 1) - (odd >>> 2));
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private static int spread(long key) {
+        // murmur3 fmix64, folded to an int
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) (key ^ (key >>> 32));
+    }
+}
@@ -0,0 +1,88 @@
+package com.foxsrv.coincard.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (8 sub-buckets per power of two, so any
+ * reported value is within 12.5% of the real one). Recording is a couple of atomic adds and
+ * never allocates; percentiles are computed on demand from a pass over the buckets.
+ * Values are kept in microseconds, from 1 us up to several days.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR = 16;
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = LINEAR + (63 - 4) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucketOf(micros));
+        total.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            // retry
+        }
+    }
+
+    public long getCount() { return total.get(); }
+
+    public long getMaxMicros() { return maxMicros.get(); }
+
+    public double getMeanMicros() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) sumMicros.get() / n;
+    }
+
+    /** Upper bound (in microseconds) of the bucket holding the given quantile, 0 when empty. */
+    public long getPercentileMicros(double quantile) {
+        return percentileOf(new LatencyHistogram[]{this}, quantile);
+    }
+
+    /** Percentile over several histograms together, e.g. the current and previous window. */
+    public static long percentileOf(LatencyHistogram[] histograms, double quantile) {
+        long n = 0;
+        long max = 0;
+        for (LatencyHistogram h : histograms) {
+            n += h.total.get();
+            max = Math.max(max, h.maxMicros.get());
+        }
+        if (n == 0) return 0;
+        long rank = Math.max(1L, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            for (LatencyHistogram h : histograms) seen += h.counts.get(b);
+            if (seen >= rank) return Math.min(upperBoundOf(b), max);
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++) counts.set(b, 0);
+        total.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < LINEAR) return (int) micros;
+        int exp = 63 - Long.numberOfLeadingZeros(micros); // >= 4
+        int sub = (int) (micros >>> (exp - SUB_BITS)) & (SUB - 1);
+        return LINEAR + (exp - 4) * SUB + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR) return bucket;
+        int exp = (bucket - LINEAR) / SUB + 4;
+        int sub = (bucket - LINEAR) % SUB;
+        long width = 1L << (exp - SUB_BITS);
+        return (1L << exp) + (sub + 1) * width - 1;
+    }
+}
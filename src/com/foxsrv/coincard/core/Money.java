@@ -0,0 +1,133 @@
+package com.foxsrv.coincard.core;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Coin amounts as whole numbers of units of 1e-8 coin, the bank's own resolution.
+ * <p>
+ * Sums and differences of units are exact, so balances adjusted over and over do not pick up
+ * the drift that repeated double arithmetic does. Callers pass the raw {@code long} around and
+ * use these helpers, which neither allocate nor touch BigDecimal.
+ * <p>
+ * Converting from a double truncates toward zero, like the bank does, and gives what
+ * {@code BigDecimal.valueOf(v).setScale(n, DOWN)} gives: the shortest decimal form of the double
+ * is truncated, not its binary value. 0.29 (really 0.28999999999999998) is 0.29, while the
+ * double just below it, printed 0.28999999999999995, is 0.28.
+ */
+public final class Money {
+
+    /** Decimal places of a coin amount. */
+    public static final int SCALE = 8;
+    public static final long UNITS_PER_COIN = 100_000_000L;
+
+    private static final long[] POW10 = new long[19];
+    private static final double[] POW10_DOUBLE = new double[19];
+    /**
+     * Below this an ulp of a scaled double is at most a quarter step, so the double and its
+     * shortest decimal form are never more than one step apart; above it BigDecimal decides.
+     */
+    private static final double MAX_FAST = 1125899906842624.0; // 2^50
+
+    static {
+        long p = 1;
+        for (int i = 0; i < POW10.length; i++) {
+            POW10[i] = p;
+            POW10_DOUBLE[i] = p;
+            p *= 10;
+        }
+    }
+
+    /** Coins truncated to whole units. */
+    public static long toUnits(double coins) {
+        return toSteps(coins, SCALE);
+    }
+
+    /** Units as coins; exact for any balance below 2^53 units (90 million coins). */
+    public static double toCoins(long units) {
+        return units / (double) UNITS_PER_COIN;
+    }
+
+    /** {@code units * factor}, truncated toward zero. */
+    public static long scale(long units, double factor) {
+        return toSteps(toCoins(units) * factor, SCALE);
+    }
+
+    /**
+     * {@code value} truncated toward zero to {@code scale} decimals (0..18), as a count of
+     * 10^-scale steps; 1.239 at scale 2 is 123.
+     *
+     * @throws NumberFormatException    if the value is NaN or infinite, as BigDecimal would
+     * @throws ArithmeticException      if the result does not fit in a long
+     */
+    public static long toSteps(double value, int scale) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new NumberFormatException("Not a finite amount: " + value);
+        }
+        double p = POW10_DOUBLE[scale];
+        double scaled = value * p;
+        if (Math.abs(scaled) < MAX_FAST) {
+            double nearest = Math.rint(scaled);
+            // the shortest decimal form, scaled, is within 1.5 ulps of scaled: away from a step
+            // both truncate alike
+            if (Math.abs(scaled - nearest) > 2 * Math.ulp(scaled)) return (long) scaled;
+            // next to a step: the step as a double is the shortest form's neighbour or the value
+            // itself, and which side of it the value is on tells which side the decimal is on
+            long steps = (long) nearest;
+            double step = steps / p;
+            if (value == step) return steps;
+            if (value > 0) return value > step ? steps : steps - 1;
+            return value < step ? steps : steps + 1;
+        }
+        return BigDecimal.valueOf(value).setScale(scale, RoundingMode.DOWN).unscaledValue().longValueExact();
+    }
+
+    /** Whether {@link #toSteps(double, int)} can take {@code value} at {@code scale} without BigDecimal. */
+    public static boolean fitsSteps(double value, int scale) {
+        return Math.abs(value * POW10_DOUBLE[scale]) < MAX_FAST;
+    }
+
+    /** 10^n for n in 0..18. */
+    public static long pow10(int n) {
+        return POW10[n];
+    }
+
+    /** 10^n as a double, for n in 0..18. */
+    public static double pow10Double(int n) {
+        return POW10_DOUBLE[n];
+    }
+
+    /**
+     * A count of 10^-decimals steps as a plain decimal string without trailing zeros:
+     * {@code format(123450, 4)} is "12.345", {@code format(0, 4)} is "0".
+     */
+    public static String format(long steps, int decimals) {
+        if (steps == 0) return "0";
+        if (decimals == 0) return Long.toString(steps);
+        long p = POW10[decimals];
+        long whole = steps / p;
+        long frac = steps % p;
+        boolean negative = steps < 0;
+        if (negative) {
+            whole = -whole; // |Long.MIN_VALUE / 10^n| fits, decimals > 0 here
+            frac = -frac;
+        }
+        StringBuilder sb = new StringBuilder(24);
+        if (negative) sb.append('-');
+        sb.append(whole);
+        if (frac != 0) {
+            int digits = decimals;
+            while (frac % 10 == 0) {
+                frac /= 10;
+                digits--;
+            }
+            sb.append('.');
+            for (long lead = POW10[digits - 1]; lead > frac; lead /= 10) sb.append('0');
+            sb.append(frac);
+        }
+        return sb.toString();
+    }
+
+    private Money() {
+    }
+}
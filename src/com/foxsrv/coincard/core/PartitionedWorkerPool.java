@@ -0,0 +1,398 @@
+package com.foxsrv.coincard.core;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fixed pool of worker threads, each with its own task queues; a task goes to the worker its
+ * partition key (a card code) hashes to.
+ * <p>
+ * Tasks of one card in one {@link Lane} therefore run one at a time and in the order they were
+ * queued, while tasks of unrelated cards run on the other workers at the same time. Idle workers
+ * block instead of polling. Tasks without a key are spread round-robin.
+ * <p>
+ * Each worker keeps one FIFO per lane and picks the next task by smooth weighted round-robin
+ * over the lanes that have work: with weights 8/3/1, a worker with all three lanes busy runs
+ * eight interactive tasks for every three settlement and one background task, interleaved, and
+ * a lane alone gets every turn. A burst of settlements can then delay a player's command by at
+ * most a few tasks, not by the whole burst. Each lane records its depth and how long its tasks
+ * waited.
+ * <p>
+ * Each lane can have a high and a low watermark of waiting work. Waiting work is the lane's
+ * queued tasks plus what schedulers on top of the pool hold back and report through
+ * {@link #hold} (operations behind a busy card, transactions collecting in a batch), so work
+ * piling up outside the queues during a bank outage still counts. New work asks {@link #admit}
+ * first and is refused once its lane reaches the high watermark, until the lane has drained to
+ * the low one; tasks that continue work already accepted (retries, the next transaction of a
+ * queue) skip the check, so nothing accepted is dropped. Optional work nobody waits for is shed
+ * earlier, as soon as any lane is above its low watermark ({@link #shedBackground}).
+ * <p>
+ * The worker count is fixed for the life of the pool: changing it would move cards between
+ * workers while their earlier tasks are still queued on the old one.
+ */
+public class PartitionedWorkerPool {
+
+    public enum Lane {
+        /** Player commands waiting for an answer. */
+        INTERACTIVE(8),
+        /** Vault deposits and withdraws already granted in game, to be settled with the bank. */
+        SETTLEMENT(3),
+        /** Retries and replays nobody is waiting on. */
+        BACKGROUND(1);
+
+        final int defaultWeight;
+
+        Lane(int defaultWeight) {
+            this.defaultWeight = defaultWeight;
+        }
+    }
+
+    /** Depth and wait time of one lane, over all workers. */
+    public static final class LaneStats {
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicInteger held = new AtomicInteger();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final LatencyHistogram wait = new LatencyHistogram();
+        private volatile boolean saturated;
+
+        /** Tasks queued and not started. */
+        public int getDepth() { return depth.get(); }
+        /** Work of the lane waiting outside the queues, reported through {@link #hold}. */
+        public int getHeld() { return held.get(); }
+        /** What the watermarks are checked against: queued plus held. */
+        public int getBacklog() { return depth.get() + held.get(); }
+        public long getCompleted() { return completed.get(); }
+        /** New tasks refused by {@link #admit} while the lane was saturated. */
+        public long getRejected() { return rejected.get(); }
+        /** Reached the high watermark and not yet drained to the low one. */
+        public boolean isSaturated() { return saturated; }
+        /** Time from enqueue to start. */
+        public LatencyHistogram getWait() { return wait; }
+    }
+
+    private static final Lane[] LANES = Lane.values();
+
+    private static final class Queued {
+        final Runnable task;
+        final Lane lane;
+        final long enqueuedNanos = System.nanoTime();
+
+        Queued(Runnable task, Lane lane) {
+            this.task = task;
+            this.lane = lane;
+        }
+    }
+
+    private final class Worker {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition notEmpty = lock.newCondition();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final ArrayDeque<Queued>[] lanes = new ArrayDeque[LANES.length];
+        final int[] credit = new int[LANES.length];
+        Thread thread;
+
+        Worker() {
+            for (int i = 0; i < lanes.length; i++) lanes[i] = new ArrayDeque<>();
+        }
+
+        void offer(Queued q) {
+            lock.lock();
+            try {
+                lanes[q.lane.ordinal()].addLast(q);
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Queued take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (true) {
+                    Queued next = pick();
+                    if (next != null) return next;
+                    notEmpty.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Smooth weighted round-robin over the non-empty lanes; null if all are empty. */
+        private Queued pick() {
+            int[] w = weights;
+            int total = 0;
+            int best = -1;
+            for (int i = 0; i < lanes.length; i++) {
+                if (lanes[i].isEmpty()) continue;
+                credit[i] += w[i];
+                total += w[i];
+                if (best < 0 || credit[i] > credit[best]) best = i;
+            }
+            if (best < 0) return null;
+            credit[best] -= total;
+            Queued next = lanes[best].pollFirst();
+            if (lanes[best].isEmpty()) credit[best] = 0; // an idle lane starts the next burst even, not in debt or ahead
+            return next;
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                for (int i = 0; i < lanes.length; i++) {
+                    laneStats[i].depth.addAndGet(-lanes[i].size());
+                    lanes[i].clear();
+                    credit[i] = 0;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final String name;
+    private final Logger logger;
+    private final Worker[] workers;
+    private final LaneStats[] laneStats = new LaneStats[LANES.length];
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private volatile int[] weights = new int[LANES.length];
+    private volatile int[] highWatermarks = new int[LANES.length]; // 0: no limit
+    private volatile int[] lowWatermarks = new int[LANES.length];
+    private final AtomicLong shed = new AtomicLong();
+    private volatile long delayMs;
+    private volatile boolean running;
+
+    /**
+     * @param workers number of worker threads (at least 1)
+     * @param delayMs pause of a worker after each task; 0 for none
+     */
+    public PartitionedWorkerPool(String name, int workers, long delayMs, Logger logger) {
+        int n = Math.max(1, workers);
+        this.name = name;
+        this.logger = logger;
+        this.delayMs = Math.max(0, delayMs);
+        this.workers = new Worker[n];
+        for (int i = 0; i < n; i++) this.workers[i] = new Worker();
+        for (Lane lane : LANES) {
+            laneStats[lane.ordinal()] = new LaneStats();
+            weights[lane.ordinal()] = lane.defaultWeight;
+        }
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[i];
+            Thread t = new Thread(() -> work(worker), name + "-" + i);
+            t.setDaemon(true);
+            worker.thread = t;
+            t.start();
+        }
+    }
+
+    /** Queues the task behind the earlier tasks of the same key and lane; a null key picks any worker. */
+    public void enqueue(String key, Lane lane, Runnable task) {
+        if (task == null) return;
+        laneStats[lane.ordinal()].depth.incrementAndGet();
+        workers[indexOf(key)].offer(new Queued(task, lane));
+    }
+
+    /**
+     * Queues a task that hands its work to another thread (an async bank call) and returns the
+     * future of it. The worker waits for that future before it takes its next task, so tasks of
+     * one key still run one at a time and in order; a failed future is logged.
+     */
+    public void enqueueAndAwait(String key, Lane lane, Supplier<? extends CompletableFuture<?>> task) {
+        if (task == null) return;
+        enqueue(key, lane, () -> {
+            try {
+                CompletableFuture<?> future = task.get();
+                if (future != null) future.join();
+            } catch (CompletionException e) {
+                logger.log(Level.WARNING, name + " task for " + key + " failed",
+                        e.getCause() != null ? e.getCause() : e);
+            }
+        });
+    }
+
+    /**
+     * Admission check for new work on the lane: false from the moment the lane's backlog reaches
+     * its high watermark until it has drained to its low watermark. Refusals are counted.
+     */
+    public boolean admit(Lane lane) {
+        LaneStats stats = laneStats[lane.ordinal()];
+        if (!updateSaturated(lane.ordinal())) return true;
+        stats.rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Whether optional work (refreshes and warmups nobody is waiting for) should be skipped now:
+     * true while any lane with limits is above its low watermark, so that work goes before any
+     * lane has to refuse. Asking counts nothing; callers report what they skip to {@link #countShed}.
+     */
+    public boolean shedBackground() {
+        int[] high = highWatermarks;
+        int[] low = lowWatermarks;
+        for (int i = 0; i < LANES.length; i++) {
+            if (high[i] > 0 && laneStats[i].getBacklog() > low[i]) return true;
+        }
+        return false;
+    }
+
+    /** Records {@code jobs} optional jobs skipped because {@link #shedBackground} said so. */
+    public void countShed(int jobs) {
+        if (jobs > 0) shed.addAndGet(jobs);
+    }
+
+    /**
+     * Waiting tasks at which the lane stops admitting new work, and to which it must drain before
+     * admitting again; {@code high <= 0} removes the limit. The low watermark is kept below the
+     * high one.
+     */
+    public void setWatermarks(Lane lane, int high, int low) {
+        int i = lane.ordinal();
+        int[] nextHigh = highWatermarks.clone();
+        int[] nextLow = lowWatermarks.clone();
+        nextHigh[i] = Math.max(0, high);
+        nextLow[i] = nextHigh[i] > 0 ? Math.max(0, Math.min(low, nextHigh[i] - 1)) : 0;
+        lowWatermarks = nextLow;
+        highWatermarks = nextHigh;
+        updateSaturated(i);
+    }
+
+    /**
+     * Adds {@code tasks} (negative to take them back) to the work of the lane held outside the
+     * worker queues, so admission counts it; whoever adds must take the same amount back once
+     * that work is queued here or done.
+     */
+    public void hold(Lane lane, int tasks) {
+        LaneStats stats = laneStats[lane.ordinal()];
+        stats.held.addAndGet(tasks);
+        if (tasks < 0 && stats.saturated) updateSaturated(lane.ordinal());
+    }
+
+    public int getHighWatermark(Lane lane) {
+        return highWatermarks[lane.ordinal()];
+    }
+
+    public int getLowWatermark(Lane lane) {
+        return lowWatermarks[lane.ordinal()];
+    }
+
+    /** Optional jobs skipped through {@link #shedBackground}, as reported to {@link #countShed}. */
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    /** Turns per round of each lane when several have work; at least 1 each. */
+    public void setWeight(Lane lane, int weight) {
+        int[] next = weights.clone();
+        next[lane.ordinal()] = Math.max(1, weight);
+        weights = next;
+    }
+
+    public int getWeight(Lane lane) {
+        return weights[lane.ordinal()];
+    }
+
+    public void setDelayMs(long delayMs) {
+        this.delayMs = Math.max(0, delayMs);
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /** Tasks waiting in all lanes (not counting the ones running). */
+    public int getQueuedCount() {
+        int queued = 0;
+        for (LaneStats stats : laneStats) queued += stats.getDepth();
+        return queued;
+    }
+
+    public LaneStats getLaneStats(Lane lane) {
+        return laneStats[lane.ordinal()];
+    }
+
+    /** Clears the wait histograms and the completed, rejected and shed counts (depths stay). */
+    public void resetStats() {
+        for (LaneStats stats : laneStats) {
+            stats.completed.set(0);
+            stats.rejected.set(0);
+            stats.wait.reset();
+        }
+        shed.set(0);
+    }
+
+    /** Stops the workers; queued tasks are dropped. */
+    public synchronized void shutdown() {
+        running = false;
+        for (Worker worker : workers) {
+            if (worker.thread != null) worker.thread.interrupt();
+            worker.thread = null;
+            worker.clear();
+        }
+    }
+
+    /** Hysteresis between the watermarks; returns whether the lane is saturated now. */
+    private boolean updateSaturated(int lane) {
+        LaneStats stats = laneStats[lane];
+        int high = highWatermarks[lane];
+        boolean saturated;
+        if (high <= 0) {
+            saturated = false;
+        } else {
+            int backlog = stats.getBacklog();
+            saturated = stats.saturated ? backlog > lowWatermarks[lane] : backlog >= high;
+        }
+        if (saturated != stats.saturated) stats.saturated = saturated;
+        return saturated;
+    }
+
+    private int indexOf(String key) {
+        int n = workers.length;
+        if (key == null) return Math.floorMod(roundRobin.getAndIncrement(), n);
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), n);
+    }
+
+    private void work(Worker worker) {
+        while (running) {
+            Queued next;
+            try {
+                next = worker.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            LaneStats stats = laneStats[next.lane.ordinal()];
+            stats.depth.decrementAndGet();
+            if (stats.saturated) updateSaturated(next.lane.ordinal());
+            stats.wait.record(System.nanoTime() - next.enqueuedNanos);
+            try {
+                next.task.run();
+            } catch (Throwable t) {
+                logger.log(Level.WARNING, name + " task failed", t);
+            }
+            stats.completed.incrementAndGet();
+            long delay = delayMs;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
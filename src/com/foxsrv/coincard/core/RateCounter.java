@@ -0,0 +1,66 @@
+package com.foxsrv.coincard.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free rolling event counter with one-second resolution over the last minute.
+ * <p>
+ * Each slot packs the second it belongs to (high 40 bits) with that second's count (low 24
+ * bits) into one long, so moving a slot to a new second and counting in it is a single CAS and
+ * no event is lost at second boundaries. A slot that still carries an old second counts as 0.
+ */
+public class RateCounter {
+    private static final int SLOTS = 64; // > 60 so the current second never overwrites the window
+    private static final int COUNT_BITS = 24;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    public static final int MAX_WINDOW_SECONDS = 60;
+
+    private final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+    private final AtomicLong total = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    public void increment() {
+        long second = nowSecond();
+        int i = (int) (second & (SLOTS - 1));
+        while (true) {
+            long v = slots.get(i);
+            long next = (v >>> COUNT_BITS) == second
+                    ? ((v & COUNT_MASK) == COUNT_MASK ? v : v + 1) // saturate rather than spill into the stamp
+                    : (second << COUNT_BITS) | 1;
+            if (slots.compareAndSet(i, v, next)) break;
+        }
+        total.incrementAndGet();
+    }
+
+    /** Events since creation (or the last {@link #reset()}). */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Average events per second over the last {@code seconds} complete seconds (the current,
+     * partial second is left out), at most {@link #MAX_WINDOW_SECONDS}.
+     */
+    public double getRate(int seconds) {
+        int window = Math.max(1, Math.min(MAX_WINDOW_SECONDS, seconds));
+        long now = nowSecond();
+        long sum = 0;
+        for (long s = Math.max(1, now - window); s < now; s++) {
+            long v = slots.get((int) (s & (SLOTS - 1)));
+            if ((v >>> COUNT_BITS) == s) sum += v & COUNT_MASK;
+        }
+        long elapsed = Math.min(window, now - 1); // a young counter has fewer complete seconds
+        return elapsed <= 0 ? 0 : (double) sum / elapsed;
+    }
+
+    public void reset() {
+        for (int i = 0; i < SLOTS; i++) slots.set(i, 0);
+        total.set(0);
+    }
+
+    private long nowSecond() {
+        // +1 so no live second is 0, which is what an untouched slot holds
+        return (System.nanoTime() - startNanos) / 1_000_000_000L + 1;
+    }
+}
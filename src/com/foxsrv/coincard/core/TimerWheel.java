@@ -0,0 +1,184 @@
+package com.foxsrv.coincard.core;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timing wheel for delayed retries.
+ * <p>
+ * One daemon thread advances the wheel every tick; scheduling is a lock-free queue offer, so a
+ * failed transaction can be parked from any thread without holding it. Timeouts land in the
+ * slot {@code deadlineTick % wheelSize} with a count of full revolutions left, so adding and
+ * expiring are O(1) however many retries are parked. Precision is one tick.
+ * <p>
+ * Tasks run on the wheel thread and must be short: they are meant to hand the real work back
+ * to a queue (e.g. {@code queueProcessor.enqueue(...)}).
+ */
+public class TimerWheel {
+
+    public interface Timeout {
+        /** @return true if the task had not run yet and now never will */
+        boolean cancel();
+    }
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final class Entry implements Timeout {
+        final Runnable task;
+        final long deadlineNanos; // relative to startNanos
+        long rounds;
+        Entry next;
+        final AtomicInteger state = new AtomicInteger(PENDING);
+
+        Entry(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+            pending.decrementAndGet();
+            return true;
+        }
+    }
+
+    private final String name;
+    private final long tickNanos;
+    private final int mask;
+    private final Entry[] heads;
+    private final Logger logger;
+    private final Queue<Entry> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+    private volatile boolean running;
+    private Thread worker;
+    private long tick;
+
+    /**
+     * @param tickMs    wheel resolution
+     * @param wheelSize slots per revolution (rounded up to a power of two)
+     */
+    public TimerWheel(String name, long tickMs, int wheelSize, Logger logger) {
+        this.name = name;
+        this.logger = logger;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.mask = size - 1;
+        this.heads = new Entry[size];
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Stops the wheel; timeouts not yet expired are dropped. */
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) {
+            LockSupport.unpark(worker);
+            worker = null;
+        }
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+        Entry e = new Entry(task, deadline);
+        pending.incrementAndGet();
+        incoming.offer(e);
+        return e;
+    }
+
+    /** Timeouts scheduled and neither run nor cancelled yet. */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Exponential backoff with jitter: half of {@code min(maxMs, baseMs * 2^attempt)} plus a
+     * random share of the other half, so retries of many cards failing together spread out.
+     *
+     * @param attempt 0 for the first retry
+     */
+    public static long backoffMs(int attempt, long baseMs, long maxMs) {
+        long cap = Math.max(1, maxMs);
+        long exp = Math.min(cap, Math.max(1, baseMs) << Math.min(Math.max(0, attempt), 30));
+        if (exp <= 0) exp = cap; // shift overflow
+        long half = exp / 2;
+        return half + ThreadLocalRandom.current().nextLong(exp - half + 1);
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = tickNanos * (tick + 1);
+            long sleep;
+            while (running && (sleep = deadline - (System.nanoTime() - startNanos)) > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            if (!running) break;
+
+            transferIncoming();
+            expire(tick & mask, deadline);
+            tick++;
+        }
+    }
+
+    private void transferIncoming() {
+        Entry e;
+        // bounded so a flood of new timeouts can't stall the current tick
+        for (int i = 0; i < 100_000 && (e = incoming.poll()) != null; i++) {
+            if (e.state.get() != PENDING) continue;
+            long ticks = e.deadlineNanos / tickNanos;
+            e.rounds = Math.max(0, (ticks - tick) / heads.length);
+            int slot = (int) (Math.max(ticks, tick) & mask);
+            e.next = heads[slot];
+            heads[slot] = e;
+        }
+    }
+
+    private void expire(long slot, long deadline) {
+        int s = (int) slot;
+        Entry prev = null;
+        Entry e = heads[s];
+        while (e != null) {
+            Entry next = e.next;
+            boolean remove;
+            if (e.state.get() != PENDING) {
+                remove = true;
+            } else if (e.rounds <= 0 && e.deadlineNanos <= deadline) {
+                remove = true;
+                if (e.state.compareAndSet(PENDING, EXPIRED)) {
+                    pending.decrementAndGet();
+                    try {
+                        e.task.run();
+                    } catch (Throwable t) {
+                        logger.log(Level.WARNING, name + " timer task failed", t);
+                    }
+                }
+            } else {
+                remove = false;
+                e.rounds--;
+            }
+            if (remove) {
+                if (prev == null) heads[s] = next;
+                else prev.next = next;
+                e.next = null;
+            } else {
+                prev = e;
+            }
+            e = next;
+        }
+    }
+}
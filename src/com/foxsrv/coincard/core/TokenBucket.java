@@ -0,0 +1,68 @@
+package com.foxsrv.coincard.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket (kept as a single "theoretical arrival time", GCRA style).
+ * Refills at {@code perSecond} tokens per second and holds at most {@code burst} tokens.
+ * A rate of 0 or less disables limiting.
+ */
+public class TokenBucket {
+    private volatile long intervalNanos;
+    private volatile long burstNanos;
+    private final AtomicLong arrival = new AtomicLong(System.nanoTime());
+
+    public TokenBucket(double perSecond, int burst) {
+        configure(perSecond, burst);
+    }
+
+    /** Changes rate and capacity in place; tokens already spent stay spent. */
+    public void configure(double perSecond, int burst) {
+        long interval = perSecond > 0 ? Math.max(1L, (long) (1_000_000_000L / perSecond)) : 0L;
+        this.intervalNanos = interval;
+        this.burstNanos = interval * Math.max(1, burst);
+    }
+
+    /**
+     * Takes one token, waiting for it in the future if the bucket is empty.
+     *
+     * @return nanoseconds the caller has to wait before using the token (0 = now)
+     */
+    public long reserve() {
+        long interval = intervalNanos;
+        if (interval == 0) return 0;
+        long burst = burstNanos;
+        while (true) {
+            long now = System.nanoTime();
+            long current = arrival.get();
+            long next = Math.max(current, now - burst) + interval;
+            if (arrival.compareAndSet(current, next)) {
+                return Math.max(0L, next - now - burst);
+            }
+        }
+    }
+
+    /** Takes one token only if it is available right now. */
+    public boolean tryAcquire() {
+        long interval = intervalNanos;
+        if (interval == 0) return true;
+        long burst = burstNanos;
+        while (true) {
+            long now = System.nanoTime();
+            long current = arrival.get();
+            long next = Math.max(current, now - burst) + interval;
+            if (next - now > burst) return false;
+            if (arrival.compareAndSet(current, next)) return true;
+        }
+    }
+
+    public double getPerSecond() {
+        long interval = intervalNanos;
+        return interval == 0 ? 0 : 1_000_000_000.0 / interval;
+    }
+
+    public int getBurst() {
+        long interval = intervalNanos;
+        return interval == 0 ? 0 : (int) (burstNanos / interval);
+    }
+}
@@ -3,21 +3,19 @@ package com.foxsrv.coincard.io;
 import org.bukkit.Bukkit;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URI;
-import java.nio.charset.StandardCharsets;
 import java.util.logging.Logger;
 
 /**
  * Cliente mínimo para POST /api/transfer/card (sem Gson).
- * Envia JSON manualmente e valida "success" e "txId" por busca de chaves.
+ * Envia JSON manualmente e lê "success" e "txId" com o JsonReader compartilhado.
  */
 public class ApiClient {
     private final String baseUrl;
-    private final int timeoutMs;
+    private final HttpTransport transport;
     private final Logger log;
 
+    private static final JsonReader TRANSFER_FIELDS = new JsonReader("success", "txId");
+
     public static class CardTransferResult {
         public final boolean success;
         public final String txId;
@@ -29,8 +27,12 @@ public class ApiClient {
     }
 
     public ApiClient(String baseUrl, int timeoutMs, Logger logger) {
+        this(baseUrl, new HttpTransport(timeoutMs, 4), logger);
+    }
+
+    public ApiClient(String baseUrl, HttpTransport transport, Logger logger) {
         this.baseUrl = baseUrl.endsWith("/") ? baseUrl : (baseUrl + "/");
-        this.timeoutMs = timeoutMs;
+        this.transport = transport;
         this.log = logger;
     }
 
@@ -38,69 +40,15 @@ public class ApiClient {
         String endpoint = baseUrl + "api/transfer/card";
         String body = "{\"cardCode\":\"" + esc(cardCode) + "\",\"toId\":\"" + esc(toId) + "\",\"amount\":" + amount + "}";
         try {
-            String resp = postJson(endpoint, body);
-            boolean ok = parseBoolean(resp, "success");
-            String tx = parseString(resp, "txId");
-            return new CardTransferResult(ok, tx, resp);
+            HttpTransport.Response resp = transport.postJson(endpoint, body);
+            JsonReader.Fields json = TRANSFER_FIELDS.read(resp.bytes());
+            return new CardTransferResult(json.getBoolean("success"), json.getString("txId"), resp.body());
         } catch (IOException e) {
             log.warning("HTTP error: " + e.getMessage());
             return new CardTransferResult(false, null, null);
         }
     }
 
-    private String postJson(String urlStr, String json) throws IOException {
-        URL url = URI.create(urlStr).toURL(); // evita o deprecation do new URL(String)
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
-        con.setConnectTimeout(timeoutMs);
-        con.setReadTimeout(timeoutMs);
-        con.setRequestMethod("POST");
-        con.setDoOutput(true);
-        con.setRequestProperty("Content-Type","application/json; charset=UTF-8");
-
-        try (OutputStream os = con.getOutputStream()) {
-            os.write(json.getBytes(StandardCharsets.UTF_8));
-        }
-
-        int code = con.getResponseCode();
-        InputStream is = (code >= 200 && code < 300) ? con.getInputStream() : con.getErrorStream();
-        String resp = readAll(is);
-        if (resp == null) resp = "";
-        return resp;
-    }
-
-    private String readAll(InputStream is) throws IOException {
-        if (is == null) return null;
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-            StringBuilder sb = new StringBuilder();
-            for (String line; (line = br.readLine()) != null; ) sb.append(line);
-            return sb.toString();
-        }
-    }
-
-    // --- parse super simples (sem lib) ---
-    private boolean parseBoolean(String json, String key) {
-        String k = "\"" + key + "\"";
-        int i = json.indexOf(k);
-        if (i < 0) return false;
-        int c = json.indexOf(':', i);
-        if (c < 0) return false;
-        String tail = json.substring(c + 1).trim();
-        return tail.startsWith("true");
-    }
-
-    private String parseString(String json, String key) {
-        String k = "\"" + key + "\"";
-        int i = json.indexOf(k);
-        if (i < 0) return null;
-        int c = json.indexOf(':', i);
-        if (c < 0) return null;
-        int q1 = json.indexOf('"', c + 1);
-        if (q1 < 0) return null;
-        int q2 = json.indexOf('"', q1 + 1);
-        if (q2 < 0) return null;
-        return json.substring(q1 + 1, q2);
-    }
-
     private String esc(String s) {
         if (s == null) return "";
         return s.replace("\\","\\\\").replace("\"","\\\"");
@@ -0,0 +1,338 @@
+package com.foxsrv.coincard.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * BalanceEventStream - long-lived Server-Sent Events subscription to balance changes at the bank.
+ * <p>
+ * POSTs {@code {"cards":[...]}} with the cards to watch and reads the {@code text/event-stream}
+ * reply for as long as the bank keeps it open. Each event carries the card's new balance:
+ * <pre>
+ *   event: balance
+ *   id: 1842
+ *   data: {"cardCode":"0a1b2c3d4e5f","coins":12.5}
+ * </pre>
+ * The bank opens every stream with the current balance of each subscribed card, so changes that
+ * happened while it was down or being replaced are not lost. Comment lines (": ping") are
+ * heartbeats; a stream silent for longer than the idle timeout is taken as dead. A watchdog
+ * compares the tracked cards with the subscribed ones every few seconds and reconnects with the
+ * new set when they differ, passing the last event id (Last-Event-ID) for banks that replay.
+ * <p>
+ * Reconnects back off exponentially with jitter up to the configured maximum; a bank that does
+ * not offer the endpoint (404) is retried at the maximum delay only. One reader thread and one
+ * watchdog thread, both daemons; the listener is called on the reader thread.
+ */
+public class BalanceEventStream {
+
+    public interface Listener {
+        void onBalance(String card, double coins);
+
+        /** The stream is live and pushes changes of these cards. */
+        void onSubscribed(Set<String> cards);
+
+        /** The stream dropped; until {@link #onSubscribed} again nothing is pushed. */
+        void onDisconnected();
+    }
+
+    private static final JsonReader EVENT_FIELDS = new JsonReader("cardCode", "coins");
+    private static final long WATCHDOG_PERIOD_MS = 5000;
+    private static final long IDLE_TIMEOUT_MS = 45000;
+    private static final long RECONNECT_BASE_MS = 1000;
+    /** A stream the bank ends sooner than this counts as a failed connection. */
+    private static final long STABLE_AFTER_MS = 30000;
+
+    private final String url;
+    private final Supplier<Set<String>> trackedCards;
+    private final Listener listener;
+    private final Logger logger;
+    private final long reconnectMaxMs;
+    private final HttpClient client;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong eventsReceived = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+
+    private Thread reader;
+    private ScheduledExecutorService watchdog;
+    private volatile InputStream current;
+    private volatile Set<String> subscribed = Collections.emptySet();
+    private volatile long lastActivity;
+    private volatile String lastEventId;
+    private boolean warnedUnsupported;
+
+    /**
+     * @param url            the bank's event endpoint (e.g. {@code <API>api/card/events})
+     * @param trackedCards   cards to watch now; called on the watchdog and reader threads, so it
+     *                       must not touch the server API
+     * @param reconnectMaxMs upper bound of the reconnect backoff
+     */
+    public BalanceEventStream(String url, Supplier<Set<String>> trackedCards, Listener listener, Logger logger,
+                              long reconnectMaxMs) {
+        this.url = url;
+        this.trackedCards = trackedCards;
+        this.listener = listener;
+        this.logger = logger;
+        this.reconnectMaxMs = Math.max(RECONNECT_BASE_MS, reconnectMaxMs);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    public void start() {
+        if (running.getAndSet(true)) return;
+        reader = new Thread(this::run, "CoinCard-BalanceEvents");
+        reader.setDaemon(true);
+        reader.start();
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "CoinCard-BalanceEvents-Watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        watchdog.scheduleWithFixedDelay(this::checkStream, WATCHDOG_PERIOD_MS, WATCHDOG_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (!running.getAndSet(false)) return;
+        if (watchdog != null) watchdog.shutdownNow();
+        closeCurrent();
+        if (reader != null) reader.interrupt();
+    }
+
+    public boolean isConnected() {
+        return current != null;
+    }
+
+    public int getSubscribedCount() {
+        return subscribed.size();
+    }
+
+    public long getEventsReceived() {
+        return eventsReceived.get();
+    }
+
+    public long getConnects() {
+        return connects.get();
+    }
+
+    private void run() {
+        int failures = 0;
+        while (running.get()) {
+            Set<String> cards = new TreeSet<>(trackedCards.get());
+            if (cards.isEmpty()) {
+                // nobody to watch: no point holding a connection open
+                if (!sleep(WATCHDOG_PERIOD_MS)) return;
+                continue;
+            }
+            long delayMs;
+            try {
+                long opened = System.currentTimeMillis();
+                boolean closedHere = readStream(cards);
+                // a bank or proxy that ends the stream right after the snapshot must not get a tight loop
+                boolean stable = closedHere || System.currentTimeMillis() - opened >= STABLE_AFTER_MS;
+                failures = stable ? 0 : failures + 1;
+                delayMs = stable ? RECONNECT_BASE_MS : backoffMs(failures);
+            } catch (UnsupportedException e) {
+                if (!warnedUnsupported) {
+                    logger.warning("Bank has no balance event endpoint at " + url + " (" + e.getMessage()
+                            + "); relying on polling.");
+                    warnedUnsupported = true;
+                }
+                delayMs = reconnectMaxMs;
+            } catch (IOException | RuntimeException e) {
+                if (!running.get()) return;
+                failures++;
+                delayMs = backoffMs(failures);
+                if (failures == 1 || failures % 10 == 0) {
+                    logger.warning("Balance event stream lost (" + e.getMessage() + "), reconnecting in "
+                            + delayMs + " ms.");
+                }
+            }
+            if (!sleep(delayMs)) return;
+        }
+    }
+
+    /** @return whether the stream was closed from this side (watchdog or stop) rather than by the bank */
+    private boolean readStream(Set<String> cards) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(30)) // until the headers arrive; the body may stay open
+                .header("Content-Type", "application/json; charset=UTF-8")
+                .header("Accept", "text/event-stream")
+                .POST(HttpRequest.BodyPublishers.ofString(subscribeBody(cards), StandardCharsets.UTF_8));
+        String resumeFrom = lastEventId;
+        if (resumeFrom != null) builder.header("Last-Event-ID", resumeFrom);
+
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        InputStream body = response.body();
+        if (response.statusCode() == 404 || response.statusCode() == 405) {
+            body.close();
+            throw new UnsupportedException("HTTP " + response.statusCode());
+        }
+        if (response.statusCode() != 200) {
+            body.close();
+            throw new IOException("HTTP " + response.statusCode());
+        }
+
+        current = body;
+        subscribed = Collections.unmodifiableSet(cards);
+        lastActivity = System.currentTimeMillis();
+        connects.incrementAndGet();
+        try {
+            listener.onSubscribed(subscribed);
+            if (!running.get()) return false;
+            BufferedReader lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            String event = null;
+            String id = null;
+            StringBuilder data = new StringBuilder();
+            String line;
+            while ((line = lines.readLine()) != null) {
+                lastActivity = System.currentTimeMillis();
+                if (line.isEmpty()) {
+                    if (data.length() > 0) dispatch(event, data.toString());
+                    if (id != null) lastEventId = id;
+                    event = null;
+                    id = null;
+                    data.setLength(0);
+                    continue;
+                }
+                if (line.charAt(0) == ':') continue; // heartbeat
+                int colon = line.indexOf(':');
+                String field = colon < 0 ? line : line.substring(0, colon);
+                String value = colon < 0 ? "" : line.substring(line.length() > colon + 1 && line.charAt(colon + 1) == ' '
+                        ? colon + 2 : colon + 1);
+                switch (field) {
+                    case "event":
+                        event = value;
+                        break;
+                    case "data":
+                        if (data.length() > 0) data.append('\n');
+                        data.append(value);
+                        break;
+                    case "id":
+                        id = value;
+                        break;
+                    default:
+                        break; // "retry" and unknown fields
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            // closed by the watchdog (resubscribe, idle) or by stop(): reconnect after the base delay
+            if (current == null || !running.get()) return true;
+            throw e;
+        } finally {
+            closeCurrent();
+            subscribed = Collections.emptySet();
+            listener.onDisconnected();
+        }
+    }
+
+    private void dispatch(String event, String data) {
+        if (event != null && !event.equals("balance")) return;
+        JsonReader.Fields fields = EVENT_FIELDS.read(data);
+        String card = fields.getString("cardCode");
+        Double coins = fields.getDouble("coins");
+        // the bank may send cards we no longer subscribe to; they must not overwrite the cache
+        if (card == null || coins == null || !subscribed.contains(card)) return;
+        eventsReceived.incrementAndGet();
+        try {
+            listener.onBalance(card, coins);
+        } catch (RuntimeException e) {
+            logger.warning("Balance event handler failed for card " + card + ": " + e.getMessage());
+        }
+    }
+
+    /** Watchdog: drops a stream that went silent or no longer covers the tracked cards. */
+    private void checkStream() {
+        if (current == null) return;
+        try {
+            if (System.currentTimeMillis() - lastActivity > IDLE_TIMEOUT_MS) {
+                logger.warning("Balance event stream silent for " + IDLE_TIMEOUT_MS / 1000 + "s, reconnecting.");
+                closeCurrent();
+                return;
+            }
+            if (!subscribed.equals(trackedCards.get())) closeCurrent(); // the reader resubscribes
+        } catch (RuntimeException e) {
+            logger.warning("Balance event watchdog failed: " + e.getMessage());
+        }
+    }
+
+    private void closeCurrent() {
+        InputStream in = current;
+        current = null;
+        if (in == null) return;
+        try {
+            in.close();
+        } catch (IOException ignored) {
+            // already broken
+        }
+    }
+
+    private long backoffMs(int failures) {
+        long exp = RECONNECT_BASE_MS << Math.min(failures - 1, 20);
+        long capped = Math.min(exp, reconnectMaxMs);
+        // full jitter on the upper half, so many servers restarting together do not reconnect in step
+        return Math.max(RECONNECT_BASE_MS, capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1));
+    }
+
+    private boolean sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String subscribeBody(Set<String> cards) {
+        StringBuilder sb = new StringBuilder(16 + cards.size() * 15).append("{\"cards\":[");
+        boolean first = true;
+        for (String card : cards) {
+            if (!first) sb.append(',');
+            first = false;
+            sb.append('"');
+            for (int i = 0; i < card.length(); i++) {
+                char c = card.charAt(i);
+                if (c == '"' || c == '\\') sb.append('\\');
+                if (c >= 0x20) sb.append(c);
+            }
+            sb.append('"');
+        }
+        return sb.append("]}").toString();
+    }
+
+    /** The bank answered the subscription with 404/405. */
+    private static final class UnsupportedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.foxsrv.coincard.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * HttpTransport - shared HTTP client for every call to the Coin API.
+ * <p>
+ * Wraps a single {@link HttpClient}, so connections to the bank are pooled and kept alive
+ * (and multiplexed over HTTP/2 when the API is served over https) instead of paying a new
+ * TCP/TLS handshake per request like the old per-call HttpURLConnection code did.
+ * <p>
+ * The number of requests in flight at once is capped by MaxConnections. Requests above the
+ * cap wait for a free slot without holding a thread.
+ */
+public class HttpTransport {
+    private final HttpClient httpsClient;
+    private final HttpClient httpClient;
+    private final Duration timeout;
+    private final int maxConnections;
+    private final Semaphore permits;
+    private final Queue<CompletableFuture<Void>> waiters = new ConcurrentLinkedQueue<>();
+
+    public static class Response {
+        public final int status;
+        private final byte[] body;
+        private String text;
+
+        public Response(int status, byte[] body) {
+            this.status = status;
+            this.body = body != null ? body : new byte[0];
+        }
+
+        public boolean isSuccess() {
+            return status >= 200 && status < 300;
+        }
+
+        public byte[] bytes() {
+            return body;
+        }
+
+        public String body() {
+            String t = text;
+            if (t == null) {
+                t = new String(body, StandardCharsets.UTF_8);
+                text = t;
+            }
+            return t;
+        }
+    }
+
+    public HttpTransport(int timeoutMs, int maxConnections) {
+        this.timeout = Duration.ofMillis(Math.max(1, timeoutMs));
+        this.maxConnections = Math.max(1, maxConnections);
+        this.permits = new Semaphore(this.maxConnections);
+        // ALPN negotiates h2 over TLS and falls back to HTTP/1.1 on its own; over plain http the
+        // h2c upgrade dance only adds a round-trip, so keep-alive HTTP/1.1 is used there.
+        this.httpsClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    public int getTimeoutMs() { return (int) timeout.toMillis(); }
+    public int getMaxConnections() { return maxConnections; }
+    public int getInFlight() { return maxConnections - permits.availablePermits(); }
+
+    /**
+     * Blocking POST of a JSON body. Non-2xx responses are returned, not thrown.
+     */
+    public Response postJson(String url, String json) throws IOException {
+        return postJson(url, json, null);
+    }
+
+    /**
+     * Blocking POST of a JSON body with an optional "Authorization: Bearer" token.
+     */
+    public Response postJson(String url, String json, String bearerToken) throws IOException {
+        try {
+            return postJsonAsync(url, json, bearerToken).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + url);
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        }
+    }
+
+    public CompletableFuture<Response> postJsonAsync(String url, String json) {
+        return postJsonAsync(url, json, null);
+    }
+
+    public CompletableFuture<Response> postJsonAsync(String url, String json, String bearerToken) {
+        return postJsonAsync(url, json, bearerToken, 0);
+    }
+
+    public CompletableFuture<Response> postJsonAsync(String url, String json, String bearerToken, int timeoutMs) {
+        return postJsonAsync(url, json, bearerToken, timeoutMs, null);
+    }
+
+    /**
+     * Non-blocking POST. The future fails with an IOException (HttpTimeoutException on timeout).
+     *
+     * @param timeoutMs request timeout for this call; 0 or less uses the configured TimeoutMs
+     * @param headers   extra request headers (e.g. Idempotency-Key), may be null
+     */
+    public CompletableFuture<Response> postJsonAsync(String url, String json, String bearerToken, int timeoutMs,
+                                                     Map<String, String> headers) {
+        Duration requestTimeout = timeoutMs > 0 ? Duration.ofMillis(timeoutMs) : timeout;
+        final HttpRequest request;
+        try {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(requestTimeout)
+                    .header("Content-Type", "application/json; charset=UTF-8")
+                    .POST(HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8));
+            if (bearerToken != null) builder.header("Authorization", "Bearer " + bearerToken);
+            if (headers != null) headers.forEach(builder::header);
+            request = builder.build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new IOException("Invalid URL: " + url, e));
+        }
+        HttpClient client = url.regionMatches(true, 0, "https:", 0, 6) ? httpsClient : httpClient;
+
+        return acquirePermit().thenCompose(ignored -> {
+            CompletableFuture<HttpResponse<byte[]>> call;
+            try {
+                call = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (RuntimeException e) {
+                releasePermit();
+                return CompletableFuture.failedFuture(e);
+            }
+            return call.handle((resp, err) -> {
+                releasePermit();
+                if (err != null) throw new CompletionException(asIOException(err));
+                return new Response(resp.statusCode(), resp.body());
+            });
+        });
+    }
+
+    private CompletableFuture<Void> acquirePermit() {
+        if (permits.tryAcquire()) return CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        waiters.offer(waiter);
+        // A permit may have been released between tryAcquire and offer; hand it to a waiter.
+        if (permits.tryAcquire()) releasePermit();
+        return waiter;
+    }
+
+    private void releasePermit() {
+        CompletableFuture<Void> next = waiters.poll();
+        if (next != null) next.complete(null);
+        else permits.release();
+    }
+
+    private static IOException asIOException(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof IOException) return (IOException) t;
+        return new IOException(t.getMessage(), t);
+    }
+}
@@ -0,0 +1,339 @@
+package com.foxsrv.coincard.io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JsonReader - pulls a fixed set of top-level fields out of a JSON object in one pass.
+ * <p>
+ * Built once per response shape with the keys it should look for. {@link #read(byte[])} walks
+ * the raw response bytes forward at most once, only recording where each wanted value sits,
+ * and stops as soon as the fields asked for so far have been seen. Nothing is decoded until a
+ * getter asks for it, and plain numbers are converted without going through a String. Only
+ * keys of the outermost object match; nested objects and arrays are skipped. The first
+ * occurrence of a key wins.
+ * <p>
+ * Malformed input never throws: reading stops at the first unexpected byte and whatever was
+ * found up to that point is returned. A reader is immutable and can be shared across threads.
+ */
+public final class JsonReader {
+    private static final byte ABSENT = 0;
+    private static final byte STRING = 1;
+    private static final byte ESCAPED_STRING = 2;
+    private static final byte NUMBER = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte NULL = 6;
+    private static final byte COMPOSITE = 7;
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final byte[] LITERAL_TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] LITERAL_FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] LITERAL_NULL = {'n', 'u', 'l', 'l'};
+
+    private final String[] keys;
+    private final byte[][] keyBytes;
+
+    public JsonReader(String... keys) {
+        this.keys = keys.clone();
+        this.keyBytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            keyBytes[i] = keys[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Values of one response. Getters take one of the reader's keys. The body is scanned
+     * lazily: a getter only reads forward until its key has been seen, so fields near the
+     * start of the body (like "success") never cost a scan of the rest. Not thread-safe.
+     */
+    public final class Fields {
+        private final byte[] json;
+        private final int[] spans;
+        private final byte[] kinds;
+        private int pos;
+        private boolean done;
+
+        private Fields(byte[] json) {
+            this.json = json;
+            this.spans = new int[keys.length * 2];
+            this.kinds = new byte[keys.length];
+            int i = skipWhitespace(json, 0);
+            if (i < json.length && json[i] == '{') pos = i + 1;
+            else done = true;
+        }
+
+        public boolean has(String key) {
+            int k = find(key);
+            return kinds[k] != ABSENT && kinds[k] != NULL;
+        }
+
+        /** true only for a literal {@code true}; missing or any other value is false. */
+        public boolean getBoolean(String key) {
+            return kinds[find(key)] == TRUE;
+        }
+
+        /** String value (unescaped), the text of a number, or null. */
+        public String getString(String key) {
+            int k = find(key);
+            int start = spans[2 * k];
+            int end = spans[2 * k + 1];
+            switch (kinds[k]) {
+                case STRING:
+                case NUMBER:
+                    return new String(json, start, end - start, StandardCharsets.UTF_8);
+                case ESCAPED_STRING:
+                    return unescape(json, start, end);
+                default:
+                    return null;
+            }
+        }
+
+        /** Number value (also accepts a number sent as a string), or null. */
+        public Double getDouble(String key) {
+            int k = find(key);
+            if (kinds[k] != NUMBER && kinds[k] != STRING) return null;
+            return parseNumber(json, spans[2 * k], spans[2 * k + 1]);
+        }
+
+        public long getLong(String key, long def) {
+            Double d = getDouble(key);
+            return d == null ? def : d.longValue();
+        }
+
+        private int find(String key) {
+            int k = indexOf(key);
+            while (kinds[k] == ABSENT && !done) {
+                readMember();
+            }
+            return k;
+        }
+
+        /** Reads one "key": value pair at {@link #pos}, recording it if it is a wanted key. */
+        private void readMember() {
+            byte[] json = this.json;
+            int n = json.length;
+            done = true; // cleared again once the member has been read completely
+
+            int i = skipWhitespace(json, pos);
+            if (i >= n || json[i] != '"') return;
+            int keyStart = i + 1;
+            int keyEnd = scanString(json, keyStart);
+            if (keyEnd < 0) return;
+            // compared byte for byte, so a key spelled with escapes never matches (keys are
+            // plain names)
+            int k = matchKey(json, keyStart, keyEnd - keyStart);
+
+            i = skipWhitespace(json, keyEnd + 1);
+            if (i >= n || json[i] != ':') return;
+            i = skipWhitespace(json, i + 1);
+            if (i >= n) return;
+
+            int valueStart = i;
+            int valueEnd;
+            byte kind;
+            byte b = json[i];
+            if (b == '"') {
+                valueStart = i + 1;
+                valueEnd = scanString(json, valueStart);
+                if (valueEnd < 0) return;
+                kind = k >= 0 && hasEscape(json, valueStart, valueEnd) ? ESCAPED_STRING : STRING;
+                i = valueEnd + 1;
+            } else if (b == '{' || b == '[') {
+                valueEnd = skipComposite(json, i);
+                if (valueEnd < 0) return;
+                kind = COMPOSITE;
+                i = valueEnd;
+            } else if (b == 't' || b == 'f' || b == 'n') {
+                byte[] literal = b == 't' ? LITERAL_TRUE : b == 'f' ? LITERAL_FALSE : LITERAL_NULL;
+                if (!regionMatches(json, i, literal)) return;
+                kind = b == 't' ? TRUE : b == 'f' ? FALSE : NULL;
+                valueEnd = i = i + literal.length;
+            } else {
+                while (i < n && isNumberByte(json[i])) i++;
+                if (i == valueStart) return;
+                kind = NUMBER;
+                valueEnd = i;
+            }
+
+            if (k >= 0 && kinds[k] == ABSENT) {
+                kinds[k] = kind;
+                spans[2 * k] = valueStart;
+                spans[2 * k + 1] = valueEnd;
+            }
+
+            i = skipWhitespace(json, i);
+            if (i < n && json[i] == ',') {
+                pos = i + 1;
+                done = false;
+            }
+        }
+    }
+
+    /** Same as {@link #read(byte[])} for callers that only have the decoded body. */
+    public Fields read(String json) {
+        return read(json != null ? json.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+    }
+
+    public Fields read(byte[] json) {
+        return new Fields(json);
+    }
+
+    private int indexOf(String key) {
+        // callers pass the same string literals the reader was built with, so identity usually hits
+        for (int k = 0; k < keys.length; k++) {
+            if (keys[k] == key) return k;
+        }
+        for (int k = 0; k < keys.length; k++) {
+            if (keys[k].equals(key)) return k;
+        }
+        throw new IllegalArgumentException("Key not registered with this reader: " + key);
+    }
+
+    private int matchKey(byte[] json, int start, int len) {
+        outer:
+        for (int k = 0; k < keyBytes.length; k++) {
+            byte[] kb = keyBytes[k];
+            if (kb.length != len) continue;
+            for (int j = 0; j < len; j++) {
+                if (kb[j] != json[start + j]) continue outer;
+            }
+            return k;
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(byte[] json, int i) {
+        while (i < json.length) {
+            byte b = json[i];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') break;
+            i++;
+        }
+        return i;
+    }
+
+    /** Index of the closing quote of a string whose content starts at {@code i}, or -1. */
+    private static int scanString(byte[] json, int i) {
+        while (i < json.length) {
+            byte b = json[i];
+            if (b == '"') return i;
+            i += b == '\\' ? 2 : 1;
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(byte[] json, int i, byte[] literal) {
+        if (i + literal.length > json.length) return false;
+        for (int j = 0; j < literal.length; j++) {
+            if (json[i + j] != literal[j]) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasEscape(byte[] json, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (json[i] == '\\') return true;
+        }
+        return false;
+    }
+
+    /** Index just past the object/array starting at {@code i}, or -1 when unterminated. */
+    private static int skipComposite(byte[] json, int i) {
+        int depth = 0;
+        while (i < json.length) {
+            byte b = json[i];
+            if (b == '"') {
+                i = scanString(json, i + 1);
+                if (i < 0) return -1;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (--depth == 0) return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static boolean isNumberByte(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    /**
+     * Plain decimals of up to 15 significant digits are built from a long mantissa and one
+     * exact division (correctly rounded, same result as Double.parseDouble); anything else
+     * falls back to Double.parseDouble.
+     */
+    private static Double parseNumber(byte[] json, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && json[i] == '-') {
+            negative = true;
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        boolean simple = i < end;
+        for (; i < end; i++) {
+            byte b = json[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0 || fraction >= 0) digits++;
+                if (fraction >= 0) fraction++;
+                if (digits > 15) { simple = false; break; }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                simple = false;
+                break;
+            }
+        }
+        if (simple && fraction != 0 && fraction < POW10.length) {
+            double value = fraction > 0 ? mantissa / POW10[fraction] : mantissa;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(json, start, end - start, StandardCharsets.ISO_8859_1).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String unescape(byte[] json, int start, int end) {
+        String raw = new String(json, start, end - start, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 >= raw.length()) {
+                sb.append(c);
+                continue;
+            }
+            char e = raw.charAt(++i);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (i + 4 < raw.length()) {
+                        try {
+                            sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                            i += 4;
+                            break;
+                        } catch (NumberFormatException ignored) {
+                            // fall through and keep the text as-is
+                        }
+                    }
+                    sb.append('\\').append(e);
+                    break;
+                default: sb.append(e); break;
+            }
+        }
+        return sb.toString();
+    }
+}
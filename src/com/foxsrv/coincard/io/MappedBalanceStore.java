@@ -0,0 +1,396 @@
+package com.foxsrv.coincard.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped hash table of card balances: every balance the plugin knows, kept on disk.
+ * <p>
+ * The file is a 16-byte header followed by fixed 24-byte records (key, units, timestamp),
+ * found by linear probing from a hash of the key. The whole file is mapped, so opening it costs
+ * nothing per entry, a lookup is a read or two of mapped memory, and {@link #put} changes only
+ * the record's own bytes; {@link #force()} then writes back just the pages that changed. Keys
+ * are card codes packed into 48 bits.
+ * <p>
+ * The table grows in place (four times as large) once it is half full of live records and
+ * tombstones: the file is lengthened, remapped and its records reinserted. The header reads
+ * "CCBC" only after a clean {@link #close()}; any other state (a crash, a growth cut short)
+ * makes the next open recount the records, and a file with a bad header is started over. This
+ * is a cache of the bank, so losing it only costs lookups. Dirty pages reach the disk in no
+ * particular order, so after a system crash (not just the server process) records changed since
+ * the last {@link #force()} may be lost or torn. At {@link #MAX_CAPACITY} the table
+ * stops growing and a put that finds no free slot fails.
+ * <p>
+ * Changes are serialized on a lock of their own; reads only take the object's lock, and only
+ * for as long as the lookup. A growth first copies the live records into memory and answers
+ * reads from that copy while the file is rebuilt, so a lookup never waits for a rehash.
+ * {@link #forEach} takes the lock one chunk of slots at a time, so a scan of every record does
+ * not hold up lookups either.
+ */
+public class MappedBalanceStore implements Closeable {
+
+    public interface Visitor {
+        void accept(long key, long units, long timestamp);
+    }
+
+    private static final int MAGIC_OPEN = 0x43434231;   // "CCB1": in use, or not closed cleanly
+    private static final int MAGIC_CLOSED = 0x43434243; // "CCBC": counts in the header are exact
+    private static final int HEADER = 16;
+    private static final int RECORD = 24;
+    private static final long EMPTY = 0L;
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+    private static final long USED_BIT = 1L << 62;
+    private static final int MIN_CAPACITY = 1024;
+    /** Largest table a single mapping (int offsets) can hold. */
+    private static final int MAX_CAPACITY = 1 << 26;
+    /** Slots {@link #forEach} reads per hold of the lock. */
+    private static final int SCAN_CHUNK = 4096;
+
+    /** The live records during a growth, for reads; built before it is published and never changed after. */
+    private static final class Shadow {
+        final int capacity;
+        final long[] keys;
+        final long[] units;
+        final long[] timestamps;
+
+        Shadow(int records) {
+            capacity = Math.max(16, Integer.highestOneBit(Math.max(1, records) * 2) * 2);
+            keys = new long[capacity];
+            units = new long[capacity];
+            timestamps = new long[capacity];
+        }
+
+        void add(long stored, long u, long t) {
+            int mask = capacity - 1;
+            int i = hash(stored & ~USED_BIT) & mask;
+            while (keys[i] != EMPTY) i = (i + 1) & mask;
+            keys[i] = stored;
+            units[i] = u;
+            timestamps[i] = t;
+        }
+
+        int find(long key) {
+            long stored = key | USED_BIT;
+            int mask = capacity - 1;
+            for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+                if (keys[i] == stored) return i;
+                if (keys[i] == EMPTY) return -1;
+            }
+        }
+    }
+
+    private final FileChannel channel;
+    private final Object writeLock = new Object();
+    private MappedByteBuffer map;
+    private int capacity;
+    private int size;
+    private int used; // live records + tombstones
+    private Shadow shadow; // set while a growth rebuilds the file
+
+    public MappedBalanceStore(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (!open()) {
+                capacity = MIN_CAPACITY;
+                size = 0;
+                used = 0;
+                map = mapTable(MIN_CAPACITY);
+                clearTable(map, MIN_CAPACITY);
+            }
+            writeHeader(MAGIC_OPEN);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** {@code into[0]} = units, {@code into[1]} = timestamp; false if the key is not stored. */
+    public synchronized boolean get(long key, long[] into) {
+        if (map == null) return false;
+        Shadow growing = shadow;
+        if (growing != null) {
+            int slot = growing.find(key);
+            if (slot < 0) return false;
+            into[0] = growing.units[slot];
+            into[1] = growing.timestamps[slot];
+            return true;
+        }
+        int slot = find(key);
+        if (slot < 0) return false;
+        int offset = offset(slot);
+        into[0] = map.getLong(offset + 8);
+        into[1] = map.getLong(offset + 16);
+        return true;
+    }
+
+    public synchronized boolean contains(long key) {
+        if (map == null) return false;
+        return shadow != null ? shadow.find(key) >= 0 : find(key) >= 0;
+    }
+
+    public void put(long key, long units, long timestamp) throws IOException {
+        synchronized (writeLock) {
+            int grown;
+            synchronized (this) {
+                if (map == null) return;
+                long stored = key | USED_BIT;
+                int mask = capacity - 1;
+                int free = -1;
+                for (int i = hash(key) & mask, probes = 0; probes < capacity; i = (i + 1) & mask, probes++) {
+                    long k = map.getLong(offset(i));
+                    if (k == stored) {
+                        writeRecord(i, stored, units, timestamp);
+                        return;
+                    }
+                    if (k == TOMBSTONE) {
+                        if (free < 0) free = i;
+                    } else if (k == EMPTY) {
+                        if (free < 0) {
+                            free = i;
+                            used++;
+                        }
+                        break;
+                    }
+                }
+                if (free < 0) throw new IOException("balances.dat is full (" + capacity + " records)");
+                writeRecord(free, stored, units, timestamp);
+                size++;
+                if (used * 2 <= capacity) return;
+                grown = size * 4 > capacity ? Math.min(capacity * 4, MAX_CAPACITY) : capacity;
+                // at the largest size a rehash in place only pays when it clears enough tombstones
+                if (grown == capacity && used - size < capacity / 4) return;
+            }
+            rehash(grown);
+        }
+    }
+
+    public boolean remove(long key) {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (map == null) return false;
+                int slot = find(key);
+                if (slot < 0) return false;
+                writeRecord(slot, TOMBSTONE, 0L, 0L);
+                size--;
+                return true;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Calls the visitor for every stored entry, in table order, outside the lock. Entries put or
+     * moved by a growth while the scan runs may be missed or seen twice.
+     */
+    public void forEach(Visitor visitor) {
+        long[] records = new long[SCAN_CHUNK * 3];
+        for (int start = 0; ; start += SCAN_CHUNK) {
+            int n = 0;
+            synchronized (this) {
+                if (map == null) return;
+                Shadow growing = shadow;
+                int limit = growing != null ? growing.capacity : capacity;
+                if (start >= limit) return;
+                int end = Math.min(limit, start + SCAN_CHUNK);
+                for (int i = start; i < end; i++) {
+                    if (growing != null) {
+                        long k = growing.keys[i];
+                        if (k == EMPTY) continue;
+                        records[n++] = k & ~USED_BIT;
+                        records[n++] = growing.units[i];
+                        records[n++] = growing.timestamps[i];
+                        continue;
+                    }
+                    int offset = offset(i);
+                    long k = map.getLong(offset);
+                    if (k != EMPTY && k != TOMBSTONE) {
+                        records[n++] = k & ~USED_BIT;
+                        records[n++] = map.getLong(offset + 8);
+                        records[n++] = map.getLong(offset + 16);
+                    }
+                }
+            }
+            for (int r = 0; r < n; r += 3) visitor.accept(records[r], records[r + 1], records[r + 2]);
+        }
+    }
+
+    /** Writes the records changed since the last call back to the file. */
+    public void force() {
+        synchronized (writeLock) {
+            MappedByteBuffer current;
+            synchronized (this) {
+                current = map;
+            }
+            if (current != null) current.force();
+        }
+    }
+
+    public void clear() {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (map == null) return;
+                clearTable(map, capacity);
+                size = 0;
+                used = 0;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (map == null) return;
+                writeHeader(MAGIC_CLOSED);
+                map.force();
+                map = null; // unmapped once collected; the file is never renamed while mapped
+                channel.close();
+            }
+        }
+    }
+
+    /** Maps an existing file; false if it has no usable table. */
+    private boolean open() throws IOException {
+        if (channel.size() < HEADER) return false;
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+        int magic = header.getInt(0);
+        int cap = header.getInt(4);
+        if ((magic != MAGIC_OPEN && magic != MAGIC_CLOSED) || cap < MIN_CAPACITY || cap > MAX_CAPACITY
+                || Integer.bitCount(cap) != 1 || channel.size() < HEADER + (long) cap * RECORD) {
+            return false;
+        }
+        capacity = cap;
+        map = mapTable(cap);
+        if (magic == MAGIC_CLOSED) {
+            size = header.getInt(8);
+            used = header.getInt(12);
+            return true;
+        }
+        // not closed cleanly: recount rather than trust the header
+        int live = 0;
+        int dead = 0;
+        for (int i = 0; i < cap; i++) {
+            long k = map.getLong(offset(i));
+            if (k == TOMBSTONE) dead++;
+            else if (k != EMPTY) live++;
+        }
+        size = live;
+        used = live + dead;
+        return true;
+    }
+
+    /** Slot of the key, or -1. */
+    private int find(long key) {
+        long stored = key | USED_BIT;
+        int mask = capacity - 1;
+        for (int i = hash(key) & mask, probes = 0; probes < capacity; i = (i + 1) & mask, probes++) {
+            long k = map.getLong(offset(i));
+            if (k == stored) return i;
+            if (k == EMPTY) return -1;
+        }
+        return -1;
+    }
+
+    private void writeRecord(int slot, long key, long units, long timestamp) {
+        writeRecord(map, slot, key, units, timestamp);
+    }
+
+    private static void writeRecord(MappedByteBuffer table, int slot, long key, long units, long timestamp) {
+        int offset = offset(slot);
+        table.putLong(offset, key);
+        table.putLong(offset + 8, units);
+        table.putLong(offset + 16, timestamp);
+    }
+
+    /**
+     * Reinserts every live record into a table of {@code newCapacity}, in the same file. Called
+     * holding the write lock only: nothing changes the table meanwhile, and reads are answered
+     * from the {@link Shadow} while the file is rebuilt.
+     */
+    private void rehash(int newCapacity) throws IOException {
+        Shadow copy = new Shadow(size);
+        for (int i = 0; i < capacity; i++) {
+            int offset = offset(i);
+            long k = map.getLong(offset);
+            if (k != EMPTY && k != TOMBSTONE) copy.add(k, map.getLong(offset + 8), map.getLong(offset + 16));
+        }
+        synchronized (this) {
+            shadow = copy;
+        }
+        try {
+            map.putInt(0, 0); // a crash from here on leaves a bad header, so the file is started over
+            map.force();
+            MappedByteBuffer table;
+            try {
+                table = newCapacity != capacity ? mapTable(newCapacity) : map;
+            } catch (IOException e) {
+                synchronized (this) {
+                    writeHeader(MAGIC_OPEN); // the old table is untouched and still in use
+                }
+                throw e;
+            }
+            clearTable(table, newCapacity);
+            int mask = newCapacity - 1;
+            for (int s = 0; s < copy.capacity; s++) {
+                long k = copy.keys[s];
+                if (k == EMPTY) continue;
+                int i = hash(k & ~USED_BIT) & mask;
+                while (table.getLong(offset(i)) != EMPTY) i = (i + 1) & mask;
+                writeRecord(table, i, k, copy.units[s], copy.timestamps[s]);
+            }
+            synchronized (this) {
+                map = table;
+                capacity = newCapacity;
+                used = size;
+                writeHeader(MAGIC_OPEN);
+            }
+        } finally {
+            synchronized (this) {
+                shadow = null;
+            }
+        }
+    }
+
+    private MappedByteBuffer mapTable(int cap) throws IOException {
+        // mapping past the end of the file lengthens it; the new bytes read as zeros (EMPTY)
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) cap * RECORD);
+    }
+
+    private static void clearTable(MappedByteBuffer table, int cap) {
+        for (int i = 0; i < cap; i++) {
+            int offset = offset(i);
+            table.putLong(offset, EMPTY);
+            table.putLong(offset + 8, 0L);
+            table.putLong(offset + 16, 0L);
+        }
+    }
+
+    private void writeHeader(int magic) {
+        map.putInt(0, magic);
+        map.putInt(4, capacity);
+        map.putInt(8, size);
+        map.putInt(12, used);
+    }
+
+    private static int offset(int slot) {
+        return HEADER + slot * RECORD;
+    }
+
+    private static int hash(long key) {
+        // murmur3 fmix64, the same spread as CardBalanceMap
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
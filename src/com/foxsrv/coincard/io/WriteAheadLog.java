@@ -0,0 +1,329 @@
+package com.foxsrv.coincard.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of small binary records, made durable by group commit.
+ * <p>
+ * The file is an 8-byte header ("CCW1", reserved int) followed by frames of
+ * {@code [int length][int crc32][payload]}. {@link #append} only queues the record; one writer
+ * thread takes everything queued since its last pass, writes it with a single sequential write
+ * and forces it to disk once, then completes the futures of all records in that commit. A burst
+ * of appends from many threads therefore costs one fsync, not one each.
+ * <p>
+ * {@link #replay} reads the frames back and stops at the first one that is cut short or fails
+ * its checksum (a crash during a write); the file is truncated there so new frames follow good
+ * ones. When the file has grown past twice its size after the last compaction (and at least
+ * {@code compactMinBytes}), the writer rewrites it from the owner's snapshot of live records,
+ * into a temporary file moved over the log. Records must be idempotent upserts and deletes, as
+ * the snapshot may already contain changes whose frames are still queued behind it.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final int MAGIC = 0x43435731; // "CCW1"
+    private static final int HEADER = 8;
+    private static final int FRAME_HEADER = 8;
+    private static final int MAX_RECORD = 1 << 20;
+    private static final int MAX_COMMIT_RECORDS = 4096;
+
+    private static final class Pending {
+        final byte[] payload;
+        final CompletableFuture<Void> done;
+
+        Pending(byte[] payload, CompletableFuture<Void> done) {
+            this.payload = payload;
+            this.done = done;
+        }
+    }
+
+    private static final Pending STOP = new Pending(new byte[0], null);
+
+    private final File file;
+    private final Logger logger;
+    private final Supplier<Collection<byte[]>> snapshot;
+    private final long compactMinBytes;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    private FileChannel channel;
+    private Thread writer;
+    private volatile long size;
+    private long compactAt;
+
+    /**
+     * @param snapshot        the records that are live now, for compaction; called on the writer thread
+     * @param compactMinBytes log size below which it is never compacted
+     */
+    public WriteAheadLog(File file, Supplier<Collection<byte[]>> snapshot, long compactMinBytes, Logger logger) {
+        this.file = file;
+        this.snapshot = snapshot;
+        this.compactMinBytes = Math.max(HEADER, compactMinBytes);
+        this.logger = logger;
+    }
+
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Feeds every intact record to the consumer in the order written, truncates anything after
+     * the last one and starts the writer. A file with a foreign header is set aside as
+     * {@code <name>.corrupt} and a new log is started.
+     *
+     * @return the number of records read
+     */
+    public synchronized int replay(Consumer<byte[]> consumer) throws IOException {
+        if (writer != null) throw new IllegalStateException("already open");
+        File parent = file.getParentFile();
+        if (parent != null) parent.mkdirs();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        int records = 0;
+        long good = HEADER;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        if (channel.size() < HEADER) {
+            channel.truncate(0); // new, or cut short while being created
+            writeHeader(channel);
+        } else if (!readFully(header, 0) || header.getInt(0) != MAGIC) {
+            channel.close();
+            File aside = new File(file.getParentFile(), file.getName() + ".corrupt");
+            Files.move(file.toPath(), aside.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            logger.warning(file.getName() + " has an unknown header; moved to " + aside.getName()
+                    + " and started a new log.");
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            writeHeader(channel);
+        } else {
+            long length = channel.size();
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER);
+            CRC32 crc = new CRC32();
+            while (good + FRAME_HEADER <= length) {
+                frame.clear();
+                if (!readFully(frame, good)) break;
+                int recordLength = frame.getInt(0);
+                int checksum = frame.getInt(4);
+                if (recordLength < 0 || recordLength > MAX_RECORD || good + FRAME_HEADER + recordLength > length) break;
+                ByteBuffer payload = ByteBuffer.allocate(recordLength);
+                if (!readFully(payload, good + FRAME_HEADER)) break;
+                crc.reset();
+                crc.update(payload.array(), 0, recordLength);
+                if ((int) crc.getValue() != checksum) break;
+                consumer.accept(payload.array());
+                records++;
+                good += FRAME_HEADER + recordLength;
+            }
+            if (good < length) {
+                logger.warning(file.getName() + ": dropped " + (length - good) + " bytes after the last intact record.");
+                channel.truncate(good);
+                channel.force(true);
+            }
+        }
+        size = channel.size();
+        compactAt = Math.max(compactMinBytes, size * 2);
+        channel.position(size);
+        startWriter();
+        return records;
+    }
+
+    /** Queues a record; the future completes once it is on disk (exceptionally if the write failed). */
+    public CompletableFuture<Void> append(byte[] payload) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (payload.length > MAX_RECORD) {
+            done.completeExceptionally(new IOException("record too large: " + payload.length));
+            return done;
+        }
+        queue.offer(new Pending(payload, done));
+        return done;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getRecordsWritten() {
+        return recordsWritten.get();
+    }
+
+    /** fsyncs so far; records written divided by this is the average group size. */
+    public long getCommits() {
+        return commits.get();
+    }
+
+    public long getCompactions() {
+        return compactions.get();
+    }
+
+    /** Writes what is queued, compacts if due and closes the file. */
+    @Override
+    public synchronized void close() {
+        Thread t = writer;
+        if (t == null) return;
+        queue.offer(STOP);
+        try {
+            t.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void startWriter() {
+        writer = new Thread(this::writeLoop, "CoinCard-WAL-" + file.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                stopping = true;
+            }
+            queue.drainTo(batch, MAX_COMMIT_RECORDS);
+            if (batch.remove(STOP)) stopping = true;
+            if (!batch.isEmpty()) commit(batch);
+            batch.clear();
+            if (size >= compactAt || stopping && size > compactMinBytes) compact();
+        }
+        // anything queued behind the stop marker still gets written
+        queue.drainTo(batch);
+        batch.remove(STOP);
+        if (!batch.isEmpty()) commit(batch);
+    }
+
+    private void commit(List<Pending> batch) {
+        int bytes = 0;
+        for (Pending p : batch) bytes += FRAME_HEADER + p.payload.length;
+        ByteBuffer out = ByteBuffer.allocate(bytes);
+        CRC32 crc = new CRC32();
+        for (Pending p : batch) {
+            crc.reset();
+            crc.update(p.payload, 0, p.payload.length);
+            out.putInt(p.payload.length).putInt((int) crc.getValue()).put(p.payload);
+        }
+        out.flip();
+        IOException failure = null;
+        try {
+            while (out.hasRemaining()) channel.write(out);
+            channel.force(false);
+            size = channel.position();
+            recordsWritten.addAndGet(batch.size());
+            commits.incrementAndGet();
+        } catch (IOException e) {
+            failure = e;
+            logger.warning("Failed to write " + file.getName() + ": " + e.getMessage());
+            rollBack();
+        }
+        for (Pending p : batch) {
+            if (failure == null) p.done.complete(null);
+            else p.done.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Cuts a commit that failed part way back to the last good frame, so later commits do not
+     * land behind a torn one that {@link #replay} would stop at. Reopens the file if the channel
+     * itself is broken.
+     */
+    private void rollBack() {
+        try {
+            channel.truncate(size);
+            channel.position(size);
+            return;
+        } catch (IOException e) {
+            logger.warning("Failed to roll back " + file.getName() + ", reopening: " + e.getMessage());
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.truncate(size);
+            channel.position(size);
+        } catch (IOException reopen) {
+            logger.severe("Cannot reopen " + file.getName() + ": " + reopen.getMessage());
+        }
+    }
+
+    private void compact() {
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            Collection<byte[]> live = snapshot.get();
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeHeader(out);
+                out.position(HEADER);
+                CRC32 crc = new CRC32();
+                for (byte[] payload : live) {
+                    crc.reset();
+                    crc.update(payload, 0, payload.length);
+                    ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + payload.length);
+                    frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+                    while (frame.hasRemaining()) out.write(frame);
+                }
+                out.force(true);
+            }
+            channel.close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = channel.size();
+            channel.position(size);
+            compactions.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Failed to compact " + file.getName() + ": " + e.getMessage());
+            try {
+                if (!channel.isOpen()) {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    channel.position(channel.size());
+                }
+            } catch (IOException reopen) {
+                logger.severe("Cannot reopen " + file.getName() + ": " + reopen.getMessage());
+            }
+        }
+        compactAt = Math.max(compactMinBytes, size * 2);
+    }
+
+    private boolean readFully(ByteBuffer into, long position) throws IOException {
+        while (into.hasRemaining()) {
+            int n = channel.read(into, position + into.position());
+            if (n < 0) return false;
+        }
+        return true;
+    }
+
+    private static void writeHeader(FileChannel out) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(0);
+        header.flip();
+        out.write(header, 0);
+        out.force(true);
+    }
+}